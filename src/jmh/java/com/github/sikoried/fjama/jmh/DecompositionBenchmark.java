@@ -0,0 +1,66 @@
+package com.github.sikoried.fjama.jmh;
+import com.github.sikoried.fjama.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+   /** Benchmarks of the LU, Cholesky and eigenvalue decompositions.
+   <P>
+   These decompositions are defined for square matrices, so only the size
+   is varied.  Each solve benchmark uses a decomposition computed in the
+   setup and a right-hand side with 16 columns.
+   */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecompositionBenchmark {
+
+   @Param({"8", "64", "512", "4096"})
+   public int size;
+
+   private Matrix A, S, R;
+   private LUDecomposition lu;
+   private CholeskyDecomposition chol;
+
+   @Setup
+   public void setup () {
+      A = Shapes.wellConditioned(size,size);
+      S = Shapes.spd(size);
+      R = Matrix.random(size,16);
+      lu = A.lu();
+      chol = S.chol();
+   }
+
+   @Benchmark
+   public LUDecomposition lu () {
+      return new LUDecomposition(A);
+   }
+
+   @Benchmark
+   public Matrix luSolve () {
+      return lu.solve(R);
+   }
+
+   @Benchmark
+   public CholeskyDecomposition chol () {
+      return new CholeskyDecomposition(S);
+   }
+
+   @Benchmark
+   public Matrix cholSolve () {
+      return chol.solve(R);
+   }
+
+   @Benchmark
+   public EigenvalueDecomposition eigSymmetric () {
+      return new EigenvalueDecomposition(S);
+   }
+
+   @Benchmark
+   public EigenvalueDecomposition eigNonsymmetric () {
+      return new EigenvalueDecomposition(A);
+   }
+}
@@ -0,0 +1,53 @@
+package com.github.sikoried.fjama.jmh;
+import com.github.sikoried.fjama.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+   /** Benchmarks of the QR and singular value decompositions.
+   <P>
+   Both decompositions require at least as many rows as columns, so the
+   shapes are square (size-by-size) and tall (size-by-size/4).  QR solve
+   computes a least squares solution for a right-hand side with 16 columns.
+   The SVD has no solve method; its benchmark includes forming U and V.
+   */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LeastSquaresBenchmark {
+
+   @Param({"8", "64", "512", "4096"})
+   public int size;
+
+   @Param({"square", "tall"})
+   public String shape;
+
+   private Matrix A, R;
+   private QRDecomposition qr;
+
+   @Setup
+   public void setup () {
+      int m = Shapes.rows(shape,size), n = Shapes.columns(shape,size);
+      A = Shapes.wellConditioned(m,n);
+      R = Matrix.random(m,16);
+      qr = A.qr();
+   }
+
+   @Benchmark
+   public QRDecomposition qr () {
+      return new QRDecomposition(A);
+   }
+
+   @Benchmark
+   public Matrix qrSolve () {
+      return qr.solve(R);
+   }
+
+   @Benchmark
+   public SingularValueDecomposition svd () {
+      return new SingularValueDecomposition(A);
+   }
+}
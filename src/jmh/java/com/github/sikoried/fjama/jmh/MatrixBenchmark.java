@@ -0,0 +1,77 @@
+package com.github.sikoried.fjama.jmh;
+import com.github.sikoried.fjama.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+   /** Benchmarks of Matrix products, element-wise operations and transpose.
+   <P>
+   The size parameter is the larger dimension of A.  Square matrices are
+   size-by-size, tall ones size-by-size/4 and wide ones size/4-by-size.
+   The product multiplies A by a matrix with the shape of A', so all
+   shapes compute a product with the same number of multiply-adds.
+   */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatrixBenchmark {
+
+   @Param({"8", "64", "512", "4096"})
+   public int size;
+
+   @Param({"square", "tall", "wide"})
+   public String shape;
+
+   private Matrix A, B, T;
+
+   @Setup
+   public void setup () {
+      int m = Shapes.rows(shape,size), n = Shapes.columns(shape,size);
+      A = Matrix.random(m,n);
+      B = Matrix.random(m,n);
+      T = Matrix.random(n,m);
+   }
+
+   @Benchmark
+   public Matrix times () {
+      return A.times(T);
+   }
+
+   @Benchmark
+   public Matrix plus () {
+      return A.plus(B);
+   }
+
+   @Benchmark
+   public Matrix minus () {
+      return A.minus(B);
+   }
+
+   @Benchmark
+   public Matrix arrayTimes () {
+      return A.arrayTimes(B);
+   }
+
+   @Benchmark
+   public Matrix arrayRightDivide () {
+      return A.arrayRightDivide(B);
+   }
+
+   @Benchmark
+   public Matrix timesScalar () {
+      return A.times(1.5f);
+   }
+
+   @Benchmark
+   public Matrix uminus () {
+      return A.uminus();
+   }
+
+   @Benchmark
+   public Matrix transpose () {
+      return A.transpose();
+   }
+}
@@ -0,0 +1,39 @@
+package com.github.sikoried.fjama.jmh;
+import com.github.sikoried.fjama.*;
+
+   /** Dimensions and test matrices shared by the benchmarks. */
+
+final class Shapes {
+
+   private Shapes () {
+   }
+
+   /** Row dimension of a matrix of the given shape and size. **/
+
+   static int rows (String shape, int size) {
+      return (shape.equals("wide") ? Math.max(1,size/4) : size);
+   }
+
+   /** Column dimension of a matrix of the given shape and size. **/
+
+   static int columns (String shape, int size) {
+      return (shape.equals("tall") ? Math.max(1,size/4) : size);
+   }
+
+   /** Random m-by-n matrix of full rank, with a dominant diagonal. **/
+
+   static Matrix wellConditioned (int m, int n) {
+      Matrix A = Matrix.random(m,n);
+      for (int i = 0; i < Math.min(m,n); i++) {
+         A.set(i,i,A.get(i,i)+Math.max(m,n));
+      }
+      return A;
+   }
+
+   /** Random symmetric positive definite n-by-n matrix. **/
+
+   static Matrix spd (int n) {
+      Matrix A = wellConditioned(n,n);
+      return A.plus(A.transpose());
+   }
+}
@@ -0,0 +1,436 @@
+package com.github.sikoried.fjama;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+   /** LU Decomposition of a batch of small square matrices.
+   <P>
+   Factors count n-by-n matrices held in one array, interleaved so that
+   element (i,j) of matrix k is stored at
+   <BLOCKQUOTE>
+   A[(i*n+j)*count + k].
+   </BLOCKQUOTE>
+   The same element of consecutive matrices is contiguous, and every step
+   of the elimination runs as one SIMD loop across the batch, instead of
+   a short loop over one small matrix.  No Matrix or LUDecomposition
+   objects are created.
+   <P>
+   Each matrix is pivoted on its own, choosing the same pivots and doing
+   the same arithmetic as LUDecomposition, so the factors, determinants
+   and solutions are identical to those of factoring the matrices one by
+   one.  The batch is processed in chunks that fit into the cache, and a
+   ForkJoinPool may factor and solve the chunks in parallel.
+   <P>
+   Unlike LUDecomposition.solve, solve does not fail for singular matrices
+   but leaves infinite or NaN solutions for them; isNonsingular(k) tells
+   which they are.
+   */
+
+public class BatchedLU implements java.io.Serializable {
+
+/* ------------------------
+   Class variables
+ * ------------------------ */
+
+   /** Number of elements of one chunk of the batch, so that a chunk of
+       the matrices stays in a 32 KB cache. */
+   private static final int CHUNK = 1 << 13;
+
+   /** Chunks are not split into tasks below this number of matrices. */
+   private static final int MIN_MATRICES = 1024;
+
+   /** Interleaved storage of the factors.
+   @serial internal storage.
+   */
+   private float[] LU;
+
+   /** Dimension and number of matrices.
+   @serial matrix dimension.
+   @serial number of matrices.
+   */
+   private int n, count;
+
+   /** Interleaved pivot vectors, piv[i*count+k] for matrix k, and the
+       pivot signs.
+   @serial pivot vectors.
+   @serial pivot signs.
+   */
+   private int[] piv, pivsign;
+
+/* ------------------------
+   Constructor
+ * ------------------------ */
+
+   /** LU Decomposition of a batch of matrices
+   @param  A      count n-by-n matrices, interleaved; not modified.
+   @param  n      Dimension of the matrices.
+   @param  count  Number of matrices.
+   @exception  IllegalArgumentException Array length must be at least n*n*count.
+   */
+
+   public BatchedLU (float[] A, int n, int count) {
+      this(A,n,count,null,1,false);
+   }
+
+   /** LU Decomposition of a batch of matrices computed in parallel.
+   @param  A      count n-by-n matrices, interleaved; not modified.
+   @param  n      Dimension of the matrices.
+   @param  count  Number of matrices.
+   @param  pool   Pool that factors the chunks of the batch.
+   @exception  IllegalArgumentException Array length must be at least n*n*count.
+   */
+
+   public BatchedLU (float[] A, int n, int count, ForkJoinPool pool) {
+      this(A,n,count,pool,pool.getParallelism(),false);
+   }
+
+   /** LU Decomposition of a batch of matrices in the storage of A.
+   <P>
+   The factors overwrite A, which saves the copy made by the
+   constructors.f  A is consumed and must not be used as the original
+   matrices afterwards.
+   @param  A      count n-by-n matrices, interleaved; overwritten.
+   @param  n      Dimension of the matrices.
+   @param  count  Number of matrices.
+   @return        LU decomposition of the batch
+   @exception  IllegalArgumentException Array length must be at least n*n*count.
+   */
+
+   public static BatchedLU inPlace (float[] A, int n, int count) {
+      return new BatchedLU(A,n,count,null,1,true);
+   }
+
+   /** LU Decomposition of a batch of matrices in the storage of A,
+       computed in parallel.
+   @param  A      count n-by-n matrices, interleaved; overwritten.
+   @param  n      Dimension of the matrices.
+   @param  count  Number of matrices.
+   @param  pool   Pool that factors the chunks of the batch.
+   @return        LU decomposition of the batch
+   @exception  IllegalArgumentException Array length must be at least n*n*count.
+   @see    #inPlace(float[],int,int)
+   */
+
+   public static BatchedLU inPlace (float[] A, int n, int count, ForkJoinPool pool) {
+      return new BatchedLU(A,n,count,pool,pool.getParallelism(),true);
+   }
+
+   private BatchedLU (float[] A, int n, int count, ForkJoinPool pool, int tasks, boolean overwrite) {
+      if (n < 0 || count < 0 || (long) n*n*count > A.length) {
+         throw new IllegalArgumentException("Array length must be at least n*n*count.");
+      }
+      this.n = n;
+      this.count = count;
+      LU = (overwrite ? A : java.util.Arrays.copyOf(A,n*n*count));
+      piv = new int[n*count];
+      pivsign = new int[count];
+      for (int i = 0; i < n; i++) {
+         java.util.Arrays.fill(piv,i*count,(i+1)*count,i);
+      }
+      java.util.Arrays.fill(pivsign,1);
+      run(null,null,0,pool,tasks);
+   }
+
+/* ------------------------
+   Public Methods
+ * ------------------------ */
+
+   /** Return the dimension of the matrices
+   @return     n
+   */
+
+   public int getDimension () {
+      return n;
+   }
+
+   /** Return the number of matrices
+   @return     count
+   */
+
+   public int getCount () {
+      return count;
+   }
+
+   /** Are all matrices nonsingular?
+   @return     true if no U has a zero on its diagonal.
+   */
+
+   public boolean isNonsingular () {
+      for (int k = 0; k < count; k++) {
+         if (!isNonsingular(k)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /** Is matrix k nonsingular?
+   @param  k   Index of the matrix in the batch.
+   @return     true if U of matrix k, and hence the matrix, is nonsingular.
+   @exception  ArrayIndexOutOfBoundsException
+   */
+
+   public boolean isNonsingular (int k) {
+      checkIndex(k);
+      for (int j = 0; j < n; j++) {
+         if (LU[(j*n+j)*count+k] == 0) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /** Return the lower triangular factor of matrix k
+   @param  k   Index of the matrix in the batch.
+   @return     L
+   @exception  ArrayIndexOutOfBoundsException
+   */
+
+   public Matrix getL (int k) {
+      checkIndex(k);
+      Matrix X = new Matrix(n,n);
+      for (int i = 0; i < n; i++) {
+         for (int j = 0; j < i; j++) {
+            X.set(i,j,LU[(i*n+j)*count+k]);
+         }
+         X.set(i,i,1.0f);
+      }
+      return X;
+   }
+
+   /** Return the upper triangular factor of matrix k
+   @param  k   Index of the matrix in the batch.
+   @return     U
+   @exception  ArrayIndexOutOfBoundsException
+   */
+
+   public Matrix getU (int k) {
+      checkIndex(k);
+      Matrix X = new Matrix(n,n);
+      for (int i = 0; i < n; i++) {
+         for (int j = i; j < n; j++) {
+            X.set(i,j,LU[(i*n+j)*count+k]);
+         }
+      }
+      return X;
+   }
+
+   /** Return the pivot permutation vector of matrix k
+   @param  k   Index of the matrix in the batch.
+   @return     piv
+   @exception  ArrayIndexOutOfBoundsException
+   */
+
+   public int[] getPivot (int k) {
+      checkIndex(k);
+      int[] p = new int[n];
+      for (int i = 0; i < n; i++) {
+         p[i] = piv[i*count+k];
+      }
+      return p;
+   }
+
+   /** Determinants
+   @return     det(A_k) for all matrices, in one array of length count.
+   */
+
+   public float[] det () {
+      float[] d = new float[count];
+      for (int k = 0; k < count; k++) {
+         d[k] = (float) pivsign[k];
+      }
+      for (int j = 0; j < n; j++) {
+         Kernels.K.mul(d,0,LU,(j*n+j)*count,d,0,count);
+      }
+      return d;
+   }
+
+   /** Solve A_k*X_k = B_k for all matrices
+   @param  B     count n-by-nrhs right hand sides, interleaved like the
+                 matrices:  element (i,j) of B_k is B[(i*nrhs+j)*count + k].
+   @param  nrhs  Number of columns of each right hand side.
+   @return       X, interleaved like B.
+   @exception  IllegalArgumentException Array length must be at least n*nrhs*count.
+   */
+
+   public float[] solve (float[] B, int nrhs) {
+      return solve(B,nrhs,null,1);
+   }
+
+   /** Solve A_k*X_k = B_k for all matrices in parallel
+   @param  B     count n-by-nrhs right hand sides, interleaved.
+   @param  nrhs  Number of columns of each right hand side.
+   @param  pool  Pool that solves the chunks of the batch.
+   @return       X, interleaved like B.
+   @exception  IllegalArgumentException Array length must be at least n*nrhs*count.
+   @see    #solve(float[],int)
+   */
+
+   public float[] solve (float[] B, int nrhs, ForkJoinPool pool) {
+      return solve(B,nrhs,pool,pool.getParallelism());
+   }
+
+/* ------------------------
+   Private Methods
+ * ------------------------ */
+
+   private float[] solve (float[] B, int nrhs, ForkJoinPool pool, int tasks) {
+      if (nrhs < 0 || (long) n*nrhs*count > B.length) {
+         throw new IllegalArgumentException("Array length must be at least n*nrhs*count.");
+      }
+      float[] X = new float[n*nrhs*count];
+      run(B,X,nrhs,pool,tasks);
+      return X;
+   }
+
+   /** Factor the batch if B is null, otherwise solve for B into X,
+       chunk by chunk on at most tasks tasks. **/
+
+   private void run (float[] B, float[] X, int nrhs, ForkJoinPool pool, int tasks) {
+      if (tasks > 1 && count >= 2*MIN_MATRICES) {
+         pool.invoke(new Chunks(B,X,nrhs,0,count,tasks));
+      } else {
+         chunks(B,X,nrhs,0,count);
+      }
+   }
+
+   /** Process matrices k0:k1-1 in chunks that fit into the cache. **/
+
+   private void chunks (float[] B, float[] X, int nrhs, int k0, int k1) {
+      int w = Math.max(16,CHUNK/Math.max(n*Math.max(n,nrhs),1) & ~15);
+      for (int k = k0; k < k1; k += w) {
+         if (B == null) {
+            factor(k,Math.min(k+w,k1));
+         } else {
+            solve(B,X,nrhs,k,Math.min(k+w,k1));
+         }
+      }
+   }
+
+   /** Factor matrices k0:k1-1, as LUDecomposition factors one matrix. **/
+
+   private void factor (int k0, int k1) {
+      int c = count, len = k1-k0;
+      float[] amax = new float[len];
+      int[] p = new int[len];
+      for (int j = 0; j < n; j++) {
+         int jj = (j*n+j)*c;
+
+         // Find pivots.
+         for (int k = k0; k < k1; k++) {
+            p[k-k0] = j;
+            amax[k-k0] = Math.abs(LU[jj+k]);
+         }
+         for (int i = j+1; i < n; i++) {
+            int ij = (i*n+j)*c;
+            for (int k = k0; k < k1; k++) {
+               float a = Math.abs(LU[ij+k]);
+               if (a > amax[k-k0]) {
+                  amax[k-k0] = a;
+                  p[k-k0] = i;
+               }
+            }
+         }
+
+         // Exchange rows, element by element across the chunk.
+         for (int l = 0; l < n; l++) {
+            int jl = (j*n+l)*c;
+            for (int k = k0; k < k1; k++) {
+               int ql = (p[k-k0]*n+l)*c+k;
+               float t = LU[ql]; LU[ql] = LU[jl+k]; LU[jl+k] = t;
+            }
+         }
+         for (int k = k0; k < k1; k++) {
+            int q = p[k-k0];
+            if (q != j) {
+               int t = piv[q*c+k]; piv[q*c+k] = piv[j*c+k]; piv[j*c+k] = t;
+               pivsign[k] = -pivsign[k];
+            }
+         }
+
+         // Compute multipliers and eliminate.
+         for (int i = j+1; i < n; i++) {
+            int ij = (i*n+j)*c;
+            for (int k = k0; k < k1; k++) {
+               float d = LU[jj+k];
+               if (d != 0.0f) {
+                  LU[ij+k] /= d;
+               }
+            }
+            for (int l = j+1; l < n; l++) {
+               Kernels.K.subMul(LU,ij+k0,LU,(j*n+l)*c+k0,LU,(i*n+l)*c+k0,len);
+            }
+         }
+      }
+   }
+
+   /** Solve for the right hand sides of matrices k0:k1-1. **/
+
+   private void solve (float[] B, float[] X, int nrhs, int k0, int k1) {
+      int c = count, len = k1-k0;
+
+      // Copy right hand side with pivoting
+      for (int i = 0; i < n; i++) {
+         for (int j = 0; j < nrhs; j++) {
+            int x = (i*nrhs+j)*c;
+            for (int k = k0; k < k1; k++) {
+               X[x+k] = B[(piv[i*c+k]*nrhs+j)*c+k];
+            }
+         }
+      }
+      // Solve L*Y = B(piv,:)
+      for (int l = 0; l < n; l++) {
+         for (int i = l+1; i < n; i++) {
+            for (int j = 0; j < nrhs; j++) {
+               Kernels.K.subMul(LU,(i*n+l)*c+k0,X,(l*nrhs+j)*c+k0,X,(i*nrhs+j)*c+k0,len);
+            }
+         }
+      }
+      // Solve U*X = Y;
+      for (int l = n-1; l >= 0; l--) {
+         for (int j = 0; j < nrhs; j++) {
+            int x = (l*nrhs+j)*c+k0;
+            Kernels.K.div(X,x,LU,(l*n+l)*c+k0,X,x,len);
+         }
+         for (int i = 0; i < l; i++) {
+            for (int j = 0; j < nrhs; j++) {
+               Kernels.K.subMul(LU,(i*n+l)*c+k0,X,(l*nrhs+j)*c+k0,X,(i*nrhs+j)*c+k0,len);
+            }
+         }
+      }
+   }
+
+   /** Check that k indexes a matrix of the batch. **/
+
+   private void checkIndex (int k) {
+      if (k < 0 || k >= count) {
+         throw new ArrayIndexOutOfBoundsException(k);
+      }
+   }
+
+   /** Factor or solve matrices k0:k1-1, split into at most tasks tasks. **/
+
+   private class Chunks extends RecursiveAction {
+      private final float[] B, X;
+      private final int nrhs, k0, k1, tasks;
+
+      Chunks (float[] B, float[] X, int nrhs, int k0, int k1, int tasks) {
+         this.B = B; this.X = X; this.nrhs = nrhs;
+         this.k0 = k0; this.k1 = k1; this.tasks = tasks;
+      }
+
+      protected void compute () {
+         if (tasks > 1 && k1-k0 >= 2*MIN_MATRICES) {
+            int t0 = tasks/2, k = k0+(int) ((long) (k1-k0)*t0/tasks);
+            invokeAll(new Chunks(B,X,nrhs,k0,k,t0),
+                      new Chunks(B,X,nrhs,k,k1,tasks-t0));
+            return;
+         }
+         chunks(B,X,nrhs,k0,k1);
+      }
+
+      private static final long serialVersionUID = 1;
+   }
+
+  private static final long serialVersionUID = 1;
+}
@@ -1,5 +1,8 @@
 package com.github.sikoried.fjama;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
    /** Cholesky Decomposition.
    <P>
    For a symmetric, positive definite matrix A, the Cholesky decomposition
@@ -16,10 +19,21 @@ public class CholeskyDecomposition implements java.io.Serializable {
    Class variables
  * ------------------------ */
 
-   /** Array for internal storage of decomposition.
-   @serial internal array storage.
+   /** Number of rows of L computed as one block. */
+   private static final int NB = 64;
+
+   /** Number of elements of a block of right hand sides that are
+       substituted together, so that the block stays in a 256 KB cache. */
+   private static final int RHS_BLOCK = 1 << 16;
+
+   /** Right hand sides are not split into tasks below this many columns. */
+   private static final int MIN_COLUMNS = 128;
+
+   /** Internal storage of decomposition, with the same kind of storage
+       as the factored matrix.
+   @serial internal storage.
    */
-   private float[][] L;
+   private Matrix L;
 
    /** Row and column dimension (square matrix).
    @serial matrix dimension.
@@ -41,34 +55,81 @@ public class CholeskyDecomposition implements java.io.Serializable {
    */
 
    public CholeskyDecomposition (Matrix Arg) {
+      this(Arg,false);
+   }
+
+   /** Cholesky decomposition in the storage of Arg.
+   <P>
+   L overwrites the lower triangle of Arg and the upper triangle is set to
+   zero, which saves allocating L separately.f  Arg is consumed:  afterwards
+   it is L itself, as returned by getL(), and must not be used as the
+   original matrix.f  A matrix that is not square is left unchanged and L is
+   allocated as usual.f  A buffer-backed matrix is factored in its buffer,
+   with a block of rows at a time copied to the heap.
+   @param  Arg   Square, symmetric matrix, overwritten
+   @return       Cholesky decomposition of Arg
+   */
+
+   public static CholeskyDecomposition inPlace (Matrix Arg) {
+      return new CholeskyDecomposition(Arg,true);
+   }
 
+   private CholeskyDecomposition (Matrix Arg, boolean overwrite) {
 
      // Initialize.
-      float[][] A = Arg.getArray();
       n = Arg.getRowDimension();
-      L = new float[n][n];
       isspd = (Arg.getColumnDimension() == n);
-      // Main loop.
-      for (int j = 0; j < n; j++) {
-         float[] Lrowj = L[j];
-         float d = 0.0f;
-         for (int k = 0; k < j; k++) {
-            float[] Lrowk = L[k];
-            float s = 0.0f;
-            for (int i = 0; i < k; i++) {
-               s += Lrowk[i]*Lrowj[i];
+      L = (overwrite && isspd ? Arg : Arg.like(n,n));
+      if (L == Arg) {
+         Arg.modified();
+      }
+      // Main loop, over blocks of NB rows of L, which read the rows above
+      // them one block at a time.  If L is buffer-backed, the blocks are
+      // copied to the heap.  Each element is computed in the same order as
+      // row by row.
+      float[] d = new float[NB];
+      for (int j0 = 0; j0 < n; j0 += NB) {
+         int j1 = Math.min(j0+NB,n);
+         Matrix Aj = Arg.stage(j0,j1,0,j1);
+         Matrix W = (L.isBufferBacked() ? new Matrix(j1-j0,j1) : L);
+         int w0 = (W == L ? 0 : j0);
+         java.util.Arrays.fill(d,0.0f);
+         for (int k0 = 0; k0 <= j0; k0 += NB) {
+            int k1 = Math.min(k0+NB,j1);
+            Matrix K = (k0 == j0 ? W : L.isBufferBacked() ? L.stage(k0,k1,0,k1) : L);
+            int q0 = (K == L ? 0 : k0);
+            for (int j = j0; j < j1; j++) {
+               float[] Lrowj = W.row(j-w0), Arowj = Aj.row(j-j0);
+               int lj = W.base(j-w0), aj = Aj.base(j-j0);
+               for (int k = k0; k < Math.min(k1,j); k++) {
+                  float[] Lrowk = K.row(k-q0);
+                  int lk = K.base(k-q0);
+                  float s = 0.0f;
+                  for (int i = 0; i < k; i++) {
+                     s += Lrowk[lk+i]*Lrowj[lj+i];
+                  }
+                  Lrowj[lj+k] = s = (Arowj[aj+k] - s)/Lrowk[lk+k];
+                  d[j-j0] = d[j-j0] + s*s;
+                  isspd = isspd & (Arg.get(k,j) == Arowj[aj+k]); 
+               }
+               if (k0 == j0) {
+                  float djj = Arowj[aj+j] - d[j-j0];
+                  isspd = isspd & (djj > 0.0f);
+                  Lrowj[lj+j] = (float) Math.sqrt(Math.max(djj,0.0f));
+               }
             }
-            Lrowj[k] = s = (A[j][k] - s)/L[k][k];
-            d = d + s*s;
-            isspd = isspd & (A[k][j] == A[j][k]); 
          }
-         d = A[j][j] - d;
-         isspd = isspd & (d > 0.0f);
-         L[j][j] = (float) Math.sqrt(Math.max(d,0.0f));
-         for (int k = j+1; k < n; k++) {
-            L[j][k] = 0.0f;
+         if (W != L) {
+            L.unstage(W,j0,0);
          }
       }
+
+      // Clear the upper triangle only now, since the symmetry check reads
+      // it if L shares the storage of Arg.
+      float[] z = new float[n];
+      for (int j = 0; j < n; j++) {
+         L.setRow(j,j+1,z,0,n-j-1);
+      }
    }
 
 /* ------------------------
@@ -150,7 +211,7 @@ public class CholeskyDecomposition implements java.io.Serializable {
    */
 
    public Matrix getL () {
-      return new Matrix(L,n,n);
+      return L;
    }
 
    /** Solve A*X = B
@@ -161,6 +222,54 @@ public class CholeskyDecomposition implements java.io.Serializable {
    */
 
    public Matrix solve (Matrix B) {
+      return solve(B,null,1);
+   }
+
+   /** Solve A*X = B with the columns of B split into tasks on a ForkJoinPool.
+   @param  B     A Matrix with as many rows as A and any number of columns.
+   @param  pool  Pool that executes the tasks.
+   @return       X so that L*L'*X = B, the same as with a single thread
+   @exception  IllegalArgumentException  Matrix row dimensions must agree.
+   @exception  RuntimeException  Matrix is not symmetric positive definite.
+   */
+
+   public Matrix solve (Matrix B, ForkJoinPool pool) {
+      return solve(B,pool,pool.getParallelism());
+   }
+
+   /** Inverse from the factor
+   <P>
+   Inverts L' and forms inv(L')*inv(L) in a transposed copy of L, as
+   LAPACK's POTRI does, which takes a third of the flops of solve with the
+   identity.f  A factor in a buffer is solved with the identity instead,
+   and the inverse is held in direct memory.f  The result is exactly
+   symmetric.
+   @return     inv(A)
+   @exception  RuntimeException  Matrix is not symmetric positive definite.
+   */
+
+   public Matrix inverse () {
+      return inverse(null,1);
+   }
+
+   /** Inverse from the factor, with the block products computed in
+       parallel on a ForkJoinPool
+   @param  pool  Pool that executes the tasks.
+   @return       inv(A)
+   @exception  RuntimeException  Matrix is not symmetric positive definite.
+   */
+
+   public Matrix inverse (ForkJoinPool pool) {
+      return inverse(pool,pool.getParallelism());
+   }
+
+/* ------------------------
+   Private Methods
+ * ------------------------ */
+
+   /** Solve A*X = B with at most tasks concurrent tasks on pool. **/
+
+   private Matrix solve (Matrix B, ForkJoinPool pool, int tasks) {
       if (B.getRowDimension() != n) {
          throw new IllegalArgumentException("Matrix row dimensions must agree.");
       }
@@ -169,33 +278,143 @@ public class CholeskyDecomposition implements java.io.Serializable {
       }
 
       // Copy right hand side.
-      float[][] X = B.getArrayCopy();
+      Matrix X = B.copy();
       int nx = B.getColumnDimension();
 
-	      // Solve L*Y = B;
-	      for (int k = 0; k < n; k++) {
-	        for (int j = 0; j < nx; j++) {
-	           for (int i = 0; i < k ; i++) {
-	               X[k][j] -= X[i][j]*L[k][i];
-	           }
-	           X[k][j] /= L[k][k];
-	        }
-	      }
-	
-	      // Solve L'*X = Y;
-	      for (int k = n-1; k >= 0; k--) {
-	        for (int j = 0; j < nx; j++) {
-	           for (int i = k+1; i < n ; i++) {
-	               X[k][j] -= X[i][j]*L[i][k];
-	           }
-	           X[k][j] /= L[k][k];
-	        }
-	      }
-      
-      
-      return new Matrix(X,n,nx);
-   }
-  private static final long serialVersionUID = 1;
+      // Substitute blocks of columns that fit into the cache, instead of
+      // sweeping over all of X once per row of L.
+      int w = Math.max(16,RHS_BLOCK/Math.max(n,1) & ~15);
+      if (tasks > 1 && nx >= 2*MIN_COLUMNS) {
+         pool.invoke(new Substitute(X,0,nx,w,tasks));
+      } else {
+         for (int j0 = 0; j0 < nx; j0 += w) {
+            substitute(X,j0,Math.min(j0+w,nx));
+         }
+      }
+      return X;
+   }
+
+   /** Inverse with at most tasks concurrent tasks per product on pool. **/
+
+   private Matrix inverse (ForkJoinPool pool, int tasks) {
+      if (!isspd) {
+         throw new RuntimeException("Matrix is not symmetric positive definite.");
+      }
+      if (L.isBufferBacked()) {
+         Matrix I = L.like(n,n);
+         for (int j = 0; j < n; j++) {
+            I.set(j,j,1.0f);
+         }
+         Matrix X = solve(I,pool,tasks);
+         I.free();
+         for (int i = 0; i < n; i++) {
+            for (int j = i+1; j < n; j++) {
+               X.set(j,i,X.get(i,j));
+            }
+         }
+         return X;
+      }
+      Matrix X = L.transpose();
+      Inverse.potri(X,pool,tasks);
+      return X;
+   }
+
+   /** Solve L*L'*X = X in place for the columns j0:j1-1 of X, updating
+       each element in the same order as the unblocked column sweep. **/
+
+   private void substitute (Matrix X, int j0, int j1) {
+      if (X.isBufferBacked()) {
+         Matrix Y = X.stage(0,n,j0,j1);
+         substitute(Y,0,j1-j0);
+         X.unstage(Y,0,j0);
+         return;
+      }
+      int w = j1-j0;
+      if (w < 16) {
+         for (int j = j0; j < j1; j++) {
+            substitute(X,j);
+         }
+         return;
+      }
+
+      // Solve L*Y = B;
+      float[] t = L.scratch();
+      for (int k = 0; k < n; k++) {
+         float[] Xrowk = X.row(k), Lrowk = L.load(k,t);
+         int xk = X.base(k)+j0, lk = L.start(k,t);
+         for (int i = 0; i < k; i++) {
+            Kernels.K.axpy(-Lrowk[lk+i],X.row(i),X.base(i)+j0,Xrowk,xk,w);
+         }
+         float lkk = Lrowk[lk+k];
+         for (int j = 0; j < w; j++) {
+            Xrowk[xk+j] /= lkk;
+         }
+      }
+
+      // Solve L'*X = Y;
+      for (int k = n-1; k >= 0; k--) {
+         float[] Xrowk = X.row(k);
+         int xk = X.base(k)+j0;
+         for (int i = k+1; i < n; i++) {
+            Kernels.K.axpy(-L.get(i,k),X.row(i),X.base(i)+j0,Xrowk,xk,w);
+         }
+         float lkk = L.get(k,k);
+         for (int j = 0; j < w; j++) {
+            Xrowk[xk+j] /= lkk;
+         }
+      }
+   }
+
+   /** Solve L*L'*x = x in place for column j of X, accumulating each
+       element in a register; for few right hand sides. **/
+
+   private void substitute (Matrix X, int j) {
+      float[] t = L.scratch();
+      for (int k = 0; k < n; k++) {
+         float[] Lrowk = L.load(k,t);
+         int lk = L.start(k,t);
+         float s = X.row(k)[X.base(k)+j];
+         for (int i = 0; i < k; i++) {
+            s -= X.row(i)[X.base(i)+j]*Lrowk[lk+i];
+         }
+         X.row(k)[X.base(k)+j] = s/Lrowk[lk+k];
+      }
+      for (int k = n-1; k >= 0; k--) {
+         float s = X.row(k)[X.base(k)+j];
+         for (int i = k+1; i < n; i++) {
+            s -= X.row(i)[X.base(i)+j]*L.get(i,k);
+         }
+         X.row(k)[X.base(k)+j] = s/L.get(k,k);
+      }
+   }
+
+   /** Substitute columns j0:j1-1 of X in blocks of w columns, split into
+       at most tasks tasks. **/
+
+   private class Substitute extends RecursiveAction {
+      private final Matrix X;
+      private final int j0, j1, w, tasks;
+
+      Substitute (Matrix X, int j0, int j1, int w, int tasks) {
+         this.X = X; this.j0 = j0; this.j1 = j1; this.w = w; this.tasks = tasks;
+      }
+
+      protected void compute () {
+         if (tasks > 1 && j1-j0 >= 2*MIN_COLUMNS) {
+            int t0 = tasks/2, j = j0+(int) ((long) (j1-j0)*t0/tasks);
+            invokeAll(new Substitute(X,j0,j,w,t0),
+                      new Substitute(X,j,j1,w,tasks-t0));
+            return;
+         }
+         for (int c = j0; c < j1; c += w) {
+            substitute(X,c,Math.min(c+w,j1));
+         }
+      }
+
+      private static final long serialVersionUID = 1;
+   }
+
+  private static final long serialVersionUID = 2;
 
 }
 
@@ -15,6 +15,11 @@ import com.github.sikoried.fjama.util.*;
     i.e.f A.times(V) equals V.times(D).f  The matrix V may be badly
     conditioned, or even singular, so the validity of the equation
     A = V*D*inverse(V) depends upon V.cond().
+<P>
+    The algorithms index two-dimensional arrays:  a row-packed or
+    buffer-backed matrix is copied into a private float[][] work array on
+    the heap, and V and D are returned as matrices on the heap, also for a
+    matrix in direct memory.
 **/
 
 public class EigenvalueDecomposition implements java.io.Serializable {
@@ -860,23 +865,47 @@ public class EigenvalueDecomposition implements java.io.Serializable {
    */
 
    public EigenvalueDecomposition (Matrix Arg) {
-      float[][] A = Arg.getArray();
+      this(Arg,false);
+   }
+
+   /** Eigenvalue decomposition in the storage of Arg.
+   <P>
+   For a symmetric matrix the eigenvectors V are computed in the elements
+   of Arg, otherwise the Hessenberg and Schur forms are, which saves the
+   copy made by the constructor.f  Arg is consumed:  its elements are
+   undefined afterwards, and for a symmetric matrix it shares its array
+   with getV().f  The algorithms work on two-dimensional arrays, so a
+   row-packed or buffer-backed matrix is copied, as by the constructor, and
+   left unchanged, as is a matrix that is not square.
+   @param Arg    Square matrix, overwritten
+   @return       Eigenvalue decomposition of Arg
+   */
+
+   public static EigenvalueDecomposition inPlace (Matrix Arg) {
+      return new EigenvalueDecomposition(Arg,true);
+   }
+
+   private EigenvalueDecomposition (Matrix Arg, boolean overwrite) {
       n = Arg.getColumnDimension();
-      V = new float[n][n];
+      overwrite = overwrite && Arg.getRowDimension() == n
+                  && !Arg.isRowPacked() && !Arg.isBufferBacked();
       d = new float[n];
       e = new float[n];
 
       issymmetric = true;
       for (int j = 0; (j < n) & issymmetric; j++) {
          for (int i = 0; (i < n) & issymmetric; i++) {
-            issymmetric = (A[i][j] == A[j][i]);
+            issymmetric = (Arg.get(i,j) == Arg.get(j,i));
          }
       }
 
       if (issymmetric) {
-         for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-               V[i][j] = A[i][j];
+         if (overwrite) {
+            V = Arg.getArray();
+         } else {
+            V = new float[n][n];
+            for (int i = 0; i < n; i++) {
+               Arg.getRow(i,0,V[i],0,n);
             }
          }
    
@@ -887,12 +916,14 @@ public class EigenvalueDecomposition implements java.io.Serializable {
          tql2();
 
       } else {
-         H = new float[n][n];
+         V = new float[n][n];
          ort = new float[n];
-         
-         for (int j = 0; j < n; j++) {
+         if (overwrite) {
+            H = Arg.getArray();
+         } else {
+            H = new float[n][n];
             for (int i = 0; i < n; i++) {
-               H[i][j] = A[i][j];
+               Arg.getRow(i,0,H[i],0,n);
             }
          }
    
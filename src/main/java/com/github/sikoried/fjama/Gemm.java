@@ -0,0 +1,533 @@
+package com.github.sikoried.fjama;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+   /** General matrix multiplication kernel.
+   <P>
+   Computes C(ci:,cj:) += A(ai:,aj:)*B(bi:,bj:) for an m-by-k block of A
+   and a k-by-n block of B.  Large products are computed with the layered
+   scheme of Goto and van de Geijn:  a kc-by-nc panel of B and an mc-by-kc
+   block of A are packed into contiguous buffers so that they stay in the
+   L3 and L2 cache respectively, and a register-blocked micro-kernel
+   accumulates an MR-by-NR tile of C from one packed sliver of each.
+   Small products skip the packing and use a row-oriented loop instead.
+   Either operand may be used transposed and the product may be scaled;
+   both are applied while packing, so neither costs an extra pass.f  The
+   previous C may be scaled as well, C = alpha*op(A)*op(B) + beta*C; beta
+   is applied when the first block of the inner dimension is written back,
+   so it costs no extra pass either, and beta = 0 overwrites C.
+   Operands are addressed row by row, so two-dimensional and row-packed
+   storage is read and written in place.  Rows of buffer-backed operands
+   are copied while packing, and a buffer-backed C is accumulated in
+   heap blocks of rows that are written back afterwards.
+   <P>
+   Large products may be split into two-dimensional tiles of C that are
+   computed as independent tasks on a ForkJoinPool.
+   */
+
+class Gemm {
+
+/* ------------------------
+   Class variables
+ * ------------------------ */
+
+   /** Rows and columns of the register block computed by the micro-kernel. */
+   static final int MR = 4, NR = 4;
+
+   /** Cache block sizes:  kc-by-NR slivers of B fit in L1, mc-by-kc
+       blocks of A fit in L2 and kc-by-nc panels of B fit in L3. */
+   static final int MC = 128, KC = 256, NC = 2048;
+
+   /** Products with fewer multiply-adds than this are not packed. */
+   static final long SMALL = 48L*48L*48L;
+
+   /** Products with fewer multiply-adds than this are not split into tasks. */
+   static final long PARALLEL = 192L*192L*192L;
+
+   /** Tiles of C are not split below this many rows or columns. */
+   static final int MIN_TILE = 64;
+
+/* ------------------------
+   Public Methods
+ * ------------------------ */
+
+   /** C(ci:ci+m-1,cj:cj+n-1) += A(ai:ai+m-1,aj:aj+k-1)*B(bi:bi+k-1,bj:bj+n-1)
+   @param m    Number of rows of the product.
+   @param n    Number of columns of the product.
+   @param k    Inner dimension.
+   @param A    Left operand.
+   @param B    Right operand.
+   @param C    Destination, accumulated into.
+   */
+
+   static void gemm (int m, int n, int k,
+                     Matrix A, int ai, int aj,
+                     Matrix B, int bi, int bj,
+                     Matrix C, int ci, int cj) {
+      gemm(false,false,m,n,k,1.0f,A,ai,aj,B,bi,bj,C,ci,cj);
+   }
+
+   /** C(ci:ci+m-1,cj:cj+n-1) += alpha*op(A)*op(B) for an m-by-k block op(A)
+       and a k-by-n block op(B), where op(X) is X or X'.
+   <P>
+   The blocks are given by the index of their first element in the stored
+   matrices:  element (i,p) of op(A) is A(ai+i,aj+p), or A(ai+p,aj+i) if
+   transA is set, and likewise for op(B).
+   @param transA  Use the transpose of A.
+   @param transB  Use the transpose of B.
+   @param m       Number of rows of the product.
+   @param n       Number of columns of the product.
+   @param k       Inner dimension.
+   @param alpha   Scalar multiplying the product.
+   @param A       Left operand.
+   @param B       Right operand.
+   @param C       Destination, accumulated into.
+   */
+
+   static void gemm (boolean transA, boolean transB, int m, int n, int k, float alpha,
+                     Matrix A, int ai, int aj,
+                     Matrix B, int bi, int bj,
+                     Matrix C, int ci, int cj) {
+      gemm(transA,transB,m,n,k,alpha,A,ai,aj,B,bi,bj,1.0f,C,ci,cj);
+   }
+
+   /** C(ci:ci+m-1,cj:cj+n-1) = alpha*op(A)*op(B) + beta*C(ci:ci+m-1,cj:cj+n-1)
+   <P>
+   If beta is zero, C is overwritten and its previous contents, including
+   NaN, are ignored.
+   @param transA  Use the transpose of A.
+   @param transB  Use the transpose of B.
+   @param m       Number of rows of the product.
+   @param n       Number of columns of the product.
+   @param k       Inner dimension.
+   @param alpha   Scalar multiplying the product.
+   @param A       Left operand.
+   @param B       Right operand.
+   @param beta    Scalar multiplying C.
+   @param C       Destination.
+   */
+
+   static void gemm (boolean transA, boolean transB, int m, int n, int k, float alpha,
+                     Matrix A, int ai, int aj,
+                     Matrix B, int bi, int bj,
+                     float beta, Matrix C, int ci, int cj) {
+      if (m == 0 || n == 0) {
+         return;
+      }
+      if (k == 0 || alpha == 0.0f) {
+         if (beta != 1.0f) {
+            scale(m,n,beta,C,ci,cj);
+         }
+         return;
+      }
+      if (C.isBufferBacked()) {
+         staged(transA,transB,m,n,k,alpha,A,ai,aj,B,bi,bj,beta,C,ci,cj);
+         return;
+      }
+      if ((long) m*n*k < SMALL && !(transA && transB)
+          && !A.isBufferBacked() && !B.isBufferBacked()) {
+         small(transA,transB,m,n,k,alpha,A,ai,aj,B,bi,bj,beta,C,ci,cj);
+         return;
+      }
+      float[] Bp = new float[KC*(Math.min(n,NC)+NR)];
+      float[] Ap = new float[(Math.min(m,MC)+MR)*KC];
+      float[] Bt = (B.isBufferBacked() ? new float[transB ? Math.min(k,KC) : Math.min(n,NC)] : null);
+      float[] At = (A.isBufferBacked() ? new float[transA ? Math.min(m,MC) : Math.min(k,KC)] : null);
+      for (int jc = 0; jc < n; jc += NC) {
+         int nc = Math.min(NC,n-jc);
+         for (int pc = 0; pc < k; pc += KC) {
+            int kc = Math.min(KC,k-pc);
+            if (transB) {
+               packBt(kc,nc,B,bi+jc,bj+pc,Bp,Bt);
+            } else {
+               packB(kc,nc,B,bi+pc,bj+jc,Bp,Bt);
+            }
+            for (int ic = 0; ic < m; ic += MC) {
+               int mc = Math.min(MC,m-ic);
+               if (transA) {
+                  packAt(mc,kc,alpha,A,ai+pc,aj+ic,Ap,At);
+               } else {
+                  packA(mc,kc,alpha,A,ai+ic,aj+pc,Ap,At);
+               }
+               macro(mc,nc,kc,Ap,Bp,(pc == 0 ? beta : 1.0f),C,ci+ic,cj+jc);
+            }
+         }
+      }
+   }
+
+   /** C(ci:ci+m-1,cj:cj+n-1) += A(ai:ai+m-1,aj:aj+k-1)*B(bi:bi+k-1,bj:bj+n-1)
+       computed by at most parallelism tasks on the given pool.
+   @param m    Number of rows of the product.
+   @param n    Number of columns of the product.
+   @param k    Inner dimension.
+   @param A    Left operand.
+   @param B    Right operand.
+   @param C    Destination, accumulated into.
+   @param pool         Pool that executes the tiles.
+   @param parallelism  Maximum number of tiles; 1 computes the product serially.
+   */
+
+   static void gemm (int m, int n, int k,
+                     Matrix A, int ai, int aj,
+                     Matrix B, int bi, int bj,
+                     Matrix C, int ci, int cj,
+                     ForkJoinPool pool, int parallelism) {
+      gemm(false,false,m,n,k,1.0f,A,ai,aj,B,bi,bj,C,ci,cj,pool,parallelism);
+   }
+
+   /** C(ci:ci+m-1,cj:cj+n-1) += alpha*op(A)*op(B) computed by at most
+       parallelism tasks on the given pool.
+   @param transA  Use the transpose of A.
+   @param transB  Use the transpose of B.
+   @param m       Number of rows of the product.
+   @param n       Number of columns of the product.
+   @param k       Inner dimension.
+   @param alpha   Scalar multiplying the product.
+   @param A       Left operand.
+   @param B       Right operand.
+   @param C       Destination, accumulated into.
+   @param pool         Pool that executes the tiles.
+   @param parallelism  Maximum number of tiles; 1 computes the product serially.
+   */
+
+   static void gemm (boolean transA, boolean transB, int m, int n, int k, float alpha,
+                     Matrix A, int ai, int aj,
+                     Matrix B, int bi, int bj,
+                     Matrix C, int ci, int cj,
+                     ForkJoinPool pool, int parallelism) {
+      gemm(transA,transB,m,n,k,alpha,A,ai,aj,B,bi,bj,1.0f,C,ci,cj,pool,parallelism);
+   }
+
+   /** C(ci:ci+m-1,cj:cj+n-1) = alpha*op(A)*op(B) + beta*C(ci:ci+m-1,cj:cj+n-1)
+       computed by at most parallelism tasks on the given pool.  Each
+       element of C belongs to one tile, which applies beta to it once.
+   @param transA  Use the transpose of A.
+   @param transB  Use the transpose of B.
+   @param m       Number of rows of the product.
+   @param n       Number of columns of the product.
+   @param k       Inner dimension.
+   @param alpha   Scalar multiplying the product.
+   @param A       Left operand.
+   @param B       Right operand.
+   @param beta    Scalar multiplying C.
+   @param C       Destination.
+   @param pool         Pool that executes the tiles.
+   @param parallelism  Maximum number of tiles; 1 computes the product serially.
+   */
+
+   static void gemm (boolean transA, boolean transB, int m, int n, int k, float alpha,
+                     Matrix A, int ai, int aj,
+                     Matrix B, int bi, int bj,
+                     float beta, Matrix C, int ci, int cj,
+                     ForkJoinPool pool, int parallelism) {
+      if (parallelism <= 1 || (long) m*n*k < PARALLEL) {
+         gemm(transA,transB,m,n,k,alpha,A,ai,aj,B,bi,bj,beta,C,ci,cj);
+         return;
+      }
+      pool.invoke(new Tile(transA,transB,m,n,k,alpha,A,ai,aj,B,bi,bj,beta,C,ci,cj,parallelism));
+   }
+
+/* ------------------------
+   Private Methods
+ * ------------------------ */
+
+   /** A tile of C, recursively halved along its longer side until each
+       task owns one share of the parallelism budget. **/
+
+   private static class Tile extends RecursiveAction {
+      private final boolean transA, transB;
+      private final int m, n, k, ai, aj, bi, bj, ci, cj, tasks;
+      private final float alpha, beta;
+      private final Matrix A, B, C;
+
+      Tile (boolean transA, boolean transB, int m, int n, int k, float alpha,
+            Matrix A, int ai, int aj,
+            Matrix B, int bi, int bj,
+            float beta, Matrix C, int ci, int cj, int tasks) {
+         this.transA = transA; this.transB = transB;
+         this.m = m; this.n = n; this.k = k; this.alpha = alpha;
+         this.A = A; this.ai = ai; this.aj = aj;
+         this.B = B; this.bi = bi; this.bj = bj;
+         this.beta = beta; this.C = C; this.ci = ci; this.cj = cj;
+         this.tasks = tasks;
+      }
+
+      protected void compute () {
+         int t0 = tasks/2, t1 = tasks-t0;
+         if (tasks > 1 && m >= n && m >= 2*MIN_TILE) {
+            // Split rows in proportion to the task shares, keeping MR alignment.
+            invokeAll(rows(t0,t1));
+         } else if (tasks > 1 && n >= 2*MIN_TILE) {
+            int n0 = Math.max(NR,(int) ((long) n*t0/tasks)/NR*NR);
+            int bi1 = (transB ? bi+n0 : bi), bj1 = (transB ? bj : bj+n0);
+            invokeAll(new Tile(transA,transB,m,n0,k,alpha,A,ai,aj,B,bi,bj,beta,C,ci,cj,t0),
+                      new Tile(transA,transB,m,n-n0,k,alpha,A,ai,aj,B,bi1,bj1,beta,C,ci,cj+n0,t1));
+         } else if (tasks > 1 && m >= 2*MIN_TILE) {
+            invokeAll(rows(t0,t1));
+         } else {
+            gemm(transA,transB,m,n,k,alpha,A,ai,aj,B,bi,bj,beta,C,ci,cj);
+         }
+      }
+
+      private Tile[] rows (int t0, int t1) {
+         int m0 = Math.max(MR,(int) ((long) m*t0/tasks)/MR*MR);
+         int ai1 = (transA ? ai : ai+m0), aj1 = (transA ? aj+m0 : aj);
+         return new Tile[] {
+            new Tile(transA,transB,m0,n,k,alpha,A,ai,aj,B,bi,bj,beta,C,ci,cj,t0),
+            new Tile(transA,transB,m-m0,n,k,alpha,A,ai1,aj1,B,bi,bj,beta,C,ci+m0,cj,t1)};
+      }
+
+      private static final long serialVersionUID = 1;
+   }
+
+   /** Product for operands too small to amortize packing, as a sequence of
+       axpy operations on the rows of C, or of dot products if only B is
+       transposed.  Each row of C is scaled by beta just before it is
+       accumulated into. **/
+
+   private static void small (boolean transA, boolean transB, int m, int n, int k, float alpha,
+                              Matrix A, int ai, int aj,
+                              Matrix B, int bi, int bj,
+                              float beta, Matrix C, int ci, int cj) {
+      for (int i = 0; i < m; i++) {
+         float[] Crowi = C.row(ci+i);
+         int c0 = C.base(ci+i)+cj;
+         if (transB) {
+            float[] Arowi = A.row(ai+i);
+            int a0 = A.base(ai+i)+aj;
+            for (int j = 0; j < n; j++) {
+               float d = alpha*Kernels.K.dot(Arowi,a0,B.row(bi+j),B.base(bi+j)+bj,k);
+               Crowi[c0+j] = (beta == 0.0f ? d : beta == 1.0f ? Crowi[c0+j]+d : beta*Crowi[c0+j]+d);
+            }
+            continue;
+         }
+         if (beta == 0.0f) {
+            java.util.Arrays.fill(Crowi,c0,c0+n,0.0f);
+         } else if (beta != 1.0f) {
+            Kernels.K.scale(beta,Crowi,c0,Crowi,c0,n);
+         }
+         if (transA) {
+            for (int p = 0; p < k; p++) {
+               float a = A.row(ai+p)[A.base(ai+p)+aj+i];
+               Kernels.K.axpy(alpha*a,B.row(bi+p),B.base(bi+p)+bj,Crowi,c0,n);
+            }
+         } else {
+            float[] Arowi = A.row(ai+i);
+            int a0 = A.base(ai+i)+aj;
+            for (int p = 0; p < k; p++) {
+               Kernels.K.axpy(alpha*Arowi[a0+p],B.row(bi+p),B.base(bi+p)+bj,Crowi,c0,n);
+            }
+         }
+      }
+   }
+
+   /** C = alpha*op(A)*op(B) + beta*C for a buffer-backed C, accumulated
+       in heap blocks of rows, which are not read from C if beta is zero. **/
+
+   private static void staged (boolean transA, boolean transB, int m, int n, int k, float alpha,
+                               Matrix A, int ai, int aj,
+                               Matrix B, int bi, int bj,
+                               float beta, Matrix C, int ci, int cj) {
+      int rows = Math.max(MR,Math.min(MC,(1 << 20)/n));
+      Matrix T = new Matrix(Math.min(rows,m),n);
+      for (int ic = 0; ic < m; ic += rows) {
+         int mc = Math.min(rows,m-ic);
+         if (beta != 0.0f) {
+            for (int i = 0; i < mc; i++) {
+               Matrix.copyRow(C,ci+ic+i,cj,T,i,0,n);
+            }
+         }
+         if (transA) {
+            gemm(true,transB,mc,n,k,alpha,A,ai,aj+ic,B,bi,bj,beta,T,0,0);
+         } else {
+            gemm(false,transB,mc,n,k,alpha,A,ai+ic,aj,B,bi,bj,beta,T,0,0);
+         }
+         for (int i = 0; i < mc; i++) {
+            Matrix.copyRow(T,i,0,C,ci+ic+i,cj,n);
+         }
+      }
+   }
+
+   /** Pack a kc-by-nc panel of B into NR-wide slivers, zero padded.
+       Rows of a buffer-backed B are staged through t. **/
+
+   private static void packB (int kc, int nc, Matrix B, int bi, int bj, float[] Bp, float[] t) {
+      for (int p = 0; p < kc; p++) {
+         float[] Browp;
+         int b;
+         if (t == null) {
+            Browp = B.row(bi+p);
+            b = B.base(bi+p)+bj;
+         } else {
+            B.getRow(bi+p,bj,t,0,nc);
+            Browp = t;
+            b = 0;
+         }
+         for (int jr = 0, idx = p*NR; jr < nc; jr += NR, idx += kc*NR) {
+            int nr = Math.min(NR,nc-jr);
+            for (int j = 0; j < nr; j++) {
+               Bp[idx+j] = Browp[b+jr+j];
+            }
+            for (int j = nr; j < NR; j++) {
+               Bp[idx+j] = 0.0f;
+            }
+         }
+      }
+   }
+
+   /** Pack the transpose of an nc-by-kc block of B like packB.
+       Rows of a buffer-backed B are staged through t. **/
+
+   private static void packBt (int kc, int nc, Matrix B, int bi, int bj, float[] Bp, float[] t) {
+      for (int jr = 0, idx = 0; jr < nc; jr += NR, idx += kc*NR) {
+         int nr = Math.min(NR,nc-jr);
+         for (int j = 0; j < nr; j++) {
+            float[] Browj;
+            int b;
+            if (t == null) {
+               Browj = B.row(bi+jr+j);
+               b = B.base(bi+jr+j)+bj;
+            } else {
+               B.getRow(bi+jr+j,bj,t,0,kc);
+               Browj = t;
+               b = 0;
+            }
+            for (int p = 0; p < kc; p++) {
+               Bp[idx+p*NR+j] = Browj[b+p];
+            }
+         }
+         for (int j = nr; j < NR; j++) {
+            for (int p = 0; p < kc; p++) {
+               Bp[idx+p*NR+j] = 0.0f;
+            }
+         }
+      }
+   }
+
+   /** Pack alpha times an mc-by-kc block of A into MR-tall slivers, zero
+       padded.  Rows of a buffer-backed A are staged through t. **/
+
+   private static void packA (int mc, int kc, float alpha, Matrix A, int ai, int aj, float[] Ap, float[] t) {
+      int idx = 0;
+      for (int ir = 0; ir < mc; ir += MR) {
+         int mr = Math.min(MR,mc-ir);
+         for (int i = 0; i < mr; i++) {
+            float[] Arowi;
+            int a0;
+            if (t == null) {
+               Arowi = A.row(ai+ir+i);
+               a0 = A.base(ai+ir+i)+aj;
+            } else {
+               A.getRow(ai+ir+i,aj,t,0,kc);
+               Arowi = t;
+               a0 = 0;
+            }
+            for (int p = 0; p < kc; p++) {
+               Ap[idx+p*MR+i] = alpha*Arowi[a0+p];
+            }
+         }
+         for (int i = mr; i < MR; i++) {
+            for (int p = 0; p < kc; p++) {
+               Ap[idx+p*MR+i] = 0.0f;
+            }
+         }
+         idx += MR*kc;
+      }
+   }
+
+   /** Pack alpha times the transpose of a kc-by-mc block of A like packA.
+       Rows of a buffer-backed A are staged through t. **/
+
+   private static void packAt (int mc, int kc, float alpha, Matrix A, int ai, int aj, float[] Ap, float[] t) {
+      for (int p = 0; p < kc; p++) {
+         float[] Arowp;
+         int a;
+         if (t == null) {
+            Arowp = A.row(ai+p);
+            a = A.base(ai+p)+aj;
+         } else {
+            A.getRow(ai+p,aj,t,0,mc);
+            Arowp = t;
+            a = 0;
+         }
+         for (int ir = 0, idx = p*MR; ir < mc; ir += MR, idx += kc*MR) {
+            int mr = Math.min(MR,mc-ir);
+            for (int i = 0; i < mr; i++) {
+               Ap[idx+i] = alpha*Arowp[a+ir+i];
+            }
+            for (int i = mr; i < MR; i++) {
+               Ap[idx+i] = 0.0f;
+            }
+         }
+      }
+   }
+
+   /** Multiply a packed block of A by a packed panel of B into C, scaled
+       by beta. **/
+
+   private static void macro (int mc, int nc, int kc, float[] Ap, float[] Bp,
+                              float beta, Matrix C, int ci, int cj) {
+      float[] t = new float[MR*NR];
+      for (int jr = 0; jr < nc; jr += NR) {
+         int nr = Math.min(NR,nc-jr);
+         int boff = (jr/NR)*NR*kc;
+         for (int ir = 0; ir < mc; ir += MR) {
+            int mr = Math.min(MR,mc-ir);
+            int aoff = (ir/MR)*MR*kc;
+            micro(kc,Ap,aoff,Bp,boff,beta,C,ci+ir,cj+jr,mr,nr,t);
+         }
+      }
+   }
+
+   /** Register-blocked MR-by-NR micro-kernel, using t for the tile, whose
+       write-back computes C = t + beta*C. **/
+
+   private static void micro (int kc, float[] Ap, int aoff, float[] Bp, int boff,
+                              float beta, Matrix C, int ci, int cj, int mr, int nr, float[] t) {
+      Kernels.K.tile(kc,Ap,aoff,Bp,boff,t);
+      if (mr == MR && nr == NR && beta == 1.0f) {
+         float[] C0 = C.row(ci), C1 = C.row(ci+1), C2 = C.row(ci+2), C3 = C.row(ci+3);
+         int j0 = C.base(ci)+cj, j1 = C.base(ci+1)+cj, j2 = C.base(ci+2)+cj, j3 = C.base(ci+3)+cj;
+         C0[j0] += t[0]; C0[j0+1] += t[1]; C0[j0+2] += t[2]; C0[j0+3] += t[3];
+         C1[j1] += t[4]; C1[j1+1] += t[5]; C1[j1+2] += t[6]; C1[j1+3] += t[7];
+         C2[j2] += t[8]; C2[j2+1] += t[9]; C2[j2+2] += t[10]; C2[j2+3] += t[11];
+         C3[j3] += t[12]; C3[j3+1] += t[13]; C3[j3+2] += t[14]; C3[j3+3] += t[15];
+         return;
+      }
+
+      // Partial tile at the bottom or right edge of C, or C scaled by beta
+      // in the first block of the inner dimension.
+      for (int i = 0; i < mr; i++) {
+         float[] Crowi = C.row(ci+i);
+         int c0 = C.base(ci+i)+cj;
+         if (beta == 1.0f) {
+            for (int j = 0; j < nr; j++) {
+               Crowi[c0+j] += t[i*NR+j];
+            }
+         } else if (beta == 0.0f) {
+            for (int j = 0; j < nr; j++) {
+               Crowi[c0+j] = t[i*NR+j];
+            }
+         } else {
+            for (int j = 0; j < nr; j++) {
+               Crowi[c0+j] = beta*Crowi[c0+j]+t[i*NR+j];
+            }
+         }
+      }
+   }
+
+   /** C(ci:ci+m-1,cj:cj+n-1) = beta*C, or zero if beta is zero, for a
+       product with nothing to add. **/
+
+   private static void scale (int m, int n, float beta, Matrix C, int ci, int cj) {
+      float[] t = new float[n];
+      for (int i = 0; i < m; i++) {
+         if (beta != 0.0f) {
+            C.getRow(ci+i,cj,t,0,n);
+            Kernels.K.scale(beta,t,0,t,0,n);
+         }
+         C.setRow(ci+i,cj,t,0,n);
+      }
+   }
+}
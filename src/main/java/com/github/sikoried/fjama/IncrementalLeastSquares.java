@@ -0,0 +1,293 @@
+package com.github.sikoried.fjama;
+import com.github.sikoried.fjama.util.*;
+
+   /** Least squares with rows added and removed one at a time.
+   <P>
+   Keeps the n-by-n triangular factor R and the first n rows Z of Q'*B
+   of the QR decomposition of the rows A and right hand sides B seen so far,
+   but neither A nor Q.f  A new row is absorbed with n Givens rotations
+   against the rows of R, in O(n^2 + n nx) operations.f  A row can also be
+   removed again, e.g.f  to keep a sliding window of observations, with the
+   downdating algorithm of LINPACK's CHDD:  with R'*p = a and
+   alpha = sqrt(1 - ||p||^2), the rotations that map (p, alpha) to
+   (0, 1) also remove a from R.f  This fails if a is not in the span of the
+   remaining rows.
+   <P>
+   solve() returns the least squares solution R\Z at any point without
+   refactoring, and getResidualNorm() the norms of the residuals of the
+   columns of B, which are kept up to date by the same rotations.
+   */
+
+public class IncrementalLeastSquares implements java.io.Serializable {
+
+/* ------------------------
+   Class variables
+ * ------------------------ */
+
+   /** Triangular factor and transformed right hand sides.
+   @serial upper triangular factor.
+   @serial rows 0:n-1 of Q'*B.
+   */
+   private float[][] R, Z;
+
+   /** Residual norms of the columns of B.
+   @serial residual norms.
+   */
+   private float[] rho;
+
+   /** Number of columns, of right hand sides and of rows.
+   @serial column dimension.
+   @serial number of right hand sides.
+   @serial number of rows.
+   */
+   private int n, nx, m;
+
+/* ------------------------
+   Constructor
+ * ------------------------ */
+
+   /** Least squares with one right hand side and no rows yet
+   @param n    Number of columns of A.
+   */
+
+   public IncrementalLeastSquares (int n) {
+      this(n,1);
+   }
+
+   /** Least squares with no rows yet
+   @param n    Number of columns of A.
+   @param nx   Number of columns of B.
+   */
+
+   public IncrementalLeastSquares (int n, int nx) {
+      this.n = n;
+      this.nx = nx;
+      R = new float[n][n];
+      Z = new float[n][nx];
+      rho = new float[nx];
+   }
+
+/* ------------------------
+   Public Methods
+ * ------------------------ */
+
+   /** Add a row to A and B
+   @param a    Row of A with n elements.
+   @param b    Right hand side of the row.
+   @exception  IllegalArgumentException  Matrix dimensions must agree.
+   */
+
+   public void add (float[] a, float b) {
+      add(a,new float[] {b});
+   }
+
+   /** Add a row to A and B
+   @param a    Row of A with n elements.
+   @param b    Row of B with nx elements.
+   @exception  IllegalArgumentException  Matrix dimensions must agree.
+   */
+
+   public void add (float[] a, float[] b) {
+      if (a.length != n || b.length != nx) {
+         throw new IllegalArgumentException("Matrix dimensions must agree.");
+      }
+      float[] x = a.clone(), y = b.clone();
+      for (int i = 0; i < n; i++) {
+         // Rotate x(i) into R(i,i), and x(i+1:n-1), y along with it.
+         float r = Maths.hypot(R[i][i],x[i]);
+         if (r == 0.0f) {
+            continue;
+         }
+         float c = R[i][i]/r, s = x[i]/r;
+         R[i][i] = r;
+         rotate(c,s,R[i],x,i+1,n);
+         rotate(c,s,Z[i],y,0,nx);
+      }
+      for (int j = 0; j < nx; j++) {
+         rho[j] = Maths.hypot(rho[j],y[j]);
+      }
+      m++;
+   }
+
+   /** Add the rows of A and B
+   @param A    Matrix with n columns.
+   @param B    Matrix with as many rows as A and nx columns.
+   @exception  IllegalArgumentException  Matrix dimensions must agree.
+   */
+
+   public void add (Matrix A, Matrix B) {
+      int k = A.getRowDimension();
+      if (A.getColumnDimension() != n || B.getRowDimension() != k || B.getColumnDimension() != nx) {
+         throw new IllegalArgumentException("Matrix dimensions must agree.");
+      }
+      float[] a = new float[n], b = new float[nx];
+      for (int i = 0; i < k; i++) {
+         A.getRow(i,0,a,0,n);
+         B.getRow(i,0,b,0,nx);
+         add(a,b);
+      }
+   }
+
+   /** Remove a row that was added before
+   @param a    Row of A with n elements.
+   @param b    Right hand side of the row.
+   @exception  IllegalArgumentException  Matrix dimensions must agree.
+   @exception  RuntimeException  Matrix is rank deficient.
+   */
+
+   public void remove (float[] a, float b) {
+      remove(a,new float[] {b});
+   }
+
+   /** Remove a row that was added before
+   <P>
+   The decomposition is left unchanged if the remaining rows would not
+   have full rank.
+   @param a    Row of A with n elements.
+   @param b    Row of B with nx elements.
+   @exception  IllegalArgumentException  Matrix dimensions must agree.
+   @exception  RuntimeException  Matrix is rank deficient.
+   */
+
+   public void remove (float[] a, float[] b) {
+      if (a.length != n || b.length != nx) {
+         throw new IllegalArgumentException("Matrix dimensions must agree.");
+      }
+      if (!isFullRank()) {
+         throw new RuntimeException("Matrix is rank deficient.");
+      }
+
+      // Solve R'*p = a.
+      float[] p = a.clone();
+      float nrm = 0.0f;
+      for (int k = 0; k < n; k++) {
+         p[k] /= R[k][k];
+         for (int j = k+1; j < n; j++) {
+            p[j] -= p[k]*R[k][j];
+         }
+         nrm = Maths.hypot(nrm,p[k]);
+      }
+
+      // ||p|| = 1 means a is not in the span of the other rows; within
+      // rounding errors of that, R would lose all digits in its direction.
+      float alpha = (1.0f+nrm)*(1.0f-nrm);
+      if (!(alpha > n*Math.ulp(1.0f))) {
+         throw new RuntimeException("Matrix is rank deficient.");
+      }
+
+      // Rotations that map (p, alpha) to (0, 1), from the last element.
+      alpha = (float) Math.sqrt(alpha);
+      float[] c = new float[n], s = new float[n];
+      for (int i = n-1; i >= 0; i--) {
+         float scale = alpha+Math.abs(p[i]);
+         float u = alpha/scale, v = p[i]/scale;
+         float h = (float) Math.sqrt(u*u+v*v);
+         c[i] = u/h;
+         s[i] = v/h;
+         alpha = scale*h;
+      }
+
+      // Apply them to R from the last row, accumulating the removed row
+      // in x.
+      float[] x = new float[n];
+      for (int i = n-1; i >= 0; i--) {
+         float[] Rrowi = R[i];
+         for (int j = i; j < n; j++) {
+            float t = c[i]*x[j]+s[i]*Rrowi[j];
+            Rrowi[j] = c[i]*Rrowi[j]-s[i]*x[j];
+            x[j] = t;
+         }
+      }
+
+      // And to Z from the first row, which leaves the residual of b in y.
+      float[] y = b.clone();
+      for (int i = 0; i < n; i++) {
+         float[] Zrowi = Z[i];
+         for (int j = 0; j < nx; j++) {
+            Zrowi[j] = (Zrowi[j]-s[i]*y[j])/c[i];
+            y[j] = c[i]*y[j]-s[i]*Zrowi[j];
+         }
+      }
+      for (int j = 0; j < nx; j++) {
+         float t = Math.abs(y[j])/Math.max(rho[j],Float.MIN_VALUE);
+         rho[j] *= (float) Math.sqrt(Math.max(0.0f,(1.0f+t)*(1.0f-t)));
+      }
+      m--;
+   }
+
+   /** Return the number of rows
+   @return     rows added minus rows removed.
+   */
+
+   public int getRowCount () {
+      return m;
+   }
+
+   /** Is the matrix of the rows full rank?
+   @return     true if R, and hence A, has full rank.
+   */
+
+   public boolean isFullRank () {
+      for (int j = 0; j < n; j++) {
+         if (R[j][j] == 0)
+            return false;
+      }
+      return true;
+   }
+
+   /** Return the upper triangular factor
+   @return     R, with R'*R = A'*A
+   */
+
+   public Matrix getR () {
+      return new Matrix(R,n,n).copy();
+   }
+
+   /** Return the residual norms
+   @return     the two norms of the columns of A*X-B for X = solve().
+   */
+
+   public float[] getResidualNorm () {
+      return rho.clone();
+   }
+
+   /** Least squares solution of A*X = B for the rows so far
+   @return     X that minimizes the two norm of A*X-B.
+   @exception  RuntimeException  Matrix is rank deficient.
+   */
+
+   public Matrix solve () {
+      if (!this.isFullRank()) {
+         throw new RuntimeException("Matrix is rank deficient.");
+      }
+      Matrix Xmat = new Matrix(Z,n,nx).copy();
+      float[][] X = Xmat.getArray();
+      for (int k = n-1; k >= 0; k--) {
+         for (int j = 0; j < nx; j++) {
+            X[k][j] /= R[k][k];
+         }
+         for (int i = 0; i < k; i++) {
+            for (int j = 0; j < nx; j++) {
+               X[i][j] -= X[k][j]*R[i][k];
+            }
+         }
+      }
+      return Xmat;
+   }
+
+/* ------------------------
+   Private Methods
+ * ------------------------ */
+
+   /** (r, x) = (c*r + s*x, c*x - s*r) for the elements j0:j1-1. **/
+
+   private static void rotate (float c, float s, float[] r, float[] x, int j0, int j1) {
+      for (int j = j0; j < j1; j++) {
+         float t = c*r[j]+s*x[j];
+         x[j] = c*x[j]-s*r[j];
+         r[j] = t;
+      }
+   }
+
+  private static final long serialVersionUID = 1;
+}
@@ -0,0 +1,181 @@
+package com.github.sikoried.fjama;
+
+import java.util.concurrent.ForkJoinPool;
+
+   /** Matrix inversion from triangular factors.
+   <P>
+   Computes inv(A) in the storage of the factors, as LAPACK's GETRI and
+   POTRI do, instead of solving A*X = I:  the triangular factor U is
+   inverted in place, and the product of the inverted factors is formed
+   in the same array.  This takes 4/3 n^3 flops after the LU decomposition
+   and 2/3 n^3 after the Cholesky decomposition, against 2 n^3 for the
+   solve with the identity, and needs no n-by-n array besides the result.
+   <P>
+   Both steps work on blocks of NB columns or rows.  The off-diagonal
+   blocks are updated with the kernel in Gemm, so only the triangles on
+   the diagonal are handled by the scalar loops.
+   */
+
+class Inverse {
+
+/* ------------------------
+   Class variables
+ * ------------------------ */
+
+   /** Number of columns or rows processed as one block. */
+   static final int NB = 64;
+
+/* ------------------------
+   Public Methods
+ * ------------------------ */
+
+   /** Overwrite the LU factors of A(piv,:) = L*U with inv(A).
+   @param X     n-by-n factors as stored by LUDecomposition, not buffer-backed.
+   @param piv   Pivot vector.
+   @param pool         Pool that executes the products, or null.
+   @param parallelism  Maximum number of tasks per product.
+   */
+
+   static void getri (Matrix X, int[] piv, ForkJoinPool pool, int parallelism) {
+      int n = X.getRowDimension();
+      trtri(X,n,pool,parallelism);
+
+      // Solve inv(A)*L = inv(U) for inv(A)(:,piv) from the last block of
+      // columns to the first.  The columns of L that a block needs are
+      // moved to W, transposed, before inv(A) overwrites them.
+      Matrix W = new Matrix(Math.min(NB,n),n);
+      for (int j0 = (n-1)/NB*NB; j0 >= 0; j0 -= NB) {
+         int j1 = Math.min(j0+NB,n), nb = j1-j0;
+         for (int i = j0+1; i < n; i++) {
+            float[] Xrowi = X.row(i);
+            int xi = X.base(i);
+            for (int j = j0; j < Math.min(i,j1); j++) {
+               W.row(j-j0)[i] = Xrowi[xi+j];
+               Xrowi[xi+j] = 0.0f;
+            }
+         }
+
+         // X(:,j0:j1-1) -= X(:,j1:n-1)*L(j1:n-1,j0:j1-1)
+         Gemm.gemm(false,true,n,nb,n-j1,-1.0f,X,0,j1,W,0,j1,X,0,j0,pool,parallelism);
+
+         // X(:,j0:j1-1) = X(:,j0:j1-1)*inv(L(j0:j1-1,j0:j1-1))
+         for (int i = 0; i < n; i++) {
+            float[] Xrowi = X.row(i);
+            int xi = X.base(i);
+            for (int j = j1-2; j >= j0; j--) {
+               Xrowi[xi+j] -= Kernels.K.dot(Xrowi,xi+j+1,W.row(j-j0),j+1,j1-j-1);
+            }
+         }
+      }
+
+      // Undo the row interchanges of A as column interchanges of inv(A).
+      float[] t = new float[n];
+      for (int i = 0; i < n; i++) {
+         float[] Xrowi = X.row(i);
+         int xi = X.base(i);
+         System.arraycopy(Xrowi,xi,t,0,n);
+         for (int j = 0; j < n; j++) {
+            Xrowi[xi+piv[j]] = t[j];
+         }
+      }
+   }
+
+   /** Overwrite the Cholesky factor R = L' of A = R'*R with inv(A).
+   @param X     n-by-n upper triangular factor with zeros below the diagonal,
+                not buffer-backed.
+   @param pool         Pool that executes the products, or null.
+   @param parallelism  Maximum number of tasks per product.
+   */
+
+   static void potri (Matrix X, ForkJoinPool pool, int parallelism) {
+      int n = X.getRowDimension();
+      trtri(X,n,pool,parallelism);
+
+      // inv(A) = inv(R)*inv(R)', computed by blocks of rows from the first.
+      // Rows of inv(R) are zero left of the diagonal, so the block in the
+      // columns c0:c1-1 needs only the columns c0:n-1 of the factors.
+      for (int i0 = 0; i0 < n; i0 += NB) {
+         int i1 = Math.min(i0+NB,n);
+         Matrix T = new Matrix(i1-i0,n-i0);
+         for (int c0 = i0; c0 < n; c0 += NB) {
+            int c1 = Math.min(c0+NB,n);
+            Gemm.gemm(false,true,i1-i0,c1-c0,n-c0,1.0f,X,i0,c0,X,c0,c0,T,0,c0-i0,pool,parallelism);
+         }
+         for (int i = i0; i < i1; i++) {
+            System.arraycopy(T.row(i-i0),0,X.row(i),X.base(i)+i0,n-i0);
+         }
+      }
+      for (int i = 0; i < n; i++) {
+         for (int j = 0; j < i; j++) {
+            X.row(i)[X.base(i)+j] = X.row(j)[X.base(j)+i];
+         }
+      }
+   }
+
+/* ------------------------
+   Private Methods
+ * ------------------------ */
+
+   /** Invert the upper triangle of X(0:n-1,0:n-1) in place, by blocks of
+       columns from the first.  Elements below the diagonal are not read
+       or written. **/
+
+   private static void trtri (Matrix X, int n, ForkJoinPool pool, int parallelism) {
+      for (int j0 = 0; j0 < n; j0 += NB) {
+         int j1 = Math.min(j0+NB,n), nb = j1-j0;
+
+         // X(0:j0-1,j0:j1-1) = inv(U11)*U12 with the inverted U11.
+         trmm(X,j0,j1,pool,parallelism);
+
+         // X(0:j0-1,j0:j1-1) = -X(0:j0-1,j0:j1-1)*inv(U22)
+         for (int i = 0; i < j0; i++) {
+            float[] Xrowi = X.row(i);
+            int xi = X.base(i);
+            Kernels.K.negate(Xrowi,xi+j0,Xrowi,xi+j0,nb);
+            for (int j = j0; j < j1; j++) {
+               float s = (Xrowi[xi+j] /= X.row(j)[X.base(j)+j]);
+               Kernels.K.axpy(-s,X.row(j),X.base(j)+j+1,Xrowi,xi+j+1,j1-j-1);
+            }
+         }
+
+         // Invert U22, one column at a time.
+         for (int j = j0; j < j1; j++) {
+            float[] Xrowj = X.row(j);
+            int xj = X.base(j);
+            float d = (Xrowj[xj+j] = 1.0f/Xrowj[xj+j]);
+            for (int i = j0; i < j; i++) {
+               float[] Xrowi = X.row(i);
+               int xi = X.base(i);
+               float s = 0.0f;
+               for (int k = i; k < j; k++) {
+                  s += Xrowi[xi+k]*X.row(k)[X.base(k)+j];
+               }
+               Xrowi[xi+j] = -s*d;
+            }
+         }
+      }
+   }
+
+   /** X(0:j0-1,j0:j1-1) = T*X(0:j0-1,j0:j1-1) for the upper triangle T of
+       X(0:j0-1,0:j0-1), by blocks of rows from the first, each of which
+       only reads rows below it. **/
+
+   private static void trmm (Matrix X, int j0, int j1, ForkJoinPool pool, int parallelism) {
+      int nb = j1-j0;
+      for (int r0 = 0; r0 < j0; r0 += NB) {
+         int r1 = Math.min(r0+NB,j0);
+         Matrix T = new Matrix(r1-r0,nb);
+         for (int i = r0; i < r1; i++) {
+            float[] Xrowi = X.row(i);
+            int xi = X.base(i);
+            for (int k = i; k < r1; k++) {
+               Kernels.K.axpy(Xrowi[xi+k],X.row(k),X.base(k)+j0,T.row(i-r0),0,nb);
+            }
+         }
+         Gemm.gemm(false,false,r1-r0,nb,j0-r1,1.0f,X,r0,r1,X,r1,j0,T,0,0,pool,parallelism);
+         for (int i = r0; i < r1; i++) {
+            System.arraycopy(T.row(i-r0),0,X.row(i),X.base(i)+j0,nb);
+         }
+      }
+   }
+}
@@ -0,0 +1,334 @@
+package com.github.sikoried.fjama;
+
+   /** Mixed precision iterative refinement.
+   <P>
+   Solves A*X = B for a square matrix A with the single precision LU
+   decomposition of A and refines the solution in double precision:  the
+   residual R = B - A*X is computed in double, the correction D = A\R is
+   solved with the float factors, and X = X + D is accumulated in double.
+   As long as A is not too ill-conditioned for float, roughly cond(A) below
+   1e6, each step gains about seven digits, and X converges to the double
+   precision solution of the system whose coefficients are the elements of
+   A.  The iteration follows LAPACK's DSGESV:  a column has converged once
+   <BLOCKQUOTE>
+   ||r||_inf &lt;= ||x||_inf ||A||_inf eps sqrt(n)
+   </BLOCKQUOTE>
+   with eps = 2^-53.
+   <P>
+   A column stalls if a correction is not at most half as large as the one
+   before, if the iteration does not converge within 30 steps, or if the
+   float factors are singular.  Stalled columns are solved again with a
+   double precision LU decomposition of A, which isRefined() reports.  The
+   solve fails only if A is singular in double precision as well.
+   */
+
+public class IterativeRefinement implements java.io.Serializable {
+
+/* ------------------------
+   Class variables
+ * ------------------------ */
+
+   /** Maximum number of refinement steps. */
+   private static final int ITMAX = 30;
+
+   /** A correction larger than this fraction of the previous one stalls. */
+   private static final double STALL = 0.5;
+
+   /** Solution in double precision.
+   @serial solution.
+   */
+   private double[][] X;
+
+   /** Number of refinement steps.
+   @serial number of refinement steps.
+   */
+   private int iterations;
+
+   /** True if no column needed the double precision decomposition.
+   @serial refined flag.
+   */
+   private boolean refined;
+
+   /** Largest normwise backward error of a column of X.
+   @serial backward error.
+   */
+   private double berr;
+
+/* ------------------------
+   Constructor
+ * ------------------------ */
+
+   /** Solve A*X = B with refinement.
+   @param  A   Square matrix.
+   @param  LU  LU decomposition of A, e.g.f A.lu().
+   @param  B   Right hand side with as many rows as A, in double precision.
+   @exception  IllegalArgumentException Matrix must be square.
+   @exception  IllegalArgumentException Matrix row dimensions must agree.
+   @exception  RuntimeException  Matrix is singular.
+   */
+
+   public IterativeRefinement (Matrix A, LUDecomposition LU, double[][] B) {
+      int n = A.getRowDimension();
+      if (A.getColumnDimension() != n) {
+         throw new IllegalArgumentException("Matrix must be square.");
+      }
+      if (B.length != n) {
+         throw new IllegalArgumentException("Matrix row dimensions must agree.");
+      }
+      int nx = (n > 0 ? B[0].length : 0);
+      X = new double[n][nx];
+      double anrm = A.normInf();
+      double tol = anrm*Math.ulp(1.0)/2*Math.sqrt(n);
+
+      // Columns still refined, and columns left to the double solve.
+      boolean[] active = new boolean[nx], stalled = new boolean[nx];
+      java.util.Arrays.fill(active,true);
+      if (!LU.isNonsingular()) {
+         java.util.Arrays.fill(active,false);
+         java.util.Arrays.fill(stalled,true);
+      } else {
+         Matrix R = new Matrix(n,nx);
+         for (int i = 0; i < n; i++) {
+            for (int j = 0; j < nx; j++) {
+               R.set(i,j,(float) B[i][j]);
+            }
+         }
+         add(LU.solve(R),null,active);
+      }
+
+      double[][] Rd = new double[n][nx];
+      double[] dprev = new double[nx];
+      for (int it = 0; it <= ITMAX; it++) {
+         residual(A,B,Rd);
+         double[] rnrm = new double[nx];
+         double[] xnrm = new double[nx];
+         norms(Rd,rnrm);
+         norms(X,xnrm);
+
+         // Retire converged columns and scale the other residuals.
+         int count = 0;
+         for (int j = 0; j < nx; j++) {
+            if (!active[j]) {
+               continue;
+            }
+            if (rnrm[j] <= xnrm[j]*tol) {
+               active[j] = false;
+            } else if (it == ITMAX || Double.isNaN(rnrm[j]) || Double.isInfinite(xnrm[j])) {
+               active[j] = false;
+               stalled[j] = true;
+            } else {
+               count++;
+            }
+         }
+         if (count == 0) {
+            break;
+         }
+         iterations = it+1;
+         Matrix R = new Matrix(n,nx);
+         for (int i = 0; i < n; i++) {
+            for (int j = 0; j < nx; j++) {
+               if (active[j]) {
+                  R.set(i,j,(float) (Rd[i][j]/rnrm[j]));
+               }
+            }
+         }
+         Matrix D = LU.solve(R);
+         for (int j = 0; j < nx; j++) {
+            if (!active[j]) {
+               continue;
+            }
+            double dnrm = 0;
+            for (int i = 0; i < n; i++) {
+               dnrm = Math.max(dnrm,Math.abs(D.get(i,j)*rnrm[j]));
+            }
+            if (it > 0 && !(dnrm <= STALL*dprev[j])) {
+               active[j] = false;
+               stalled[j] = true;
+            }
+            dprev[j] = dnrm;
+         }
+         add(D,rnrm,active);
+      }
+
+      refined = true;
+      for (int j = 0; j < nx; j++) {
+         refined &= !stalled[j];
+      }
+      if (!refined) {
+         solveDouble(A,B,stalled);
+      }
+
+      // Report the backward error max ||r|| / (||A|| ||x|| + ||b||).
+      residual(A,B,Rd);
+      double[] rnrm = new double[nx], xnrm = new double[nx], bnrm = new double[nx];
+      norms(Rd,rnrm);
+      norms(X,xnrm);
+      norms(B,bnrm);
+      for (int j = 0; j < nx; j++) {
+         double d = anrm*xnrm[j]+bnrm[j];
+         berr = Math.max(berr,(d > 0 ? rnrm[j]/d : 0));
+      }
+   }
+
+/* ------------------------
+   Public Methods
+ * ------------------------ */
+
+   /** Return the solution in double precision
+   @return     X, n-by-nx
+   */
+
+   public double[][] getSolution () {
+      return X;
+   }
+
+   /** Return the solution rounded to single precision
+   @return     X as a Matrix
+   */
+
+   public Matrix getX () {
+      int n = X.length, nx = (n > 0 ? X[0].length : 0);
+      Matrix Y = new Matrix(n,nx);
+      for (int i = 0; i < n; i++) {
+         for (int j = 0; j < nx; j++) {
+            Y.set(i,j,(float) X[i][j]);
+         }
+      }
+      return Y;
+   }
+
+   /** Did refinement with the float factors converge for all columns?
+   @return     true if no column had to be solved in double precision.
+   */
+
+   public boolean isRefined () {
+      return refined;
+   }
+
+   /** Return the number of refinement steps
+   @return     steps taken by the column that took the most.
+   */
+
+   public int getIterations () {
+      return iterations;
+   }
+
+   /** Return the normwise backward error of the solution
+   @return     max over the columns of ||b - A*x|| / (||A|| ||x|| + ||b||),
+               in the infinity norm.
+   */
+
+   public double getBackwardError () {
+      return berr;
+   }
+
+/* ------------------------
+   Private Methods
+ * ------------------------ */
+
+   /** X(:,j) += D(:,j)*s[j] for the active columns, s = 1 if null. **/
+
+   private void add (Matrix D, double[] s, boolean[] active) {
+      for (int i = 0; i < X.length; i++) {
+         for (int j = 0; j < X[i].length; j++) {
+            if (active[j]) {
+               X[i][j] += D.get(i,j)*(s != null ? s[j] : 1.0);
+            }
+         }
+      }
+   }
+
+   /** R = B - A*X in double precision. **/
+
+   private void residual (Matrix A, double[][] B, double[][] R) {
+      int n = X.length;
+      float[] Arowi = new float[n];
+      for (int i = 0; i < n; i++) {
+         double[] Rrowi = R[i];
+         System.arraycopy(B[i],0,Rrowi,0,Rrowi.length);
+         A.getRow(i,0,Arowi,0,n);
+         for (int k = 0; k < n; k++) {
+            double a = Arowi[k];
+            double[] Xrowk = X[k];
+            for (int j = 0; j < Rrowi.length; j++) {
+               Rrowi[j] -= a*Xrowk[j];
+            }
+         }
+      }
+   }
+
+   /** Infinity norms of the columns of Y. **/
+
+   private static void norms (double[][] Y, double[] nrm) {
+      for (int i = 0; i < Y.length; i++) {
+         for (int j = 0; j < nrm.length; j++) {
+            nrm[j] = Math.max(nrm[j],Math.abs(Y[i][j]));
+         }
+      }
+   }
+
+   /** Solve the columns of A*X = B selected by cols with an LU
+       decomposition in double precision. **/
+
+   private void solveDouble (Matrix A, double[][] B, boolean[] cols) {
+      int n = X.length;
+      double[][] LU = new double[n][n];
+      float[] Arowi = new float[n];
+      for (int i = 0; i < n; i++) {
+         A.getRow(i,0,Arowi,0,n);
+         for (int k = 0; k < n; k++) {
+            LU[i][k] = Arowi[k];
+         }
+      }
+      int[] piv = new int[n];
+      for (int i = 0; i < n; i++) {
+         piv[i] = i;
+      }
+      for (int k = 0; k < n; k++) {
+         int p = k;
+         for (int i = k+1; i < n; i++) {
+            if (Math.abs(LU[i][k]) > Math.abs(LU[p][k])) {
+               p = i;
+            }
+         }
+         if (LU[p][k] == 0.0) {
+            throw new RuntimeException("Matrix is singular.");
+         }
+         double[] t = LU[p]; LU[p] = LU[k]; LU[k] = t;
+         int q = piv[p]; piv[p] = piv[k]; piv[k] = q;
+         double[] LUrowk = LU[k];
+         for (int i = k+1; i < n; i++) {
+            double[] LUrowi = LU[i];
+            double l = (LUrowi[k] /= LUrowk[k]);
+            for (int j = k+1; j < n; j++) {
+               LUrowi[j] -= l*LUrowk[j];
+            }
+         }
+      }
+      double[] x = new double[n];
+      for (int j = 0; j < cols.length; j++) {
+         if (!cols[j]) {
+            continue;
+         }
+         for (int i = 0; i < n; i++) {
+            double s = B[piv[i]][j];
+            for (int k = 0; k < i; k++) {
+               s -= LU[i][k]*x[k];
+            }
+            x[i] = s;
+         }
+         for (int i = n-1; i >= 0; i--) {
+            double s = x[i];
+            for (int k = i+1; k < n; k++) {
+               s -= LU[i][k]*x[k];
+            }
+            x[i] = s/LU[i][i];
+         }
+         for (int i = 0; i < n; i++) {
+            X[i][j] = x[i];
+         }
+      }
+   }
+
+  private static final long serialVersionUID = 1;
+}
@@ -0,0 +1,153 @@
+package com.github.sikoried.fjama;
+
+   /** Inner loops of the element-wise operations, dot products and the
+   GEMM micro-kernel.
+   <P>
+   This class holds the plain scalar loops, which run on any Java 8 virtual
+   machine and are left to the JIT compiler to vectorize.  When the class
+   VectorKernels can be loaded, that is on Java 17 or later with the
+   jdk.incubator.vector module added, it replaces these loops with explicit
+   SIMD code using FloatVector of the preferred species.  The scalar loops
+   may also be forced by setting the system property fjama.vector to false.
+   <P>
+   All methods address runs of n elements starting at the given offsets,
+   and the output may alias an input with the same offset.
+   */
+
+class Kernels {
+
+/* ------------------------
+   Class variables
+ * ------------------------ */
+
+   /** Kernels used by Matrix, the decompositions and Gemm. */
+   static final Kernels K = load();
+
+/* ------------------------
+   Public Methods
+ * ------------------------ */
+
+   /** c = a + b **/
+
+   void add (float[] a, int ai, float[] b, int bi, float[] c, int ci, int n) {
+      for (int j = 0; j < n; j++) {
+         c[ci+j] = a[ai+j] + b[bi+j];
+      }
+   }
+
+   /** c = a - b **/
+
+   void sub (float[] a, int ai, float[] b, int bi, float[] c, int ci, int n) {
+      for (int j = 0; j < n; j++) {
+         c[ci+j] = a[ai+j] - b[bi+j];
+      }
+   }
+
+   /** c = a .* b **/
+
+   void mul (float[] a, int ai, float[] b, int bi, float[] c, int ci, int n) {
+      for (int j = 0; j < n; j++) {
+         c[ci+j] = a[ai+j] * b[bi+j];
+      }
+   }
+
+   /** c = a ./ b **/
+
+   void div (float[] a, int ai, float[] b, int bi, float[] c, int ci, int n) {
+      for (int j = 0; j < n; j++) {
+         c[ci+j] = a[ai+j] / b[bi+j];
+      }
+   }
+
+   /** c = s*a **/
+
+   void scale (float s, float[] a, int ai, float[] c, int ci, int n) {
+      for (int j = 0; j < n; j++) {
+         c[ci+j] = s*a[ai+j];
+      }
+   }
+
+   /** c = -a **/
+
+   void negate (float[] a, int ai, float[] c, int ci, int n) {
+      for (int j = 0; j < n; j++) {
+         c[ci+j] = -a[ai+j];
+      }
+   }
+
+   /** y = y + s*x **/
+
+   void axpy (float s, float[] x, int xi, float[] y, int yi, int n) {
+      for (int j = 0; j < n; j++) {
+         y[yi+j] += s*x[xi+j];
+      }
+   }
+
+   /** c = c - a .* b **/
+
+   void subMul (float[] a, int ai, float[] b, int bi, float[] c, int ci, int n) {
+      for (int j = 0; j < n; j++) {
+         c[ci+j] -= a[ai+j]*b[bi+j];
+      }
+   }
+
+   /** Dot product x'*y **/
+
+   float dot (float[] x, int xi, float[] y, int yi, int n) {
+      float s = 0.0f;
+      for (int j = 0; j < n; j++) {
+         s += x[xi+j]*y[yi+j];
+      }
+      return s;
+   }
+
+   /** GEMM micro-kernel:  t = Ap*Bp for one packed 4-by-kc sliver of A and
+       one packed kc-by-4 sliver of B, stored row by row in t[0:15]. **/
+
+   void tile (int kc, float[] Ap, int a, float[] Bp, int b, float[] t) {
+      float c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+      float c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+      float c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+      float c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+      for (int p = 0; p < kc; p++, a += 4, b += 4) {
+         float a0 = Ap[a], a1 = Ap[a+1], a2 = Ap[a+2], a3 = Ap[a+3];
+         float b0 = Bp[b], b1 = Bp[b+1], b2 = Bp[b+2], b3 = Bp[b+3];
+         c00 += a0*b0; c01 += a0*b1; c02 += a0*b2; c03 += a0*b3;
+         c10 += a1*b0; c11 += a1*b1; c12 += a1*b2; c13 += a1*b3;
+         c20 += a2*b0; c21 += a2*b1; c22 += a2*b2; c23 += a2*b3;
+         c30 += a3*b0; c31 += a3*b1; c32 += a3*b2; c33 += a3*b3;
+      }
+      t[0] = c00; t[1] = c01; t[2] = c02; t[3] = c03;
+      t[4] = c10; t[5] = c11; t[6] = c12; t[7] = c13;
+      t[8] = c20; t[9] = c21; t[10] = c22; t[11] = c23;
+      t[12] = c30; t[13] = c31; t[14] = c32; t[15] = c33;
+   }
+
+   /** Name of the implementation, for diagnostics. **/
+
+   String name () {
+      return "scalar";
+   }
+
+/* ------------------------
+   Private Methods
+ * ------------------------ */
+
+   /** Use VectorKernels if it can be loaded, otherwise the scalar loops. **/
+
+   private static Kernels load () {
+      if (!Boolean.parseBoolean(System.getProperty("fjama.vector","true"))) {
+         return new Kernels();
+      }
+      try {
+         Kernels k = (Kernels) Class.forName("com.github.sikoried.fjama.VectorKernels").getDeclaredConstructor().newInstance();
+         k.dot(new float[1],0,new float[1],0,1);
+         return k;
+      } catch (Exception e) {
+         return new Kernels();
+      } catch (LinkageError e) {
+         // Class file too new, or jdk.incubator.vector not in the module graph.
+         return new Kernels();
+      }
+   }
+}
@@ -1,5 +1,8 @@
 package com.github.sikoried.fjama;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
    /** LU Decomposition.
    <P>
    For an m-by-n matrix A with m >= n, the LU decomposition is an m-by-n
@@ -11,6 +14,18 @@ package com.github.sikoried.fjama;
    singular, so the constructor will never fail.f  The primary use of the
    LU decomposition is in the solution of square systems of simultaneous
    linear equations.f  This will fail if isNonsingular() returns false.
+   <P>
+   The decomposition of a square matrix can be updated to A + U*V' for
+   n-by-k matrices U and V in O(n^2 k) operations, without refactoring.
+   The factors L and U are kept, and solve and det apply the
+   Sherman-Morrison-Woodbury formula
+   <BLOCKQUOTE>
+   (A + U*V')\B = Y - Z*(C\(V'*Y)),  with Y = A\B, Z = A\U, C = I + V'*Z,
+   </BLOCKQUOTE>
+   where C is the k-by-k capacitance matrix of all updates so far.f  Each
+   update adds to the cost of later solves and to their rounding error, so
+   needsRefactorization() tells when a fresh decomposition of the updated
+   matrix should be computed instead.
    */
 
 public class LUDecomposition implements java.io.Serializable {
@@ -19,10 +34,28 @@ public class LUDecomposition implements java.io.Serializable {
    Class variables
  * ------------------------ */
 
-   /** Array for internal storage of decomposition.
-   @serial internal array storage.
+   /** Number of columns factored as one panel. */
+   private static final int NB = 128;
+
+   /** Column blocks are not split into tasks below this width. */
+   private static final int MIN_COLUMNS = 128;
+
+   /** Updates of at most this rank never call for a refactorization. */
+   private static final int MAX_UPDATE_RANK = 8;
+
+   /** Largest error growth through the capacitance matrix before updates
+       call for a refactorization. */
+   private static final float MAX_GROWTH = 1e3f;
+
+   /** Number of elements of a block of right hand sides that are
+       substituted together, so that the block stays in a 256 KB cache. */
+   private static final int RHS_BLOCK = 1 << 16;
+
+   /** Internal storage of decomposition, with the same kind of storage
+       as the factored matrix.
+   @serial internal storage.
    */
-   private float[][] LU;
+   private Matrix LU;
 
    /** Row and column dimensions, and pivot sign.
    @serial column dimension.
@@ -36,6 +69,20 @@ public class LUDecomposition implements java.io.Serializable {
    */
    private int[] piv;
 
+   /** Updates so far as Z = A\U and V, both n-by-k, or null if none.
+   @serial solutions for the update vectors.
+   @serial update vectors.
+   */
+   private Matrix Z, V;
+
+   /** LU decomposition of the capacitance matrix I + V'*Z, and the factor
+       by which solving with it amplifies rounding errors.
+   @serial capacitance decomposition.
+   @serial error growth.
+   */
+   private LUDecomposition capacitance;
+   private float growth;
+
 /* ------------------------
    Constructor
  * ------------------------ */
@@ -46,67 +93,118 @@ public class LUDecomposition implements java.io.Serializable {
    */
 
    public LUDecomposition (Matrix A) {
+      this(A,null,1);
+   }
 
-   // Use a "left-looking", dot-product, Crout/Doolittle algorithm.
+   /** LU Decomposition computed in parallel on a ForkJoinPool.
+   <P>
+   The row exchanges and updates of each step are split into tasks, and
+   the next panel is factored while the rest of the matrix is updated.
+   The result, including the pivot sequence, is the same as with a
+   single thread.
+   @param  A     Rectangular matrix
+   @param  pool  Pool that executes the tasks.
+   */
 
-      LU = A.getArrayCopy();
-      m = A.getRowDimension();
-      n = A.getColumnDimension();
-      piv = new int[m];
-      for (int i = 0; i < m; i++) {
-         piv[i] = i;
-      }
-      pivsign = 1;
-      float[] LUrowi;
-      float[] LUcolj = new float[m];
+   public LUDecomposition (Matrix A, ForkJoinPool pool) {
+      this(A,pool,pool.getParallelism());
+   }
 
-      // Outer loop.
+   /** LU Decomposition computed in parallel with bounded parallelism.
+   @param  A            Rectangular matrix
+   @param  pool         Pool that executes the tasks.
+   @param  parallelism  Maximum number of concurrent tasks; 1 factors on
+                        the calling thread.
+   @see    #LUDecomposition(Matrix,ForkJoinPool)
+   */
 
-      for (int j = 0; j < n; j++) {
+   public LUDecomposition (Matrix A, ForkJoinPool pool, int parallelism) {
+      this(A,pool,parallelism,false);
+   }
 
-         // Make a copy of the j-th column to localize references.
+   /** LU Decomposition in the storage of A.
+   <P>
+   The factors overwrite the elements of A, which saves the copy made by
+   the constructors.f  A is consumed:  afterwards it holds L and U in packed
+   form and must not be used as the original matrix.f  A buffer-backed
+   matrix is factored in its buffer, with one panel at a time copied to the
+   heap.
+   @param  A  Rectangular matrix, overwritten
+   @return    LU decomposition of A
+   */
 
-         for (int i = 0; i < m; i++) {
-            LUcolj[i] = LU[i][j];
-         }
+   public static LUDecomposition inPlace (Matrix A) {
+      return new LUDecomposition(A,null,1,true);
+   }
 
-         // Apply previous transformations.
+   /** LU Decomposition in the storage of A, computed in parallel.
+   @param  A     Rectangular matrix, overwritten
+   @param  pool  Pool that executes the tasks.
+   @return       LU decomposition of A
+   @see    #inPlace(Matrix)
+   @see    #LUDecomposition(Matrix,ForkJoinPool)
+   */
 
-         for (int i = 0; i < m; i++) {
-            LUrowi = LU[i];
+   public static LUDecomposition inPlace (Matrix A, ForkJoinPool pool) {
+      return new LUDecomposition(A,pool,pool.getParallelism(),true);
+   }
 
-            // Most of the time is spent in the following dot product.
+   private LUDecomposition (Matrix A, ForkJoinPool pool, int parallelism, boolean overwrite) {
 
-            int kmax = Math.min(i,j);
-            float s = 0.0f;
-            for (int k = 0; k < kmax; k++) {
-               s += LUrowi[k]*LUcolj[k];
-            }
+   // Use a blocked, right-looking algorithm:  factor a panel of NB columns,
+   // apply it to the block row on its right and update the trailing
+   // submatrix with a matrix product.  The columns of the next panel are
+   // updated first, so that it can be factored while the remaining columns
+   // are updated (lookahead).  The same schedule is used serially, which
+   // keeps the rounding, and hence the pivots, independent of parallelism.
+   // A buffer-backed matrix is factored in its buffer, with the panel, L11
+   // and U12 copied to the heap.
 
-            LUrowi[j] = LUcolj[i] -= s;
+      LU = (overwrite ? A : A.copy());
+      if (LU == A) {
+         A.modified();
+      }
+      m = A.getRowDimension();
+      n = A.getColumnDimension();
+      piv = new int[m];
+      for (int i = 0; i < m; i++) {
+         piv[i] = i;
+      }
+      pivsign = 1;
+      int kmax = Math.min(m,n);
+      int[] ipiv = new int[kmax];
+      int tasks = (pool == null ? 1 : Math.max(1,parallelism));
+      if (kmax > 0) {
+         panel(0,Math.min(NB,kmax),ipiv);
+      }
+      for (int j0 = 0; j0 < kmax; j0 += NB) {
+         int j1 = Math.min(j0+NB,kmax), j2 = Math.min(j1+NB,kmax);
+
+         // Apply the exchanges of the panel to the other columns and
+         // compute U12 = L11\A12.
+
+         Columns left = new Columns(j0,j1,0,j0,false,ipiv,tasks);
+         Columns right = new Columns(j0,j1,j1,n,true,ipiv,tasks);
+         if (tasks > 1) {
+            pool.invoke(new Both(left,right));
+         } else {
+            left.compute();
+            right.compute();
          }
-   
-         // Find pivot and exchange if necessary.
+         if (j1 < n) {
 
-         int p = j;
-         for (int i = j+1; i < m; i++) {
-            if (Math.abs(LUcolj[i]) > Math.abs(LUcolj[p])) {
-               p = i;
-            }
-         }
-         if (p != j) {
-            for (int k = 0; k < n; k++) {
-               float t = LU[p][k]; LU[p][k] = LU[j][k]; LU[j][k] = t;
-            }
-            int k = piv[p]; piv[p] = piv[j]; piv[j] = k;
-            pivsign = -pivsign;
-         }
+            // A22 = A22 - L21*U12, where most of the time is spent:  first
+            // the columns of the next panel, then the others while that
+            // panel is factored.
 
-         // Compute multipliers.
-         
-         if (j < m & LU[j][j] != 0.0f) {
-            for (int i = j+1; i < m; i++) {
-               LU[i][j] /= LU[j][j];
+            Gemm.gemm(false,false,m-j1,j2-j1,j1-j0,-1.0f,LU,j1,j0,LU,j0,j1,LU,j1,j1,pool,tasks);
+            Panel next = new Panel(j1,j2,ipiv);
+            Update rest = new Update(j0,j1,j2,pool,tasks-1);
+            if (tasks > 1) {
+               pool.invoke(new Both(next,rest));
+            } else {
+               rest.compute();
+               next.compute();
             }
          }
       }
@@ -180,49 +278,51 @@ public class LUDecomposition implements java.io.Serializable {
    */
 
    public boolean isNonsingular () {
-      for (int j = 0; j < n; j++) {
-         if (LU[j][j] == 0)
-            return false;
-      }
-      return true;
+      return factorsNonsingular() && (capacitance == null || capacitance.isNonsingular());
    }
 
-   /** Return lower triangular factor
+   /** Return lower triangular factor, not changed by update
    @return     L
    */
 
    public Matrix getL () {
-      Matrix X = new Matrix(m,n);
-      float[][] L = X.getArray();
+      Matrix X = LU.like(m,n);
+      float[] t = LU.scratch(), u = X.scratch();
       for (int i = 0; i < m; i++) {
+         float[] LUrowi = LU.load(i,t), Lrowi = X.load(i,u);
+         int r = LU.start(i,t), l = X.start(i,u);
          for (int j = 0; j < n; j++) {
             if (i > j) {
-               L[i][j] = LU[i][j];
+               Lrowi[l+j] = LUrowi[r+j];
             } else if (i == j) {
-               L[i][j] = 1.0f;
+               Lrowi[l+j] = 1.0f;
             } else {
-               L[i][j] = 0.0f;
+               Lrowi[l+j] = 0.0f;
             }
          }
+         X.store(i,u);
       }
       return X;
    }
 
-   /** Return upper triangular factor
+   /** Return upper triangular factor, not changed by update
    @return     U
    */
 
    public Matrix getU () {
-      Matrix X = new Matrix(n,n);
-      float[][] U = X.getArray();
+      Matrix X = LU.like(n,n);
+      float[] t = LU.scratch(), v = X.scratch();
       for (int i = 0; i < n; i++) {
+         float[] LUrowi = LU.load(i,t), Urowi = X.load(i,v);
+         int r = LU.start(i,t), u = X.start(i,v);
          for (int j = 0; j < n; j++) {
             if (i <= j) {
-               U[i][j] = LU[i][j];
+               Urowi[u+j] = LUrowi[r+j];
             } else {
-               U[i][j] = 0.0f;
+               Urowi[u+j] = 0.0f;
             }
          }
+         X.store(i,v);
       }
       return X;
    }
@@ -262,19 +362,162 @@ public class LUDecomposition implements java.io.Serializable {
       }
       float d = (float) pivsign;
       for (int j = 0; j < n; j++) {
-         d *= LU[j][j];
+         d *= LU.get(j,j);
+      }
+      if (capacitance != null) {
+         d *= capacitance.det();
       }
       return d;
    }
 
    /** Solve A*X = B
    @param  B   A Matrix with as many rows as A and any number of columns.
-   @return     X so that L*U*X = B(piv,:)
+   @return     X so that L*U*X = B(piv,:), or (A + U*V')*X = B after update
    @exception  IllegalArgumentException Matrix row dimensions must agree.
    @exception  RuntimeException  Matrix is singular.
    */
 
    public Matrix solve (Matrix B) {
+      return solve(B,null,1);
+   }
+
+   /** Solve A*X = B with the columns of B split into tasks on a ForkJoinPool.
+   <P>
+   The right hand sides are independent, so each task substitutes its own
+   blocks of columns; the result is the same as with a single thread.
+   @param  B     A Matrix with as many rows as A and any number of columns.
+   @param  pool  Pool that executes the tasks.
+   @return       X so that L*U*X = B(piv,:)
+   @exception  IllegalArgumentException Matrix row dimensions must agree.
+   @exception  RuntimeException  Matrix is singular.
+   */
+
+   public Matrix solve (Matrix B, ForkJoinPool pool) {
+      return solve(B,pool,pool.getParallelism());
+   }
+
+   /** Inverse from the factors
+   <P>
+   Inverts U and solves inv(A)*L = inv(U) in a copy of the factors, as
+   LAPACK's GETRI does, which takes 2/3 of the flops of solve with the
+   identity and no identity matrix.f  Factors in a buffer are solved with
+   the identity instead, and the inverse is held in direct memory.
+   @return     inv(A), or inv(A + U*V') after update
+   @exception  IllegalArgumentException  Matrix must be square.
+   @exception  RuntimeException  Matrix is singular.
+   */
+
+   public Matrix inverse () {
+      return inverse(null,1);
+   }
+
+   /** Inverse from the factors, with the block products computed in
+       parallel on a ForkJoinPool
+   @param  pool  Pool that executes the tasks.
+   @return       inv(A), or inv(A + U*V') after update
+   @exception  IllegalArgumentException  Matrix must be square.
+   @exception  RuntimeException  Matrix is singular.
+   */
+
+   public Matrix inverse (ForkJoinPool pool) {
+      return inverse(pool,pool.getParallelism());
+   }
+
+   /** Update the decomposition to that of A + U*V'.
+   <P>
+   Rank-one changes of a row or column are the usual case:  adding the
+   row vector r to row i is U = e_i, V = r', and adding the column vector
+   c to column j is U = c, V = e_j.f  Costs one solve with the factors
+   for each column of U, and O(n k^2) to rebuild the capacitance matrix.
+   @param  U   n-by-k matrix.
+   @param  V   n-by-k matrix.
+   @exception  IllegalArgumentException  Matrix must be square.
+   @exception  IllegalArgumentException  Matrix dimensions must agree.
+   @exception  RuntimeException  Matrix is singular.
+   */
+
+   public void update (Matrix U, Matrix V) {
+      if (m != n) {
+         throw new IllegalArgumentException("Matrix must be square.");
+      }
+      int kn = U.getColumnDimension();
+      if (U.getRowDimension() != n || V.getRowDimension() != n || V.getColumnDimension() != kn) {
+         throw new IllegalArgumentException("Matrix dimensions must agree.");
+      }
+      if (!factorsNonsingular()) {
+         throw new RuntimeException("Matrix is singular.");
+      }
+      int k = getUpdateRank();
+      Matrix Z1 = new Matrix(n,k+kn), V1 = new Matrix(n,k+kn);
+      if (k > 0) {
+         Z1.setMatrix(0,n-1,0,k-1,Z);
+         V1.setMatrix(0,n-1,0,k-1,this.V);
+      }
+      Z1.setMatrix(0,n-1,k,k+kn-1,substitute(U,null,1));
+      V1.setMatrix(0,n-1,k,k+kn-1,V);
+      Z = Z1;
+      this.V = V1;
+
+      // Capacitance matrix C = I + V'*Z.  The error of forming V'*Z is
+      // bounded by |V|'*|Z|, and C\ amplifies it by up to ||inv(C)||.
+      k += kn;
+      Matrix C = Matrix.identity(k,k);
+      Matrix.gemm(true,false,1.0f,this.V,Z,1.0f,C);
+      capacitance = new LUDecomposition(C);
+      if (capacitance.isNonsingular()) {
+         Matrix E = Matrix.gemm(true,false,1.0f,abs(this.V),abs(Z),0.0f,new Matrix(k,k));
+         growth = capacitance.solve(Matrix.identity(k,k)).norm1()*(1.0f+E.norm1());
+      } else {
+         growth = Float.POSITIVE_INFINITY;
+      }
+   }
+
+   /** Return the number of columns of all updates so far
+   @return     k, 0 if update was never called.
+   */
+
+   public int getUpdateRank () {
+      return (Z == null ? 0 : Z.getColumnDimension());
+   }
+
+   /** Should the updated matrix be decomposed afresh?
+   <P>
+   True once the rank of the updates exceeds max(8,sqrt(n)), beyond which
+   rebuilding the capacitance matrix costs more than a solve with the
+   factors, or once solving with the capacitance matrix C may amplify
+   rounding errors by more than 1e3, losing three of the seven digits of
+   float.f  The amplification is estimated as ||inv(C)|| (1 + || |V|'*|Z| ||)
+   in the one norm, which also catches updates that bring the matrix close
+   to singular.
+   @return     true if a new LUDecomposition should replace this one.
+   */
+
+   public boolean needsRefactorization () {
+      return getUpdateRank() > Math.max(MAX_UPDATE_RANK,(int) Math.sqrt(n))
+          || !(growth <= MAX_GROWTH);
+   }
+
+   /** Solve A*X = B with the solution refined in double precision
+   @param  A   The matrix that was decomposed, not consumed by inPlace.
+   @param  B   A right hand side in double precision with as many rows as A.
+   @return     IterativeRefinement holding the solution
+   @exception  IllegalArgumentException Matrix must be square.
+   @exception  IllegalArgumentException Matrix row dimensions must agree.
+   @exception  RuntimeException  Matrix is singular.
+   @see        IterativeRefinement
+   */
+
+   public IterativeRefinement solveRefined (Matrix A, double[][] B) {
+      return new IterativeRefinement(A,this,B);
+   }
+
+/* ------------------------
+   Private Methods
+ * ------------------------ */
+
+   /** Solve A*X = B with at most tasks concurrent tasks on pool. **/
+
+   private Matrix solve (Matrix B, ForkJoinPool pool, int tasks) {
       if (B.getRowDimension() != m) {
          throw new IllegalArgumentException("Matrix row dimensions must agree.");
       }
@@ -282,31 +525,362 @@ public class LUDecomposition implements java.io.Serializable {
          throw new RuntimeException("Matrix is singular.");
       }
 
+      Matrix Xmat = substitute(B,pool,tasks);
+
+      // Correct for the updates:  X = X - Z*(C\(V'*X)).
+      if (Z != null) {
+         int k = getUpdateRank(), nx = B.getColumnDimension();
+         Matrix W = Matrix.gemm(true,false,1.0f,V,Xmat,0.0f,new Matrix(k,nx));
+         Matrix.gemm(false,false,-1.0f,Z,capacitance.solve(W),1.0f,Xmat);
+      }
+      return Xmat;
+   }
+
+   /** Inverse with at most tasks concurrent tasks per product on pool. **/
+
+   private Matrix inverse (ForkJoinPool pool, int tasks) {
+      if (m != n) {
+         throw new IllegalArgumentException("Matrix must be square.");
+      }
+      if (!this.isNonsingular()) {
+         throw new RuntimeException("Matrix is singular.");
+      }
+      Matrix Xmat;
+      if (LU.isBufferBacked()) {
+         Matrix I = LU.like(n,n);
+         for (int j = 0; j < n; j++) {
+            I.set(j,j,1.0f);
+         }
+         Xmat = substitute(I,pool,tasks);
+         I.free();
+      } else {
+         Xmat = LU.copy();
+         Inverse.getri(Xmat,piv,pool,tasks);
+      }
+
+      // Correct for the updates:  X = X - Z*(C\(V'*X)).
+      if (Z != null) {
+         int k = getUpdateRank();
+         Matrix W = Matrix.gemm(true,false,1.0f,V,Xmat,0.0f,new Matrix(k,n));
+         Matrix.gemm(false,false,-1.0f,Z,capacitance.solve(W),1.0f,Xmat);
+      }
+      return Xmat;
+   }
+
+   /** Solve L*U*X = B(piv,:) with at most tasks concurrent tasks on pool. **/
+
+   private Matrix substitute (Matrix B, ForkJoinPool pool, int tasks) {
+
       // Copy right hand side with pivoting
       int nx = B.getColumnDimension();
       Matrix Xmat = B.getMatrix(piv,0,nx-1);
-      float[][] X = Xmat.getArray();
+
+      // Substitute blocks of columns that fit into the cache, instead of
+      // sweeping over all of X once per row of L and U.
+      int w = Math.max(16,RHS_BLOCK/Math.max(n,1) & ~15);
+      if (tasks > 1 && nx >= 2*MIN_COLUMNS) {
+         pool.invoke(new Substitute(Xmat,0,nx,w,tasks));
+      } else {
+         for (int j0 = 0; j0 < nx; j0 += w) {
+            substitute(Xmat,j0,Math.min(j0+w,nx));
+         }
+      }
+      return Xmat;
+   }
+
+   /** Matrix of the absolute values of the elements of X. **/
+
+   private static Matrix abs (Matrix X) {
+      int m = X.getRowDimension(), n = X.getColumnDimension();
+      Matrix Y = new Matrix(m,n);
+      for (int i = 0; i < m; i++) {
+         for (int j = 0; j < n; j++) {
+            Y.set(i,j,Math.abs(X.get(i,j)));
+         }
+      }
+      return Y;
+   }
+
+   /** Is U nonsingular? **/
+
+   private boolean factorsNonsingular () {
+      for (int j = 0; j < n; j++) {
+         if (LU.get(j,j) == 0)
+            return false;
+      }
+      return true;
+   }
+
+   /** Solve L*U*X = X in place for the columns j0:j1-1 of X.
+       Each element receives the same updates in the same order as in the
+       unblocked column sweep, so the result does not depend on the blocks. **/
+
+   private void substitute (Matrix X, int j0, int j1) {
+      if (X.isBufferBacked()) {
+         Matrix Y = X.stage(0,X.getRowDimension(),j0,j1);
+         substitute(Y,0,j1-j0);
+         X.unstage(Y,0,j0);
+         return;
+      }
+      int w = j1-j0;
+      if (w < 16) {
+         for (int j = j0; j < j1; j++) {
+            substitute(X,j);
+         }
+         return;
+      }
 
       // Solve L*Y = B(piv,:)
-      for (int k = 0; k < n; k++) {
-         for (int i = k+1; i < n; i++) {
-            for (int j = 0; j < nx; j++) {
-               X[i][j] -= X[k][j]*LU[i][k];
-            }
+      float[] t = LU.scratch();
+      for (int i = 1; i < n; i++) {
+         float[] Xrowi = X.row(i), LUrowi = LU.load(i,t);
+         int xi = X.base(i)+j0, li = LU.start(i,t);
+         for (int k = 0; k < i; k++) {
+            Kernels.K.axpy(-LUrowi[li+k],X.row(k),X.base(k)+j0,Xrowi,xi,w);
          }
       }
       // Solve U*X = Y;
-      for (int k = n-1; k >= 0; k--) {
-         for (int j = 0; j < nx; j++) {
-            X[k][j] /= LU[k][k];
+      for (int i = n-1; i >= 0; i--) {
+         float[] Xrowi = X.row(i), LUrowi = LU.load(i,t);
+         int xi = X.base(i)+j0, li = LU.start(i,t);
+         for (int k = n-1; k > i; k--) {
+            Kernels.K.axpy(-LUrowi[li+k],X.row(k),X.base(k)+j0,Xrowi,xi,w);
+         }
+         float d = LUrowi[li+i];
+         for (int j = 0; j < w; j++) {
+            Xrowi[xi+j] /= d;
          }
-         for (int i = 0; i < k; i++) {
-            for (int j = 0; j < nx; j++) {
-               X[i][j] -= X[k][j]*LU[i][k];
+      }
+   }
+
+   /** Factor columns j0:j1-1 of rows j0:m-1 with partial pivoting.
+       Rows are exchanged within the panel only; the pivot row of step j
+       is recorded in ipiv[j].  The panel of a buffer-backed LU is
+       factored in a copy on the heap. **/
+
+   private void panel (int j0, int j1, int[] ipiv) {
+      if (LU.isBufferBacked()) {
+         Matrix P = LU.stage(j0,m,j0,j1);
+         panel(P,j0,j0,j1,ipiv);
+         LU.unstage(P,j0,j0);
+      } else {
+         panel(LU,0,j0,j1,ipiv);
+      }
+   }
+
+   /** Factor the panel j0:j1-1, held in X with element (i,j) of LU at
+       X(i-o,j-o). **/
+
+   private void panel (Matrix X, int o, int j0, int j1, int[] ipiv) {
+      for (int j = j0; j < j1; j++) {
+
+         // Find pivot and exchange if necessary.
+
+         int p = j;
+         for (int i = j+1; i < m; i++) {
+            if (Math.abs(X.row(i-o)[X.base(i-o)+j-o]) > Math.abs(X.row(p-o)[X.base(p-o)+j-o])) {
+               p = i;
+            }
+         }
+         ipiv[j] = p;
+         if (p != j) {
+            exchange(X,p-o,j-o,j0-o,j1-o);
+            int k = piv[p]; piv[p] = piv[j]; piv[j] = k;
+            pivsign = -pivsign;
+         }
+
+         // Compute multipliers and update the rest of the panel.
+
+         float[] LUrowj = X.row(j-o);
+         int rj = X.base(j-o)-o;
+         float d = LUrowj[rj+j];
+         if (d != 0.0f) {
+            for (int i = j+1; i < m; i++) {
+               float[] LUrowi = X.row(i-o);
+               int ri = X.base(i-o)-o;
+               float l = LUrowi[ri+j] /= d;
+               Kernels.K.axpy(-l,LUrowj,rj+j+1,LUrowi,ri+j+1,j1-j-1);
             }
          }
       }
-      return Xmat;
    }
-  private static final long serialVersionUID = 1;
+
+   /** Exchange columns c0:c1-1 of rows p and j of X. **/
+
+   private static void exchange (Matrix X, int p, int j, int c0, int c1) {
+      if (X.isBufferBacked()) {
+         float[] t = new float[c1-c0], u = new float[c1-c0];
+         X.getRow(p,c0,t,0,c1-c0);
+         X.getRow(j,c0,u,0,c1-c0);
+         X.setRow(p,c0,u,0,c1-c0);
+         X.setRow(j,c0,t,0,c1-c0);
+         return;
+      }
+      float[] LUrowp = X.row(p), LUrowj = X.row(j);
+      int rp = X.base(p), rj = X.base(j);
+      for (int k = c0; k < c1; k++) {
+         float t = LUrowp[rp+k]; LUrowp[rp+k] = LUrowj[rj+k]; LUrowj[rj+k] = t;
+      }
+   }
+
+   /** Factor a panel as a task. **/
+
+   private class Panel extends RecursiveAction {
+      private final int j0, j1;
+      private final int[] ipiv;
+
+      Panel (int j0, int j1, int[] ipiv) {
+         this.j0 = j0; this.j1 = j1; this.ipiv = ipiv;
+      }
+
+      protected void compute () {
+         if (j0 < j1) {
+            panel(j0,j1,ipiv);
+         }
+      }
+
+      private static final long serialVersionUID = 1;
+   }
+
+   /** Apply the exchanges of the panel j0:j1-1 to columns c0:c1-1 and, if
+       solve is set, overwrite them with L11\A12.  The columns are split
+       into tasks of at least MIN_COLUMNS columns.  For a buffer-backed LU,
+       L11 and the block row of U12 are solved in copies on the heap. **/
+
+   private class Columns extends RecursiveAction {
+      private final int j0, j1, c0, c1, tasks;
+      private final boolean solve;
+      private final int[] ipiv;
+
+      Columns (int j0, int j1, int c0, int c1, boolean solve, int[] ipiv, int tasks) {
+         this.j0 = j0; this.j1 = j1; this.c0 = c0; this.c1 = c1;
+         this.solve = solve; this.ipiv = ipiv; this.tasks = tasks;
+      }
+
+      protected void compute () {
+         if (tasks > 1 && c1-c0 >= 2*MIN_COLUMNS) {
+            int t0 = tasks/2, c = c0+(int) ((long) (c1-c0)*t0/tasks);
+            invokeAll(new Columns(j0,j1,c0,c,solve,ipiv,t0),
+                      new Columns(j0,j1,c,c1,solve,ipiv,tasks-t0));
+            return;
+         }
+         if (c0 >= c1) {
+            return;
+         }
+         for (int j = j0; j < j1; j++) {
+            if (ipiv[j] != j) {
+               exchange(LU,ipiv[j],j,c0,c1);
+            }
+         }
+         if (solve) {
+            Matrix L = LU, U = LU;
+            int o = 0, u0 = c0;
+            if (LU.isBufferBacked()) {
+               L = LU.stage(j0,j1,j0,j1);
+               U = LU.stage(j0,j1,c0,c1);
+               o = j0;
+               u0 = 0;
+            }
+            for (int r = j0+1; r < j1; r++) {
+               float[] Lrowr = L.row(r-o), Urowr = U.row(r-o);
+               int lr = L.base(r-o)-o, ur = U.base(r-o)+u0;
+               for (int q = j0; q < r; q++) {
+                  Kernels.K.axpy(-Lrowr[lr+q],U.row(q-o),U.base(q-o)+u0,Urowr,ur,c1-c0);
+               }
+            }
+            if (U != LU) {
+               LU.unstage(U,j0,c0);
+            }
+         }
+      }
+
+      private static final long serialVersionUID = 1;
+   }
+
+   /** Update the columns c0:n-1 of the trailing submatrix after the panel
+       j0:j1-1 as a task. **/
+
+   private class Update extends RecursiveAction {
+      private final int j0, j1, c0, tasks;
+      private final ForkJoinPool pool;
+
+      Update (int j0, int j1, int c0, ForkJoinPool pool, int tasks) {
+         this.j0 = j0; this.j1 = j1; this.c0 = c0; this.pool = pool; this.tasks = tasks;
+      }
+
+      protected void compute () {
+         Gemm.gemm(false,false,m-j1,n-c0,j1-j0,-1.0f,LU,j1,j0,LU,j0,c0,LU,j1,c0,pool,tasks);
+      }
+
+      private static final long serialVersionUID = 1;
+   }
+
+   /** Solve L*U*x = x in place for column j of X, accumulating each
+       element in a register; for few right hand sides. **/
+
+   private void substitute (Matrix X, int j) {
+      float[] t = LU.scratch();
+      for (int i = 1; i < n; i++) {
+         float[] LUrowi = LU.load(i,t);
+         int li = LU.start(i,t);
+         float s = X.row(i)[X.base(i)+j];
+         for (int k = 0; k < i; k++) {
+            s -= X.row(k)[X.base(k)+j]*LUrowi[li+k];
+         }
+         X.row(i)[X.base(i)+j] = s;
+      }
+      for (int i = n-1; i >= 0; i--) {
+         float[] LUrowi = LU.load(i,t);
+         int li = LU.start(i,t);
+         float s = X.row(i)[X.base(i)+j];
+         for (int k = n-1; k > i; k--) {
+            s -= X.row(k)[X.base(k)+j]*LUrowi[li+k];
+         }
+         X.row(i)[X.base(i)+j] = s/LUrowi[li+i];
+      }
+   }
+
+   /** Substitute columns j0:j1-1 of X in blocks of w columns, split into
+       at most tasks tasks. **/
+
+   private class Substitute extends RecursiveAction {
+      private final Matrix X;
+      private final int j0, j1, w, tasks;
+
+      Substitute (Matrix X, int j0, int j1, int w, int tasks) {
+         this.X = X; this.j0 = j0; this.j1 = j1; this.w = w; this.tasks = tasks;
+      }
+
+      protected void compute () {
+         if (tasks > 1 && j1-j0 >= 2*MIN_COLUMNS) {
+            int t0 = tasks/2, j = j0+(int) ((long) (j1-j0)*t0/tasks);
+            invokeAll(new Substitute(X,j0,j,w,t0),
+                      new Substitute(X,j,j1,w,tasks-t0));
+            return;
+         }
+         for (int c = j0; c < j1; c += w) {
+            substitute(X,c,Math.min(c+w,j1));
+         }
+      }
+
+      private static final long serialVersionUID = 1;
+   }
+
+   /** Run two tasks concurrently. **/
+
+   private static class Both extends RecursiveAction {
+      private final RecursiveAction a, b;
+
+      Both (RecursiveAction a, RecursiveAction b) {
+         this.a = a; this.b = b;
+      }
+
+      protected void compute () {
+         invokeAll(a,b);
+      }
+
+      private static final long serialVersionUID = 1;
+   }
+
+  private static final long serialVersionUID = 2;
 }
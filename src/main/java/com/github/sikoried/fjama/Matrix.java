@@ -9,6 +9,10 @@ import java.util.Locale;
 import java.io.PrintWriter;
 import java.io.BufferedReader;
 import java.io.StreamTokenizer;
+import java.util.concurrent.ForkJoinPool;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 
 
 /**
@@ -36,6 +40,22 @@ import java.io.StreamTokenizer;
    <LI>Singular Value Decomposition of rectangular matrices.
    <LI>Eigenvalue Decomposition of both symmetric and nonsymmetric square matrices.
 </UL>
+<P>
+   The decompositions behind solve, inverse, det, rank, cond and norm2 are
+   kept with the matrix and reused by later calls until the matrix is
+   changed, so det() followed by solve(B) factors the matrix once.f  This is
+   done only while no one else can reach the storage of the matrix:  for
+   results of arithmetic, copies, and matrices from the (m,n) constructors,
+   random, identity or allocateDirect.f  Changes through set, setMatrix, the
+   "Equals" and "Into" methods and views are noticed.f  A matrix constructed
+   on the caller's array or buffer, or whose array has been returned by
+   getArray(), may be changed behind its back and computes the
+   decomposition again on every call.f  Threads that call these methods
+   on a shared matrix at the same time see either no decomposition or a
+   fully computed one, and at worst compute it twice; changing the matrix
+   while another thread reads it must still be synchronized by the
+   caller.f  The methods lu(), qr(), chol(), svd() and eig() always compute
+   a new decomposition.
 <DL>
 <DT><B>Example of use:</B></DT>
 <P>
@@ -65,17 +85,61 @@ public class Matrix implements Cloneable, java.io.Serializable {
    */
    private float[][] A;
 
+   /** Row-packed storage of elements, used when A is null.
+       Element (i,j) is held in data[offset+i*ld+j].
+   @serial row-packed array storage.
+   @serial index of element (0,0).
+   @serial leading dimension (row stride).
+   */
+   private float[] data;
+   private int offset, ld;
+
+   /** Buffer storage of elements, used when A and data are null.
+       Element (i,j) is held at offset+i*ld+j, or at offset+j*ld+i
+       if the buffer is packed by columns.
+   */
+   private transient FloatBuffer buffer;
+   private transient boolean columnPacked;
+
+   /** Direct memory allocated by allocateDirect and released by free. */
+   private transient ByteBuffer owned;
+
+   /** Set by free, shared with all views of the same buffer, so that a view
+       does not touch memory that has been released.f  A view does not set
+       it when it is freed itself, because it does not own the buffer.
+   */
+   private transient boolean[] freed;
+   private transient boolean borrowed;
+
    /** Row and column dimensions.
    @serial row dimension.
    @serial column dimension.
    */
    private int m, n;
 
+   /** Modification counter, shared with all views of the same storage.
+       Created when the first decomposition is cached or view is taken;
+       until then there is nothing to invalidate.
+   */
+   private transient int[] version;
+
+   /** Cached decompositions, valid while version[0] equals their
+       version.f  Replaced as a whole, never changed, so that a thread
+       reading it sees decompositions that are fully computed.
+   */
+   private transient volatile Decompositions cache;
+
+   /** The storage is reachable from outside, through the array or buffer
+       the matrix was constructed on or the array returned by getArray(),
+       so changes cannot be noticed and decompositions are not cached.
+   */
+   private transient boolean exposed;
+
 /* ------------------------
    Constructors
  * ------------------------ */
 
-   /** Construct an m-by-n matrix of zeros.f 
+   /** Construct an m-by-n matrix of zeros.f
    @param m    Number of rows.
    @param n    Number of colums.
    */
@@ -118,6 +182,7 @@ public class Matrix implements Cloneable, java.io.Serializable {
          }
       }
       this.A = A;
+      exposed = true;
    }
 
    /** Construct a matrix quickly without checking arguments.
@@ -130,12 +195,14 @@ public class Matrix implements Cloneable, java.io.Serializable {
       this.A = A;
       this.m = m;
       this.n = n;
+      exposed = true;
    }
 
    /** Construct a matrix from a one-dimensional packed array
    @param vals One-dimensional array of floats, packed by columns (ala Fortran).
    @param m    Number of rows.
    @exception  IllegalArgumentException Array length must be a multiple of m.
+   @see        #wrapColumnPacked
    */
 
    public Matrix (float vals[], int m) {
@@ -152,6 +219,42 @@ public class Matrix implements Cloneable, java.io.Serializable {
       }
    }
 
+   /** Construct a matrix on row-packed storage without checking arguments.
+   @param data   One-dimensional array of floats, packed by rows.
+   @param offset Index of element (0,0).
+   @param m      Number of rows.
+   @param n      Number of colums.
+   @param ld     Leading dimension, the distance between consecutive rows.
+   */
+
+   private Matrix (float[] data, int offset, int m, int n, int ld) {
+      this.data = data;
+      this.offset = offset;
+      this.m = m;
+      this.n = n;
+      this.ld = ld;
+   }
+
+   /** Construct a matrix on buffer storage without checking arguments.
+   @param buffer       Buffer of floats.
+   @param columnPacked Buffer is packed by columns rather than by rows.
+   @param offset       Index of element (0,0).
+   @param m            Number of rows.
+   @param n            Number of colums.
+   @param ld           Leading dimension, the distance between consecutive
+                       rows, or columns if the buffer is packed by columns.
+   */
+
+   private Matrix (FloatBuffer buffer, boolean columnPacked, int offset, int m, int n, int ld) {
+      this.buffer = buffer;
+      this.freed = new boolean[1];
+      this.columnPacked = columnPacked;
+      this.offset = offset;
+      this.m = m;
+      this.n = n;
+      this.ld = ld;
+   }
+
 /* ------------------------
    Public Methods
  * ------------------------ */
@@ -165,7 +268,7 @@ public class Matrix implements Cloneable, java.io.Serializable {
       int m = A.length;
       int n = A[0].length;
       Matrix X = new Matrix(m,n);
-      float[][] C = X.getArray();
+      float[][] C = X.A;
       for (int i = 0; i < m; i++) {
          if (A[i].length != n) {
             throw new IllegalArgumentException
@@ -178,16 +281,201 @@ public class Matrix implements Cloneable, java.io.Serializable {
       return X;
    }
 
+   /** Construct a matrix on a row-packed array without copying.
+   <P>
+   The matrix keeps its elements in the given array, so changes to the
+   array are visible in the matrix and vice versa.f  Arithmetic on such a
+   matrix runs on the one-dimensional storage and produces results that
+   are row-packed as well.
+   @param vals One-dimensional array of floats, packed by rows.
+   @param m    Number of rows.
+   @param n    Number of colums.
+   @return     m-by-n matrix on vals
+   @exception  IllegalArgumentException Array length must be at least m*n.
+   */
+
+   public static Matrix wrapRowPacked (float[] vals, int m, int n) {
+      return wrapRowPacked(vals,0,m,n,n);
+   }
+
+   /** Construct a matrix on a strided block of a row-packed array without copying.
+   @param vals   One-dimensional array of floats, packed by rows.
+   @param offset Index of element (0,0) in vals.
+   @param m      Number of rows.
+   @param n      Number of colums.
+   @param ld     Leading dimension, the distance between consecutive rows in vals.
+   @return       m-by-n matrix on vals
+   @exception  IllegalArgumentException Array length must be at least offset+(m-1)*ld+n.
+   @exception  IllegalArgumentException Leading dimension must be at least n.
+   @see        #wrapRowPacked(float[],int,int)
+   */
+
+   public static Matrix wrapRowPacked (float[] vals, int offset, int m, int n, int ld) {
+      if (m < 0 || n < 0 || ld < n) {
+         throw new IllegalArgumentException("Leading dimension must be at least n.");
+      }
+      if (offset < 0 || (m > 0 && offset+(long) (m-1)*ld+n > vals.length)) {
+         throw new IllegalArgumentException("Array length must be at least offset+(m-1)*ld+n.");
+      }
+      Matrix X = new Matrix(vals,offset,m,n,ld);
+      X.exposed = true;
+      return X;
+   }
+
+   /** Construct a matrix on a buffer packed by rows without copying.
+   <P>
+   Element (i,j) is read from and written to buf.get(buf.position()+i*n+j).
+   A direct buffer keeps the elements outside the Java heap; results of
+   arithmetic on buffer-backed matrices are allocated the same way.
+   The buffer is neither copied nor released by the matrix.
+   @param buf  Buffer of floats, packed by rows, starting at its position.
+   @param m    Number of rows.
+   @param n    Number of colums.
+   @return     m-by-n matrix on buf
+   @exception  IllegalArgumentException Buffer must hold at least m*n elements.
+   */
+
+   public static Matrix wrapRowPacked (FloatBuffer buf, int m, int n) {
+      checkBuffer(buf,m,n);
+      Matrix X = new Matrix(buf,false,buf.position(),m,n,n);
+      X.exposed = true;
+      return X;
+   }
+
+   /** Construct a matrix on a buffer packed by columns without copying.
+   <P>
+   Element (i,j) is read from and written to buf.get(buf.position()+i+j*m),
+   the layout of Fortran, LAPACK and most native libraries.  Row-oriented
+   operations read such a buffer with stride m.
+   @param buf  Buffer of floats, packed by columns, starting at its position.
+   @param m    Number of rows.
+   @param n    Number of colums.
+   @return     m-by-n matrix on buf
+   @exception  IllegalArgumentException Buffer must hold at least m*n elements.
+   @see        #wrapRowPacked(FloatBuffer,int,int)
+   */
+
+   public static Matrix wrapColumnPacked (FloatBuffer buf, int m, int n) {
+      checkBuffer(buf,m,n);
+      Matrix X = new Matrix(buf,true,buf.position(),m,n,m);
+      X.exposed = true;
+      return X;
+   }
+
+   /** Construct an m-by-n matrix of zeros in direct (off-heap) memory.
+   <P>
+   The elements are packed by rows in native byte order and do not count
+   towards the Java heap.f  Copies, results of arithmetic and the factors of
+   LU, QR and Cholesky decompositions of such a matrix are allocated the
+   same way.f  Call free() to release the memory as soon as the matrix is no
+   longer needed; otherwise it is released only when the matrix is garbage
+   collected.f  A buffer holds at most 2^31-1 elements.
+   @param m    Number of rows.
+   @param n    Number of colums.
+   @return     m-by-n buffer-backed matrix
+   @exception  IllegalArgumentException Matrix dimensions exceed the buffer capacity.
+   @see        #free
+   */
+
+   public static Matrix allocateDirect (int m, int n) {
+      if (m < 0 || n < 0 || (long) m*n > Integer.MAX_VALUE/4) {
+         throw new IllegalArgumentException("Matrix dimensions exceed the buffer capacity.");
+      }
+      ByteBuffer bytes = ByteBuffer.allocateDirect(4*m*n).order(ByteOrder.nativeOrder());
+      Matrix X = new Matrix(bytes.asFloatBuffer(),false,0,m,n,n);
+      X.owned = bytes;
+      return X;
+   }
+
+   /** Release the storage of a buffer-backed matrix.
+   <P>
+   Memory obtained from allocateDirect is released immediately; a wrapped
+   buffer is only detached and remains owned by the caller.f  Views of the
+   matrix throw an IllegalStateException when their elements are accessed
+   afterwards; freeing a view only detaches the view.f  The matrix itself
+   becomes 0-by-0.f  Matrices on arrays are emptied the same way and left to
+   the garbage collector; views of them keep the array.
+   */
+
+   public void free () {
+      ByteBuffer bytes = owned;
+      if (freed != null && !borrowed) {
+         freed[0] = true;
+      }
+      A = new float[0][0];
+      data = null;
+      buffer = null;
+      owned = null;
+      freed = null;
+      offset = ld = m = n = 0;
+      modified();
+      if (bytes != null) {
+         release(bytes);
+      }
+   }
+
+   /** Is the matrix stored in a one-dimensional row-packed array?
+   @return     true if the matrix was created by wrapRowPacked(float[],...)
+               or view, or derived from such a matrix.
+   */
+
+   public boolean isRowPacked () {
+      return A == null && buffer == null;
+   }
+
+   /** Is the matrix stored in a FloatBuffer?
+   @return     true if the matrix was created by allocateDirect,
+               wrapRowPacked(FloatBuffer,...) or wrapColumnPacked, or
+               derived from such a matrix.
+   */
+
+   public boolean isBufferBacked () {
+      return buffer != null;
+   }
+
+   /** Get a submatrix that shares storage with this matrix.
+   <P>
+   Changes to the view are visible in this matrix and vice versa.f  Views
+   can be taken of row-packed and buffer-backed matrices.
+   @param i0   Initial row index
+   @param i1   Final row index
+   @param j0   Initial column index
+   @param j1   Final column index
+   @return     A(i0:i1,j0:j1), sharing the storage of A
+   @exception  ArrayIndexOutOfBoundsException Submatrix indices
+   @exception  UnsupportedOperationException Matrix is stored in a two-dimensional array.
+   @see        #isRowPacked
+   @see        #isBufferBacked
+   */
+
+   public Matrix view (int i0, int i1, int j0, int j1) {
+      if (A != null) {
+         throw new UnsupportedOperationException("Matrix is stored in a two-dimensional array.");
+      }
+      checkSubmatrix(i0,i1,j0,j1);
+      Matrix X;
+      if (buffer != null) {
+         X = new Matrix(buffer,columnPacked,index(i0,j0),i1-i0+1,j1-j0+1,ld);
+         X.freed = freed;
+         X.borrowed = true;
+      } else {
+         X = new Matrix(data,offset+i0*ld+j0,i1-i0+1,j1-j0+1,ld);
+      }
+      X.version = counter();
+      X.exposed = exposed;
+      return X;
+   }
+
    /** Make a deep copy of a matrix
+   <P>
+   The copy of a buffer-backed matrix is held in direct memory, as if
+   allocated by allocateDirect.
    */
 
    public Matrix copy () {
-      Matrix X = new Matrix(m,n);
-      float[][] C = X.getArray();
+      Matrix X = like(m,n);
       for (int i = 0; i < m; i++) {
-         for (int j = 0; j < n; j++) {
-            C[i][j] = A[i][j];
-         }
+         copyRow(this,i,0,X,i,0,n);
       }
       return X;
    }
@@ -200,10 +488,23 @@ public class Matrix implements Cloneable, java.io.Serializable {
    }
 
    /** Access the internal two-dimensional array.
-   @return     Pointer to the two-dimensional array of matrix elements.
+   <P>
+   A row-packed or buffer-backed matrix has no two-dimensional array and
+   returns a new copy of its elements, as getArrayCopy() does; changes to
+   the copy are not seen by the matrix.f  Its storage, and the storage it
+   shares with its views and the array or buffer it was created on, is
+   left as it is.f  As the caller may change the elements through the
+   internal array, the matrix stops caching decompositions.
+   @return     Pointer to the two-dimensional array of matrix elements,
+               or a copy if the matrix is row-packed or buffer-backed.
    */
 
    public float[][] getArray () {
+      if (A == null) {
+         return getArrayCopy();
+      }
+      modified();
+      exposed = true;
       return A;
    }
 
@@ -214,9 +515,7 @@ public class Matrix implements Cloneable, java.io.Serializable {
    public float[][] getArrayCopy () {
       float[][] C = new float[m][n];
       for (int i = 0; i < m; i++) {
-         for (int j = 0; j < n; j++) {
-            C[i][j] = A[i][j];
-         }
+         getRow(i,0,C[i],0,n);
       }
       return C;
    }
@@ -227,9 +526,12 @@ public class Matrix implements Cloneable, java.io.Serializable {
 
    public float[] getColumnPackedCopy () {
       float[] vals = new float[m*n];
+      float[] t = scratch();
       for (int i = 0; i < m; i++) {
+         float[] Arowi = load(i,t);
+         int a = start(i,t);
          for (int j = 0; j < n; j++) {
-            vals[i+j*m] = A[i][j];
+            vals[i+j*m] = Arowi[a+j];
          }
       }
       return vals;
@@ -242,9 +544,7 @@ public class Matrix implements Cloneable, java.io.Serializable {
    public float[] getRowPackedCopy () {
       float[] vals = new float[m*n];
       for (int i = 0; i < m; i++) {
-         for (int j = 0; j < n; j++) {
-            vals[i*n+j] = A[i][j];
-         }
+         getRow(i,0,vals,i*n,n);
       }
       return vals;
    }
@@ -273,7 +573,14 @@ public class Matrix implements Cloneable, java.io.Serializable {
    */
 
    public float get (int i, int j) {
-      return A[i][j];
+      if (A != null) {
+         return A[i][j];
+      }
+      checkIndex(i,j);
+      if (buffer != null) {
+         return buffer.get(index(i,j));
+      }
+      return data[offset+i*ld+j];
    }
 
    /** Get a submatrix.
@@ -286,16 +593,10 @@ public class Matrix implements Cloneable, java.io.Serializable {
    */
 
    public Matrix getMatrix (int i0, int i1, int j0, int j1) {
-      Matrix X = new Matrix(i1-i0+1,j1-j0+1);
-      float[][] B = X.getArray();
-      try {
-         for (int i = i0; i <= i1; i++) {
-            for (int j = j0; j <= j1; j++) {
-               B[i-i0][j-j0] = A[i][j];
-            }
-         }
-      } catch(ArrayIndexOutOfBoundsException e) {
-         throw new ArrayIndexOutOfBoundsException("Submatrix indices");
+      checkSubmatrix(i0,i1,j0,j1);
+      Matrix X = like(i1-i0+1,j1-j0+1);
+      for (int i = i0; i <= i1; i++) {
+         copyRow(this,i,j0,X,i-i0,0,j1-j0+1);
       }
       return X;
    }
@@ -308,16 +609,17 @@ public class Matrix implements Cloneable, java.io.Serializable {
    */
 
    public Matrix getMatrix (int[] r, int[] c) {
-      Matrix X = new Matrix(r.length,c.length);
-      float[][] B = X.getArray();
-      try {
-         for (int i = 0; i < r.length; i++) {
-            for (int j = 0; j < c.length; j++) {
-               B[i][j] = A[r[i]][c[j]];
-            }
+      checkRows(r);
+      checkColumns(c);
+      Matrix X = like(r.length,c.length);
+      float[] t = scratch(), u = X.scratch();
+      for (int i = 0; i < r.length; i++) {
+         float[] Arowi = load(r[i],t), Browi = X.load(i,u);
+         int a = start(r[i],t), b = X.start(i,u);
+         for (int j = 0; j < c.length; j++) {
+            Browi[b+j] = Arowi[a+c[j]];
          }
-      } catch(ArrayIndexOutOfBoundsException e) {
-         throw new ArrayIndexOutOfBoundsException("Submatrix indices");
+         X.store(i,u);
       }
       return X;
    }
@@ -331,16 +633,17 @@ public class Matrix implements Cloneable, java.io.Serializable {
    */
 
    public Matrix getMatrix (int i0, int i1, int[] c) {
-      Matrix X = new Matrix(i1-i0+1,c.length);
-      float[][] B = X.getArray();
-      try {
-         for (int i = i0; i <= i1; i++) {
-            for (int j = 0; j < c.length; j++) {
-               B[i-i0][j] = A[i][c[j]];
-            }
+      checkSubmatrix(i0,i1,0,n-1);
+      checkColumns(c);
+      Matrix X = like(i1-i0+1,c.length);
+      float[] t = scratch(), u = X.scratch();
+      for (int i = i0; i <= i1; i++) {
+         float[] Arowi = load(i,t), Browi = X.load(i-i0,u);
+         int a = start(i,t), b = X.start(i-i0,u);
+         for (int j = 0; j < c.length; j++) {
+            Browi[b+j] = Arowi[a+c[j]];
          }
-      } catch(ArrayIndexOutOfBoundsException e) {
-         throw new ArrayIndexOutOfBoundsException("Submatrix indices");
+         X.store(i-i0,u);
       }
       return X;
    }
@@ -354,16 +657,11 @@ public class Matrix implements Cloneable, java.io.Serializable {
    */
 
    public Matrix getMatrix (int[] r, int j0, int j1) {
-      Matrix X = new Matrix(r.length,j1-j0+1);
-      float[][] B = X.getArray();
-      try {
-         for (int i = 0; i < r.length; i++) {
-            for (int j = j0; j <= j1; j++) {
-               B[i][j-j0] = A[r[i]][j];
-            }
-         }
-      } catch(ArrayIndexOutOfBoundsException e) {
-         throw new ArrayIndexOutOfBoundsException("Submatrix indices");
+      checkRows(r);
+      checkSubmatrix(0,m-1,j0,j1);
+      Matrix X = like(r.length,j1-j0+1);
+      for (int i = 0; i < r.length; i++) {
+         copyRow(this,r[i],j0,X,i,0,j1-j0+1);
       }
       return X;
    }
@@ -376,7 +674,17 @@ public class Matrix implements Cloneable, java.io.Serializable {
    */
 
    public void set (int i, int j, float s) {
-      A[i][j] = s;
+      modified();
+      if (A != null) {
+         A[i][j] = s;
+         return;
+      }
+      checkIndex(i,j);
+      if (buffer != null) {
+         buffer.put(index(i,j),s);
+         return;
+      }
+      data[offset+i*ld+j] = s;
    }
 
    /** Set a submatrix.
@@ -389,14 +697,10 @@ public class Matrix implements Cloneable, java.io.Serializable {
    */
 
    public void setMatrix (int i0, int i1, int j0, int j1, Matrix X) {
-      try {
-         for (int i = i0; i <= i1; i++) {
-            for (int j = j0; j <= j1; j++) {
-               A[i][j] = X.get(i-i0,j-j0);
-            }
-         }
-      } catch(ArrayIndexOutOfBoundsException e) {
-         throw new ArrayIndexOutOfBoundsException("Submatrix indices");
+      checkSubmatrix(i0,i1,j0,j1);
+      X.checkSubmatrix(0,i1-i0,0,j1-j0);
+      for (int i = i0; i <= i1; i++) {
+         copyRow(X,i-i0,0,this,i,j0,j1-j0+1);
       }
    }
 
@@ -408,14 +712,18 @@ public class Matrix implements Cloneable, java.io.Serializable {
    */
 
    public void setMatrix (int[] r, int[] c, Matrix X) {
-      try {
-         for (int i = 0; i < r.length; i++) {
-            for (int j = 0; j < c.length; j++) {
-               A[r[i]][c[j]] = X.get(i,j);
-            }
+      checkRows(r);
+      checkColumns(c);
+      X.checkSubmatrix(0,r.length-1,0,c.length-1);
+      modified();
+      float[] t = scratch(), u = X.scratch();
+      for (int i = 0; i < r.length; i++) {
+         float[] Arowi = load(r[i],t), Browi = X.load(i,u);
+         int a = start(r[i],t), b = X.start(i,u);
+         for (int j = 0; j < c.length; j++) {
+            Arowi[a+c[j]] = Browi[b+j];
          }
-      } catch(ArrayIndexOutOfBoundsException e) {
-         throw new ArrayIndexOutOfBoundsException("Submatrix indices");
+         store(r[i],t);
       }
    }
 
@@ -428,14 +736,11 @@ public class Matrix implements Cloneable, java.io.Serializable {
    */
 
    public void setMatrix (int[] r, int j0, int j1, Matrix X) {
-      try {
-         for (int i = 0; i < r.length; i++) {
-            for (int j = j0; j <= j1; j++) {
-               A[r[i]][j] = X.get(i,j-j0);
-            }
-         }
-      } catch(ArrayIndexOutOfBoundsException e) {
-         throw new ArrayIndexOutOfBoundsException("Submatrix indices");
+      checkRows(r);
+      checkSubmatrix(0,m-1,j0,j1);
+      X.checkSubmatrix(0,r.length-1,0,j1-j0);
+      for (int i = 0; i < r.length; i++) {
+         copyRow(X,i,0,this,r[i],j0,j1-j0+1);
       }
    }
 
@@ -448,14 +753,18 @@ public class Matrix implements Cloneable, java.io.Serializable {
    */
 
    public void setMatrix (int i0, int i1, int[] c, Matrix X) {
-      try {
-         for (int i = i0; i <= i1; i++) {
-            for (int j = 0; j < c.length; j++) {
-               A[i][c[j]] = X.get(i-i0,j);
-            }
+      checkSubmatrix(i0,i1,0,n-1);
+      checkColumns(c);
+      X.checkSubmatrix(0,i1-i0,0,c.length-1);
+      modified();
+      float[] t = scratch(), u = X.scratch();
+      for (int i = i0; i <= i1; i++) {
+         float[] Arowi = load(i,t), Browi = X.load(i-i0,u);
+         int a = start(i,t), b = X.start(i-i0,u);
+         for (int j = 0; j < c.length; j++) {
+            Arowi[a+c[j]] = Browi[b+j];
          }
-      } catch(ArrayIndexOutOfBoundsException e) {
-         throw new ArrayIndexOutOfBoundsException("Submatrix indices");
+         store(i,t);
       }
    }
 
@@ -464,28 +773,44 @@ public class Matrix implements Cloneable, java.io.Serializable {
    */
 
    public Matrix transpose () {
-      Matrix X = new Matrix(n,m);
-      float[][] C = X.getArray();
-      for (int i = 0; i < m; i++) {
-         for (int j = 0; j < n; j++) {
-            C[j][i] = A[i][j];
-         }
-      }
+      Matrix X = like(n,m);
+      transpose(X);
       return X;
    }
 
+   /** Matrix transpose into a given matrix, C = A'
+   @param C    n-by-m destination, not sharing storage with A
+   @return     C
+   @exception  IllegalArgumentException Matrix dimensions must agree.
+   @exception  IllegalArgumentException Destination overlaps an operand.
+   */
+
+   public Matrix transposeInto (Matrix C) {
+      if (C.m != n || C.n != m) {
+         throw new IllegalArgumentException("Matrix dimensions must agree.");
+      }
+      checkDestination(C,this,false);
+      transpose(C);
+      return C;
+   }
+
    /** One norm
    @return    maximum column sum.
    */
 
    public float norm1 () {
+      float[] s = new float[n];
+      float[] t = scratch();
+      for (int i = 0; i < m; i++) {
+         float[] Arowi = load(i,t);
+         int a = start(i,t);
+         for (int j = 0; j < n; j++) {
+            s[j] += Math.abs(Arowi[a+j]);
+         }
+      }
       float f = 0;
       for (int j = 0; j < n; j++) {
-         float s = 0;
-         for (int i = 0; i < m; i++) {
-            s += Math.abs(A[i][j]);
-         }
-         f = Math.max(f,s);
+         f = Math.max(f,s[j]);
       }
       return f;
    }
@@ -495,7 +820,7 @@ public class Matrix implements Cloneable, java.io.Serializable {
    */
 
    public float norm2 () {
-      return (new SingularValueDecomposition(this).norm2());
+      return cachedSVD().norm2();
    }
 
    /** Infinity norm
@@ -504,10 +829,13 @@ public class Matrix implements Cloneable, java.io.Serializable {
 
    public float normInf () {
       float f = 0;
+      float[] t = scratch();
       for (int i = 0; i < m; i++) {
+         float[] Arowi = load(i,t);
+         int a = start(i,t);
          float s = 0;
          for (int j = 0; j < n; j++) {
-            s += Math.abs(A[i][j]);
+            s += Math.abs(Arowi[a+j]);
          }
          f = Math.max(f,s);
       }
@@ -520,9 +848,12 @@ public class Matrix implements Cloneable, java.io.Serializable {
 
    public float normF () {
       float f = 0;
+      float[] t = scratch();
       for (int i = 0; i < m; i++) {
+         float[] Arowi = load(i,t);
+         int a = start(i,t);
          for (int j = 0; j < n; j++) {
-            f = Maths.hypot(f,A[i][j]);
+            f = Maths.hypot(f,Arowi[a+j]);
          }
       }
       return f;
@@ -533,13 +864,8 @@ public class Matrix implements Cloneable, java.io.Serializable {
    */
 
    public Matrix uminus () {
-      Matrix X = new Matrix(m,n);
-      float[][] C = X.getArray();
-      for (int i = 0; i < m; i++) {
-         for (int j = 0; j < n; j++) {
-            C[i][j] = -A[i][j];
-         }
-      }
+      Matrix X = like(m,n);
+      elementwise(NEGATE,null,0.0f,X);
       return X;
    }
 
@@ -550,13 +876,8 @@ public class Matrix implements Cloneable, java.io.Serializable {
 
    public Matrix plus (Matrix B) {
       checkMatrixDimensions(B);
-      Matrix X = new Matrix(m,n);
-      float[][] C = X.getArray();
-      for (int i = 0; i < m; i++) {
-         for (int j = 0; j < n; j++) {
-            C[i][j] = A[i][j] + B.A[i][j];
-         }
-      }
+      Matrix X = like(m,n);
+      elementwise(PLUS,B,0.0f,X);
       return X;
    }
 
@@ -567,11 +888,7 @@ public class Matrix implements Cloneable, java.io.Serializable {
 
    public Matrix plusEquals (Matrix B) {
       checkMatrixDimensions(B);
-      for (int i = 0; i < m; i++) {
-         for (int j = 0; j < n; j++) {
-            A[i][j] = A[i][j] + B.A[i][j];
-         }
-      }
+      elementwise(PLUS,B,0.0f,this);
       return this;
    }
 
@@ -582,13 +899,8 @@ public class Matrix implements Cloneable, java.io.Serializable {
 
    public Matrix minus (Matrix B) {
       checkMatrixDimensions(B);
-      Matrix X = new Matrix(m,n);
-      float[][] C = X.getArray();
-      for (int i = 0; i < m; i++) {
-         for (int j = 0; j < n; j++) {
-            C[i][j] = A[i][j] - B.A[i][j];
-         }
-      }
+      Matrix X = like(m,n);
+      elementwise(MINUS,B,0.0f,X);
       return X;
    }
 
@@ -599,11 +911,7 @@ public class Matrix implements Cloneable, java.io.Serializable {
 
    public Matrix minusEquals (Matrix B) {
       checkMatrixDimensions(B);
-      for (int i = 0; i < m; i++) {
-         for (int j = 0; j < n; j++) {
-            A[i][j] = A[i][j] - B.A[i][j];
-         }
-      }
+      elementwise(MINUS,B,0.0f,this);
       return this;
    }
 
@@ -614,13 +922,8 @@ public class Matrix implements Cloneable, java.io.Serializable {
 
    public Matrix arrayTimes (Matrix B) {
       checkMatrixDimensions(B);
-      Matrix X = new Matrix(m,n);
-      float[][] C = X.getArray();
-      for (int i = 0; i < m; i++) {
-         for (int j = 0; j < n; j++) {
-            C[i][j] = A[i][j] * B.A[i][j];
-         }
-      }
+      Matrix X = like(m,n);
+      elementwise(TIMES,B,0.0f,X);
       return X;
    }
 
@@ -631,11 +934,7 @@ public class Matrix implements Cloneable, java.io.Serializable {
 
    public Matrix arrayTimesEquals (Matrix B) {
       checkMatrixDimensions(B);
-      for (int i = 0; i < m; i++) {
-         for (int j = 0; j < n; j++) {
-            A[i][j] = A[i][j] * B.A[i][j];
-         }
-      }
+      elementwise(TIMES,B,0.0f,this);
       return this;
    }
 
@@ -646,13 +945,8 @@ public class Matrix implements Cloneable, java.io.Serializable {
 
    public Matrix arrayRightDivide (Matrix B) {
       checkMatrixDimensions(B);
-      Matrix X = new Matrix(m,n);
-      float[][] C = X.getArray();
-      for (int i = 0; i < m; i++) {
-         for (int j = 0; j < n; j++) {
-            C[i][j] = A[i][j] / B.A[i][j];
-         }
-      }
+      Matrix X = like(m,n);
+      elementwise(RIGHT_DIVIDE,B,0.0f,X);
       return X;
    }
 
@@ -663,11 +957,7 @@ public class Matrix implements Cloneable, java.io.Serializable {
 
    public Matrix arrayRightDivideEquals (Matrix B) {
       checkMatrixDimensions(B);
-      for (int i = 0; i < m; i++) {
-         for (int j = 0; j < n; j++) {
-            A[i][j] = A[i][j] / B.A[i][j];
-         }
-      }
+      elementwise(RIGHT_DIVIDE,B,0.0f,this);
       return this;
    }
 
@@ -678,13 +968,8 @@ public class Matrix implements Cloneable, java.io.Serializable {
 
    public Matrix arrayLeftDivide (Matrix B) {
       checkMatrixDimensions(B);
-      Matrix X = new Matrix(m,n);
-      float[][] C = X.getArray();
-      for (int i = 0; i < m; i++) {
-         for (int j = 0; j < n; j++) {
-            C[i][j] = B.A[i][j] / A[i][j];
-         }
-      }
+      Matrix X = like(m,n);
+      elementwise(LEFT_DIVIDE,B,0.0f,X);
       return X;
    }
 
@@ -695,11 +980,7 @@ public class Matrix implements Cloneable, java.io.Serializable {
 
    public Matrix arrayLeftDivideEquals (Matrix B) {
       checkMatrixDimensions(B);
-      for (int i = 0; i < m; i++) {
-         for (int j = 0; j < n; j++) {
-            A[i][j] = B.A[i][j] / A[i][j];
-         }
-      }
+      elementwise(LEFT_DIVIDE,B,0.0f,this);
       return this;
    }
 
@@ -709,13 +990,8 @@ public class Matrix implements Cloneable, java.io.Serializable {
    */
 
    public Matrix times (float s) {
-      Matrix X = new Matrix(m,n);
-      float[][] C = X.getArray();
-      for (int i = 0; i < m; i++) {
-         for (int j = 0; j < n; j++) {
-            C[i][j] = s*A[i][j];
-         }
-      }
+      Matrix X = like(m,n);
+      elementwise(SCALE,null,s,X);
       return X;
    }
 
@@ -725,96 +1001,469 @@ public class Matrix implements Cloneable, java.io.Serializable {
    */
 
    public Matrix timesEquals (float s) {
-      for (int i = 0; i < m; i++) {
-         for (int j = 0; j < n; j++) {
-            A[i][j] = s*A[i][j];
-         }
-      }
+      elementwise(SCALE,null,s,this);
       return this;
    }
 
    /** Linear algebraic matrix multiplication, A * B
+   <P>
+   Large products are split into tiles computed on the common ForkJoinPool.
    @param B    another matrix
    @return     Matrix product, A * B
    @exception  IllegalArgumentException Matrix inner dimensions must agree.
    */
 
    public Matrix times (Matrix B) {
-      if (B.m != n) {
-         throw new IllegalArgumentException("Matrix inner dimensions must agree.");
-      }
-      Matrix X = new Matrix(m,B.n);
-      float[][] C = X.getArray();
-      float[] Bcolj = new float[n];
-      for (int j = 0; j < B.n; j++) {
-         for (int k = 0; k < n; k++) {
-            Bcolj[k] = B.A[k][j];
-         }
-         for (int i = 0; i < m; i++) {
-            float[] Arowi = A[i];
-            float s = 0;
-            for (int k = 0; k < n; k++) {
-               s += Arowi[k]*Bcolj[k];
-            }
-            C[i][j] = s;
-         }
-      }
-      return X;
+      ForkJoinPool pool = ForkJoinPool.commonPool();
+      return times(B,pool,pool.getParallelism());
    }
 
-   /** LU Decomposition
-   @return     LUDecomposition
-   @see LUDecomposition
+   /** Linear algebraic matrix multiplication, A * B, on a given pool.
+   @param B    another matrix
+   @param pool pool that computes the tiles of large products
+   @return     Matrix product, A * B
+   @exception  IllegalArgumentException Matrix inner dimensions must agree.
    */
 
-   public LUDecomposition lu () {
-      return new LUDecomposition(this);
+   public Matrix times (Matrix B, ForkJoinPool pool) {
+      return times(B,pool,pool.getParallelism());
    }
 
-   /** QR Decomposition
-   @return     QRDecomposition
-   @see QRDecomposition
+   /** Linear algebraic matrix multiplication, A * B, with bounded parallelism.
+   @param B           another matrix
+   @param parallelism maximum number of tiles computed concurrently on the
+                      common ForkJoinPool; 1 multiplies on the calling thread.
+   @return            Matrix product, A * B
+   @exception  IllegalArgumentException Matrix inner dimensions must agree.
    */
 
-   public QRDecomposition qr () {
-      return new QRDecomposition(this);
+   public Matrix times (Matrix B, int parallelism) {
+      return times(B,ForkJoinPool.commonPool(),parallelism);
    }
 
-   /** Cholesky Decomposition
-   @return     CholeskyDecomposition
-   @see CholeskyDecomposition
+   /** Matrix-vector multiplication, y = A * x
+   <P>
+   Works on plain arrays and allocates nothing; each element of y is the
+   dot product of a row of A with x.
+   @param x    vector of length n
+   @param y    vector of length m, overwritten; must not be x
+   @return     y
+   @exception  IllegalArgumentException Vector dimensions must agree.
+   @exception  IllegalArgumentException Output vector must not be the input vector.
    */
 
-   public CholeskyDecomposition chol () {
-      return new CholeskyDecomposition(this);
+   public float[] times (float[] x, float[] y) {
+      checkVectors(x,n,y,m);
+      for (int i = 0; i < m; i++) {
+         if (buffer != null) {
+            float s = 0.0f;
+            for (int j = 0; j < n; j++) {
+               s += buffer.get(index(i,j))*x[j];
+            }
+            y[i] = s;
+         } else {
+            y[i] = Kernels.K.dot(row(i),base(i),x,0,n);
+         }
+      }
+      return y;
    }
 
-   /** Singular Value Decomposition
-   @return     SingularValueDecomposition
-   @see SingularValueDecomposition
+   /** Transposed matrix-vector multiplication, y = A' * x
+   <P>
+   Works on plain arrays and allocates nothing; the rows of A are streamed
+   once, each adding a multiple of itself to y.
+   @param x    vector of length m
+   @param y    vector of length n, overwritten; must not be x
+   @return     y
+   @exception  IllegalArgumentException Vector dimensions must agree.
+   @exception  IllegalArgumentException Output vector must not be the input vector.
    */
 
-   public SingularValueDecomposition svd () {
-      return new SingularValueDecomposition(this);
+   public float[] transposeTimes (float[] x, float[] y) {
+      checkVectors(x,m,y,n);
+      java.util.Arrays.fill(y,0.0f);
+      for (int i = 0; i < m; i++) {
+         if (buffer != null) {
+            for (int j = 0; j < n; j++) {
+               y[j] += buffer.get(index(i,j))*x[i];
+            }
+         } else {
+            Kernels.K.axpy(x[i],row(i),base(i),y,0,n);
+         }
+      }
+      return y;
    }
 
-   /** Eigenvalue Decomposition
-   @return     EigenvalueDecomposition
-   @see EigenvalueDecomposition
+   /** Matrix multiplication by the Strassen-Winograd algorithm, A * B
+   <P>
+   Uses seven instead of eight half-size products on each level of the
+   recursion, which pays off for large, roughly square products.  Blocks
+   smaller than 512 in any dimension are multiplied classically, so for
+   smaller operands this is the same as times(B).  The error bound is
+   normwise and somewhat larger than for times(B); see Higham, "Accuracy
+   and Stability of Numerical Algorithms", section 23.2.2.
+   @param B    another matrix
+   @return     Matrix product, A * B
+   @exception  IllegalArgumentException Matrix inner dimensions must agree.
    */
 
-   public EigenvalueDecomposition eig () {
-      return new EigenvalueDecomposition(this);
+   public Matrix timesStrassen (Matrix B) {
+      return timesStrassen(B,Strassen.CUTOFF);
    }
 
-   /** Solve A*X = B
-   @param B    right hand side
-   @return     solution if A is square, least squares solution otherwise
+   /** Matrix multiplication by the Strassen-Winograd algorithm with a given cutoff.
+   @param B       another matrix
+   @param cutoff  blocks with a dimension smaller than cutoff are multiplied
+                  classically; each level halves the dimensions.
+   @return        Matrix product, A * B
+   @exception  IllegalArgumentException Matrix inner dimensions must agree.
+   @exception  IllegalArgumentException Cutoff must be positive.
+   */
+
+   public Matrix timesStrassen (Matrix B, int cutoff) {
+      if (B.m != n) {
+         throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+      }
+      if (cutoff < 1) {
+         throw new IllegalArgumentException("Cutoff must be positive.");
+      }
+      Matrix X = like(m,B.n);
+      Strassen.multiply(this,B,X,cutoff);
+      return X;
+   }
+
+/* ------------------------
+   Arithmetic into a given matrix
+ * ------------------------ */
+
+   /* The following methods store their result in a destination matrix C
+      supplied by the caller instead of allocating a new one, so that the
+      same matrices can be reused across many operations.  C may have any
+      storage.  Element-wise operations allow C to be A or B itself, but
+      not to overlap either of them partially, for instance as a shifted
+      view; products and transposes require C to be distinct from the
+      operands.  Overlap is detected for matrices sharing an array or a
+      FloatBuffer object, not for different buffers over the same memory.
+   */
+
+   /** Unary minus into a given matrix, C = -A
+   @param C    m-by-n destination
+   @return     C
+   @exception  IllegalArgumentException Matrix dimensions must agree.
+   @exception  IllegalArgumentException Destination overlaps an operand.
+   */
+
+   public Matrix uminusInto (Matrix C) {
+      checkMatrixDimensions(C);
+      checkDestination(C,this,true);
+      elementwise(NEGATE,null,0.0f,C);
+      return C;
+   }
+
+   /** C = A + B into a given matrix
+   @param B    another matrix
+   @param C    m-by-n destination
+   @return     C
+   @exception  IllegalArgumentException Matrix dimensions must agree.
+   @exception  IllegalArgumentException Destination overlaps an operand.
+   */
+
+   public Matrix plusInto (Matrix B, Matrix C) {
+      checkElementwise(B,C);
+      elementwise(PLUS,B,0.0f,C);
+      return C;
+   }
+
+   /** C = A - B into a given matrix
+   @param B    another matrix
+   @param C    m-by-n destination
+   @return     C
+   @exception  IllegalArgumentException Matrix dimensions must agree.
+   @exception  IllegalArgumentException Destination overlaps an operand.
+   */
+
+   public Matrix minusInto (Matrix B, Matrix C) {
+      checkElementwise(B,C);
+      elementwise(MINUS,B,0.0f,C);
+      return C;
+   }
+
+   /** Element-by-element multiplication into a given matrix, C = A.*B
+   @param B    another matrix
+   @param C    m-by-n destination
+   @return     C
+   @exception  IllegalArgumentException Matrix dimensions must agree.
+   @exception  IllegalArgumentException Destination overlaps an operand.
+   */
+
+   public Matrix arrayTimesInto (Matrix B, Matrix C) {
+      checkElementwise(B,C);
+      elementwise(TIMES,B,0.0f,C);
+      return C;
+   }
+
+   /** Element-by-element right division into a given matrix, C = A./B
+   @param B    another matrix
+   @param C    m-by-n destination
+   @return     C
+   @exception  IllegalArgumentException Matrix dimensions must agree.
+   @exception  IllegalArgumentException Destination overlaps an operand.
+   */
+
+   public Matrix arrayRightDivideInto (Matrix B, Matrix C) {
+      checkElementwise(B,C);
+      elementwise(RIGHT_DIVIDE,B,0.0f,C);
+      return C;
+   }
+
+   /** Element-by-element left division into a given matrix, C = A.f\B
+   @param B    another matrix
+   @param C    m-by-n destination
+   @return     C
+   @exception  IllegalArgumentException Matrix dimensions must agree.
+   @exception  IllegalArgumentException Destination overlaps an operand.
+   */
+
+   public Matrix arrayLeftDivideInto (Matrix B, Matrix C) {
+      checkElementwise(B,C);
+      elementwise(LEFT_DIVIDE,B,0.0f,C);
+      return C;
+   }
+
+   /** Multiply a matrix by a scalar into a given matrix, C = s*A
+   @param s    scalar
+   @param C    m-by-n destination
+   @return     C
+   @exception  IllegalArgumentException Matrix dimensions must agree.
+   @exception  IllegalArgumentException Destination overlaps an operand.
+   */
+
+   public Matrix timesInto (float s, Matrix C) {
+      checkMatrixDimensions(C);
+      checkDestination(C,this,true);
+      elementwise(SCALE,null,s,C);
+      return C;
+   }
+
+   /** Linear algebraic matrix multiplication into a given matrix, C = A * B
+   <P>
+   Large products are split into tiles computed on the common ForkJoinPool.
+   @param B    another matrix
+   @param C    m-by-B.n destination, not sharing storage with A or B
+   @return     C
+   @exception  IllegalArgumentException Matrix inner dimensions must agree.
+   @exception  IllegalArgumentException Matrix dimensions must agree.
+   @exception  IllegalArgumentException Destination overlaps an operand.
+   */
+
+   public Matrix timesInto (Matrix B, Matrix C) {
+      ForkJoinPool pool = ForkJoinPool.commonPool();
+      return timesInto(B,C,pool,pool.getParallelism());
+   }
+
+   /** Linear algebraic matrix multiplication into a given matrix, C = A * B,
+       on a given pool.
+   @param B    another matrix
+   @param C    m-by-B.n destination, not sharing storage with A or B
+   @param pool pool that computes the tiles of large products
+   @return     C
+   @exception  IllegalArgumentException Matrix inner dimensions must agree.
+   @exception  IllegalArgumentException Matrix dimensions must agree.
+   @exception  IllegalArgumentException Destination overlaps an operand.
+   */
+
+   public Matrix timesInto (Matrix B, Matrix C, ForkJoinPool pool) {
+      return timesInto(B,C,pool,pool.getParallelism());
+   }
+
+   /** Linear algebraic matrix multiplication into a given matrix, C = A * B,
+       with bounded parallelism.
+   @param B           another matrix
+   @param C           m-by-B.n destination, not sharing storage with A or B
+   @param parallelism maximum number of tiles computed concurrently on the
+                      common ForkJoinPool; 1 multiplies on the calling thread.
+   @return            C
+   @exception  IllegalArgumentException Matrix inner dimensions must agree.
+   @exception  IllegalArgumentException Matrix dimensions must agree.
+   @exception  IllegalArgumentException Destination overlaps an operand.
+   */
+
+   public Matrix timesInto (Matrix B, Matrix C, int parallelism) {
+      return timesInto(B,C,ForkJoinPool.commonPool(),parallelism);
+   }
+
+   /** General matrix multiplication, C = alpha*op(A)*op(B) + beta*C
+   <P>
+   op(X) is X or its transpose X'.  Transposed operands are read in place
+   and the scaling and accumulation are applied while multiplying, so no
+   temporary matrices are formed.  If beta is zero, C is overwritten and
+   its previous contents, including NaN, are ignored.f  beta is applied as
+   the product is written to C, not in a pass of its own.
+   Large products are split into tiles computed on the common ForkJoinPool.
+   @param transA  use A' instead of A
+   @param transB  use B' instead of B
+   @param alpha   scalar multiplying the product
+   @param A       left operand
+   @param B       right operand
+   @param beta    scalar multiplying C
+   @param C       destination, not sharing storage with A or B
+   @return        C
+   @exception  IllegalArgumentException Matrix inner dimensions must agree.
+   @exception  IllegalArgumentException Matrix dimensions must agree.
+   @exception  IllegalArgumentException Destination overlaps an operand.
+   */
+
+   public static Matrix gemm (boolean transA, boolean transB, float alpha,
+                              Matrix A, Matrix B, float beta, Matrix C) {
+      ForkJoinPool pool = ForkJoinPool.commonPool();
+      return gemm(transA,transB,alpha,A,B,beta,C,pool,pool.getParallelism());
+   }
+
+   /** General matrix multiplication, C = alpha*op(A)*op(B) + beta*C, on a
+       given pool.
+   @param transA  use A' instead of A
+   @param transB  use B' instead of B
+   @param alpha   scalar multiplying the product
+   @param A       left operand
+   @param B       right operand
+   @param beta    scalar multiplying C
+   @param C       destination, not sharing storage with A or B
+   @param pool    pool that computes the tiles of large products
+   @return        C
+   @exception  IllegalArgumentException Matrix inner dimensions must agree.
+   @exception  IllegalArgumentException Matrix dimensions must agree.
+   @exception  IllegalArgumentException Destination overlaps an operand.
+   @see        #gemm(boolean,boolean,float,Matrix,Matrix,float,Matrix)
+   */
+
+   public static Matrix gemm (boolean transA, boolean transB, float alpha,
+                              Matrix A, Matrix B, float beta, Matrix C,
+                              ForkJoinPool pool) {
+      return gemm(transA,transB,alpha,A,B,beta,C,pool,pool.getParallelism());
+   }
+
+   /** General matrix multiplication, C = alpha*op(A)*op(B) + beta*C, with
+       bounded parallelism.
+   @param transA      use A' instead of A
+   @param transB      use B' instead of B
+   @param alpha       scalar multiplying the product
+   @param A           left operand
+   @param B           right operand
+   @param beta        scalar multiplying C
+   @param C           destination, not sharing storage with A or B
+   @param parallelism maximum number of tiles computed concurrently on the
+                      common ForkJoinPool; 1 multiplies on the calling thread.
+   @return            C
+   @exception  IllegalArgumentException Matrix inner dimensions must agree.
+   @exception  IllegalArgumentException Matrix dimensions must agree.
+   @exception  IllegalArgumentException Destination overlaps an operand.
+   @see        #gemm(boolean,boolean,float,Matrix,Matrix,float,Matrix)
+   */
+
+   public static Matrix gemm (boolean transA, boolean transB, float alpha,
+                              Matrix A, Matrix B, float beta, Matrix C,
+                              int parallelism) {
+      return gemm(transA,transB,alpha,A,B,beta,C,ForkJoinPool.commonPool(),parallelism);
+   }
+
+   /** LU Decomposition
+   @return     LUDecomposition
+   @see LUDecomposition
+   */
+
+   public LUDecomposition lu () {
+      return new LUDecomposition(this);
+   }
+
+   /** QR Decomposition
+   @return     QRDecomposition
+   @see QRDecomposition
+   */
+
+   public QRDecomposition qr () {
+      return new QRDecomposition(this);
+   }
+
+   /** QR Decomposition with column pivoting
+   @return     PivotedQRDecomposition
+   @see PivotedQRDecomposition
+   */
+
+   public PivotedQRDecomposition qrp () {
+      return new PivotedQRDecomposition(this);
+   }
+
+   /** Cholesky Decomposition
+   @return     CholeskyDecomposition
+   @see CholeskyDecomposition
+   */
+
+   public CholeskyDecomposition chol () {
+      return new CholeskyDecomposition(this);
+   }
+
+   /** Singular Value Decomposition
+   @return     SingularValueDecomposition
+   @see SingularValueDecomposition
+   */
+
+   public SingularValueDecomposition svd () {
+      return new SingularValueDecomposition(this);
+   }
+
+   /** Eigenvalue Decomposition
+   @return     EigenvalueDecomposition
+   @see EigenvalueDecomposition
+   */
+
+   public EigenvalueDecomposition eig () {
+      return new EigenvalueDecomposition(this);
+   }
+
+   /** Solve A*X = B
+   @param B    right hand side
+   @return     solution if A is square, least squares solution otherwise
    */
 
    public Matrix solve (Matrix B) {
-      return (m == n ? (new LUDecomposition(this)).solve(B) :
-                       (new QRDecomposition(this)).solve(B));
+      return (m == n ? cachedLU().solve(B) : cachedQR().solve(B));
+   }
+
+   /** Solve A*X = B to double precision accuracy with float factors
+   <P>
+   Uses the LU decomposition of A in float and refines the solution with
+   residuals computed in double; see IterativeRefinement.
+   @param B    right hand side in double precision
+   @return     IterativeRefinement holding the solution
+   @exception  IllegalArgumentException Matrix must be square.
+   @exception  RuntimeException  Matrix is singular.
+   */
+
+   public IterativeRefinement solveRefined (double[][] B) {
+      if (m != n) {
+         throw new IllegalArgumentException("Matrix must be square.");
+      }
+      return new IterativeRefinement(this,cachedLU(),B);
+   }
+
+   /** Solve A*X = B to double precision accuracy with float factors
+   @param B    right hand side
+   @return     IterativeRefinement holding the solution
+   @exception  IllegalArgumentException Matrix must be square.
+   @exception  RuntimeException  Matrix is singular.
+   @see        #solveRefined(double[][])
+   */
+
+   public IterativeRefinement solveRefined (Matrix B) {
+      float[][] Bf = B.getArrayCopy();
+      double[][] Bd = new double[Bf.length][];
+      for (int i = 0; i < Bf.length; i++) {
+         Bd[i] = new double[Bf[i].length];
+         for (int j = 0; j < Bf[i].length; j++) {
+            Bd[i][j] = Bf[i][j];
+         }
+      }
+      return solveRefined(Bd);
    }
 
    /** Solve X*A = B, which is also A'*X' = B'
@@ -827,11 +1476,14 @@ public class Matrix implements Cloneable, java.io.Serializable {
    }
 
    /** Matrix inverse or pseudoinverse
+   <P>
+   The inverse of a square matrix is computed directly from its LU
+   factors, see LUDecomposition.inverse().
    @return     inverse(A) if A is square, pseudoinverse otherwise.
    */
 
    public Matrix inverse () {
-      return solve(identity(m,m));
+      return (m == n ? cachedLU().inverse() : solve(identity(m,m)));
    }
 
    /** Matrix determinant
@@ -839,15 +1491,18 @@ public class Matrix implements Cloneable, java.io.Serializable {
    */
 
    public float det () {
-      return new LUDecomposition(this).det();
+      return cachedLU().det();
    }
 
    /** Matrix rank
+   <P>
+   qrp().rank() estimates the rank from a pivoted QR decomposition, which
+   is much cheaper than the SVD and usually gives the same result.
    @return     effective numerical rank, obtained from SVD.
    */
 
    public int rank () {
-      return new SingularValueDecomposition(this).rank();
+      return cachedSVD().rank();
    }
 
    /** Matrix condition (2 norm)
@@ -855,7 +1510,7 @@ public class Matrix implements Cloneable, java.io.Serializable {
    */
 
    public float cond () {
-      return new SingularValueDecomposition(this).cond();
+      return cachedSVD().cond();
    }
 
    /** Matrix trace.
@@ -865,7 +1520,7 @@ public class Matrix implements Cloneable, java.io.Serializable {
    public float trace () {
       float t = 0;
       for (int i = 0; i < Math.min(m,n); i++) {
-         t += A[i][i];
+         t += get(i,i);
       }
       return t;
    }
@@ -878,7 +1533,7 @@ public class Matrix implements Cloneable, java.io.Serializable {
 
    public static Matrix random (int m, int n) {
       Matrix A = new Matrix(m,n);
-      float[][] X = A.getArray();
+      float[][] X = A.A;
       for (int i = 0; i < m; i++) {
          for (int j = 0; j < n; j++) {
             X[i][j] = (float)Math.random();
@@ -895,7 +1550,7 @@ public class Matrix implements Cloneable, java.io.Serializable {
 
    public static Matrix identity (int m, int n) {
       Matrix A = new Matrix(m,n);
-      float[][] X = A.getArray();
+      float[][] X = A.A;
       for (int i = 0; i < m; i++) {
          for (int j = 0; j < n; j++) {
             X[i][j] = (i == j ? 1.0f : 0.0f);
@@ -964,7 +1619,7 @@ public class Matrix implements Cloneable, java.io.Serializable {
       output.println();  // start on new line.
       for (int i = 0; i < m; i++) {
          for (int j = 0; j < n; j++) {
-            String s = format.format(A[i][j]); // format the number
+            String s = format.format(get(i,j)); // format the number
             int padding = Math.max(1,width-s.length()); // At _least_ 1 space
             for (int k = 0; k < padding; k++)
                output.print(' ');
@@ -1031,10 +1686,544 @@ public class Matrix implements Cloneable, java.io.Serializable {
    }
 
 
+/* ------------------------
+   Package Methods
+ * ------------------------ */
+
+   // Loops over the elements address row i as row(i)[base(i)+j], which
+   // covers both the two-dimensional and the row-packed storage.  Rows of
+   // buffer-backed matrices have no array and are copied with getRow and
+   // setRow instead, staged one at a time with scratch, load and store, or
+   // as blocks with stage and unstage.
+
+   /** Array holding the elements of row i, not for buffer-backed matrices.
+   @param i    Row index, not checked.
+   @return     A[i], or the row-packed array.
+   */
+
+   final float[] row (int i) {
+      return (A != null ? A[i] : data);
+   }
+
+   /** Index of element (i,0) in row(i).
+   @param i    Row index, not checked.
+   @return     0, or the position of the row in the row-packed array.
+   */
+
+   final int base (int i) {
+      return (A != null ? 0 : offset+i*ld);
+   }
+
+   /** Construct an m-by-n matrix of zeros with the same kind of storage.
+   @param m    Number of rows.
+   @param n    Number of colums.
+   @return     two-dimensional m-by-n matrix, row-packed if this matrix
+               is row-packed, or in direct memory if it is buffer-backed
+               and m*n fits into a direct buffer
+   */
+
+   Matrix like (int m, int n) {
+      if (buffer != null && (long) m*n <= Integer.MAX_VALUE/4) {
+         return allocateDirect(m,n);
+      }
+      return (A != null ? new Matrix(m,n) : new Matrix(new float[m*n],0,m,n,n));
+   }
+
+   /** Copy a block into a row-packed array on the heap, where algorithms
+       that address rows as arrays can work on a block of a buffer-backed
+       matrix.
+   @param i0   Initial row index, not checked.
+   @param i1   Final row index plus one, not checked.
+   @param j0   Initial column index, not checked.
+   @param j1   Final column index plus one, not checked.
+   @return     A(i0:i1-1,j0:j1-1), row-packed
+   */
+
+   Matrix stage (int i0, int i1, int j0, int j1) {
+      int w = j1-j0;
+      Matrix X = new Matrix(new float[(i1-i0)*w],0,i1-i0,w,w);
+      for (int i = i0; i < i1; i++) {
+         getRow(i,j0,X.data,(i-i0)*w,w);
+      }
+      return X;
+   }
+
+   /** Copy a block staged by stage back.
+   @param X    Staged block.
+   @param i0   Row index of its element (0,0), not checked.
+   @param j0   Column index of its element (0,0), not checked.
+   */
+
+   void unstage (Matrix X, int i0, int j0) {
+      for (int i = 0; i < X.m; i++) {
+         copyRow(X,i,0,this,i0+i,j0,X.n);
+      }
+   }
+
+   /** Copy A(i,j0:j0+len-1) into dst[d:d+len-1].
+   @param i    Row index, not checked.
+   @param j0   Initial column index, not checked.
+   @param dst  Destination array.
+   @param d    Destination index.
+   @param len  Number of elements.
+   */
+
+   void getRow (int i, int j0, float[] dst, int d, int len) {
+      if (buffer == null) {
+         System.arraycopy(row(i),base(i)+j0,dst,d,len);
+      } else if (!columnPacked) {
+         FloatBuffer b = buffer.duplicate();
+         b.position(index(i,j0));
+         b.get(dst,d,len);
+      } else {
+         for (int j = 0, k = index(i,j0); j < len; j++, k += ld) {
+            dst[d+j] = buffer.get(k);
+         }
+      }
+   }
+
+   /** Copy src[s:s+len-1] into A(i,j0:j0+len-1).
+   @param i    Row index, not checked.
+   @param j0   Initial column index, not checked.
+   @param src  Source array.
+   @param s    Source index.
+   @param len  Number of elements.
+   */
+
+   void setRow (int i, int j0, float[] src, int s, int len) {
+      modified();
+      if (buffer == null) {
+         System.arraycopy(src,s,row(i),base(i)+j0,len);
+      } else if (!columnPacked) {
+         FloatBuffer b = buffer.duplicate();
+         b.position(index(i,j0));
+         b.put(src,s,len);
+      } else {
+         for (int j = 0, k = index(i,j0); j < len; j++, k += ld) {
+            buffer.put(k,src[s+j]);
+         }
+      }
+   }
+
+   /** Scratch row for staging a buffer-backed matrix, otherwise null. **/
+
+   float[] scratch () {
+      return (buffer != null ? new float[n] : null);
+   }
+
+   /** Array holding row i, staged into the scratch row t if there is one. **/
+
+   float[] load (int i, float[] t) {
+      if (t == null) {
+         return row(i);
+      }
+      getRow(i,0,t,0,n);
+      return t;
+   }
+
+   /** Index of element (i,0) in the array returned by load. **/
+
+   int start (int i, float[] t) {
+      return (t == null ? base(i) : 0);
+   }
+
+   /** Write a staged row back, if there is one. **/
+
+   void store (int i, float[] t) {
+      if (t != null) {
+         setRow(i,0,t,0,n);
+      }
+   }
+
+   /** Copy S(si,sj:sj+len-1) into D(di,dj:dj+len-1) for any kind of storage. **/
+
+   static void copyRow (Matrix S, int si, int sj, Matrix D, int di, int dj, int len) {
+      D.modified();
+      if (D.buffer == null) {
+         S.getRow(si,sj,D.row(di),D.base(di)+dj,len);
+      } else if (S.buffer == null) {
+         D.setRow(di,dj,S.row(si),S.base(si)+sj,len);
+      } else {
+         float[] t = new float[len];
+         S.getRow(si,sj,t,0,len);
+         D.setRow(di,dj,t,0,len);
+      }
+   }
+
+   /** Note a change of the elements that did not go through set, setRow,
+       copyRow or the arithmetic methods, which call this themselves. **/
+
+   void modified () {
+      if (version != null) {
+         version[0]++;
+      }
+   }
+
 /* ------------------------
    Private Methods
  * ------------------------ */
 
+   /** Modification counter, created on first use. **/
+
+   private int[] counter () {
+      if (version == null) {
+         version = new int[1];
+      }
+      return version;
+   }
+
+   /** The cached decompositions if the matrix has not changed since they
+       were computed, or none.  Not called for an exposed matrix, which
+       never caches. **/
+
+   private Decompositions current () {
+      int v = counter()[0];
+      Decompositions c = cache;
+      return (c != null && c.version == v ? c : new Decompositions(v,null,null,null));
+   }
+
+   private LUDecomposition cachedLU () {
+      if (exposed) {
+         return new LUDecomposition(this);
+      }
+      Decompositions c = current();
+      if (c.lu == null) {
+         c = new Decompositions(c.version,new LUDecomposition(this),c.qr,c.svd);
+         cache = c;
+      }
+      return c.lu;
+   }
+
+   private QRDecomposition cachedQR () {
+      if (exposed) {
+         return new QRDecomposition(this);
+      }
+      Decompositions c = current();
+      if (c.qr == null) {
+         c = new Decompositions(c.version,c.lu,new QRDecomposition(this),c.svd);
+         cache = c;
+      }
+      return c.qr;
+   }
+
+   private SingularValueDecomposition cachedSVD () {
+      if (exposed) {
+         return new SingularValueDecomposition(this);
+      }
+      Decompositions c = current();
+      if (c.svd == null) {
+         c = new Decompositions(c.version,c.lu,c.qr,new SingularValueDecomposition(this));
+         cache = c;
+      }
+      return c.svd;
+   }
+
+   /** Decompositions of the matrix at one value of the modification
+       counter, any of which may be null. **/
+
+   private static final class Decompositions {
+      final int version;
+      final LUDecomposition lu;
+      final QRDecomposition qr;
+      final SingularValueDecomposition svd;
+
+      Decompositions (int version, LUDecomposition lu, QRDecomposition qr, SingularValueDecomposition svd) {
+         this.version = version;
+         this.lu = lu;
+         this.qr = qr;
+         this.svd = svd;
+      }
+   }
+
+   /** Element-by-element operations applied by elementwise. **/
+
+   private static final int PLUS = 0, MINUS = 1, TIMES = 2, RIGHT_DIVIDE = 3,
+                            LEFT_DIVIDE = 4, SCALE = 5, NEGATE = 6;
+
+   /** C = A op B, or C = op(s,A) for the unary operations.  C may be A
+       itself, and rows of buffer-backed operands are staged through
+       scratch arrays. **/
+
+   private void elementwise (int op, Matrix B, float s, Matrix C) {
+      C.modified();
+      float[] t = scratch(), u = (B != null ? B.scratch() : null);
+      float[] v = (C == this ? t : C.scratch());
+      for (int i = 0; i < m; i++) {
+         float[] Arowi = load(i,t);
+         int a = start(i,t);
+         float[] Browi = (B != null ? B.load(i,u) : null);
+         int b = (B != null ? B.start(i,u) : 0);
+         float[] Crowi = (v != null ? v : C.row(i));
+         int c = (v != null ? 0 : C.base(i));
+         switch (op) {
+            case PLUS:
+               Kernels.K.add(Arowi,a,Browi,b,Crowi,c,n);
+               break;
+            case MINUS:
+               Kernels.K.sub(Arowi,a,Browi,b,Crowi,c,n);
+               break;
+            case TIMES:
+               Kernels.K.mul(Arowi,a,Browi,b,Crowi,c,n);
+               break;
+            case RIGHT_DIVIDE:
+               Kernels.K.div(Arowi,a,Browi,b,Crowi,c,n);
+               break;
+            case LEFT_DIVIDE:
+               Kernels.K.div(Browi,b,Arowi,a,Crowi,c,n);
+               break;
+            case SCALE:
+               Kernels.K.scale(s,Arowi,a,Crowi,c,n);
+               break;
+            default:
+               Kernels.K.negate(Arowi,a,Crowi,c,n);
+         }
+         C.store(i,v);
+      }
+   }
+
+   /** Buffer index of element (i,j).  Every access to the buffer goes
+       through here, so this is where a view of a freed matrix fails. **/
+
+   private int index (int i, int j) {
+      if (freed[0]) {
+         throw new IllegalStateException("Matrix storage has been freed.");
+      }
+      return (columnPacked ? offset+j*ld+i : offset+i*ld+j);
+   }
+
+   /** Check that a buffer holds an m-by-n matrix from its position on. **/
+
+   private static void checkBuffer (FloatBuffer buf, int m, int n) {
+      if (m < 0 || n < 0 || (long) m*n > buf.remaining()) {
+         throw new IllegalArgumentException("Buffer must hold at least m*n elements.");
+      }
+   }
+
+   /** Release direct memory now rather than when the buffer is collected. **/
+
+   private static void release (ByteBuffer bytes) {
+      try {
+         // Java 9 and later.
+         Class<?> unsafe = Class.forName("sun.misc.Unsafe");
+         java.lang.reflect.Field theUnsafe = unsafe.getDeclaredField("theUnsafe");
+         theUnsafe.setAccessible(true);
+         unsafe.getMethod("invokeCleaner",ByteBuffer.class).invoke(theUnsafe.get(null),bytes);
+      } catch (Exception e) {
+         try {
+            // Java 8.
+            java.lang.reflect.Method cleaner = bytes.getClass().getMethod("cleaner");
+            cleaner.setAccessible(true);
+            Object c = cleaner.invoke(bytes);
+            c.getClass().getMethod("clean").invoke(c);
+         } catch (Exception e1) {
+            // Leave the memory to the garbage collector.
+         }
+      }
+   }
+
+   /** Serialize buffer-backed matrices as row-packed copies. **/
+
+   private Object writeReplace () {
+      return (buffer != null ? stage(0,m,0,n) : this);
+   }
+
+   /** Matrix product computed by at most parallelism tiles on pool. **/
+
+   private Matrix times (Matrix B, ForkJoinPool pool, int parallelism) {
+      if (B.m != n) {
+         throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+      }
+      Matrix X = like(m,B.n);
+      Gemm.gemm(m,B.n,n,this,0,0,B,0,0,X,0,0,pool,parallelism);
+      return X;
+   }
+
+   /** General matrix multiplication computed by at most parallelism tiles
+       on pool. **/
+
+   private static Matrix gemm (boolean transA, boolean transB, float alpha,
+                               Matrix A, Matrix B, float beta, Matrix C,
+                               ForkJoinPool pool, int parallelism) {
+      int m = (transA ? A.n : A.m), k = (transA ? A.m : A.n);
+      int n = (transB ? B.m : B.n);
+      if ((transB ? B.n : B.m) != k) {
+         throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+      }
+      if (C.m != m || C.n != n) {
+         throw new IllegalArgumentException("Matrix dimensions must agree.");
+      }
+      checkDestination(C,A,false);
+      checkDestination(C,B,false);
+      C.modified();
+      Gemm.gemm(transA,transB,m,n,k,alpha,A,0,0,B,0,0,beta,C,0,0,pool,parallelism);
+      return C;
+   }
+
+   /** Matrix product into C computed by at most parallelism tiles on pool. **/
+
+   private Matrix timesInto (Matrix B, Matrix C, ForkJoinPool pool, int parallelism) {
+      if (B.m != n) {
+         throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+      }
+      if (C.m != m || C.n != B.n) {
+         throw new IllegalArgumentException("Matrix dimensions must agree.");
+      }
+      return gemm(false,false,1.0f,this,B,0.0f,C,pool,parallelism);
+   }
+
+   /** Store the transpose of A in X. **/
+
+   private void transpose (Matrix X) {
+      X.modified();
+      float[] t = scratch();
+      for (int i = 0; i < m; i++) {
+         float[] Arowi = load(i,t);
+         int a = start(i,t);
+         if (X.buffer != null) {
+            for (int j = 0; j < n; j++) {
+               X.buffer.put(X.index(j,i),Arowi[a+j]);
+            }
+         } else {
+            for (int j = 0; j < n; j++) {
+               X.row(j)[X.base(j)+i] = Arowi[a+j];
+            }
+         }
+      }
+   }
+
+   /** Set all elements to zero. **/
+
+   void clear () {
+      modified();
+      float[] t = scratch();
+      if (t != null) {
+         for (int i = 0; i < m; i++) {
+            setRow(i,0,t,0,n);
+         }
+      } else {
+         for (int i = 0; i < m; i++) {
+            java.util.Arrays.fill(row(i),base(i),base(i)+n,0.0f);
+         }
+      }
+   }
+
+   /** Check the input and output vectors of a matrix-vector product. **/
+
+   private static void checkVectors (float[] x, int nx, float[] y, int ny) {
+      if (x.length != nx || y.length != ny) {
+         throw new IllegalArgumentException("Vector dimensions must agree.");
+      }
+      if (x == y) {
+         throw new IllegalArgumentException("Output vector must not be the input vector.");
+      }
+   }
+
+   /** Check the operand and destination of an element-wise operation. **/
+
+   private void checkElementwise (Matrix B, Matrix C) {
+      checkMatrixDimensions(B);
+      checkMatrixDimensions(C);
+      checkDestination(C,this,true);
+      checkDestination(C,B,true);
+   }
+
+   /** Check that C does not share storage with the operand X, other than
+       holding exactly the same elements if same is allowed. **/
+
+   private static void checkDestination (Matrix C, Matrix X, boolean same) {
+      if (same && C.sameStorage(X)) {
+         return;
+      }
+      if (C.overlaps(X)) {
+         throw new IllegalArgumentException("Destination overlaps an operand.");
+      }
+   }
+
+   /** True if X keeps each element (i,j) in the same place as this matrix. **/
+
+   private boolean sameStorage (Matrix X) {
+      if (X == this) {
+         return true;
+      }
+      if (X.m != m || X.n != n) {
+         return false;
+      }
+      if (A != null) {
+         return A == X.A;
+      }
+      return (data != null ? data == X.data : buffer == X.buffer && columnPacked == X.columnPacked)
+          && offset == X.offset && (ld == X.ld || m <= 1);
+   }
+
+   /** True if this matrix and X may share elements. **/
+
+   private boolean overlaps (Matrix X) {
+      if (m == 0 || n == 0 || X.m == 0 || X.n == 0) {
+         return false;
+      }
+      if (X == this) {
+         return true;
+      }
+      if (A != null || X.A != null) {
+         return A == X.A;
+      }
+      if (data != null ? data != X.data : buffer != X.buffer) {
+         return false;
+      }
+      int len = (columnPacked ? m : n), xlen = (X.columnPacked ? X.m : X.n);
+      if (ld == X.ld && columnPacked == X.columnPacked
+          && offset%ld+len <= ld && X.offset%ld+xlen <= ld) {
+         // Blocks of the same array:  compare the ranges of lines and of
+         // elements within a line, so that side-by-side views are disjoint.
+         int lines = (columnPacked ? n : m), xlines = (X.columnPacked ? X.n : X.m);
+         return offset/ld < X.offset/ld+xlines && X.offset/ld < offset/ld+lines
+             && offset%ld < X.offset%ld+xlen && X.offset%ld < offset%ld+len;
+      }
+      return offset < X.offset+X.extent() && X.offset < offset+extent();
+   }
+
+   /** Number of storage elements between the first and the last element. **/
+
+   private int extent () {
+      return (columnPacked ? (n-1)*ld+m : (m-1)*ld+n);
+   }
+
+   /** Check that (i,j) lies inside the matrix. **/
+
+   private void checkIndex (int i, int j) {
+      if (i < 0 || i >= m || j < 0 || j >= n) {
+         throw new ArrayIndexOutOfBoundsException("(" + i + "," + j + ")");
+      }
+   }
+
+   /** Check that the ranges i0:i1 and j0:j1 lie inside the matrix. **/
+
+   private void checkSubmatrix (int i0, int i1, int j0, int j1) {
+      if (i0 < 0 || i1 >= m || j0 < 0 || j1 >= n) {
+         throw new ArrayIndexOutOfBoundsException("Submatrix indices");
+      }
+   }
+
+   /** Check that all row indices lie inside the matrix. **/
+
+   private void checkRows (int[] r) {
+      for (int i = 0; i < r.length; i++) {
+         if (r[i] < 0 || r[i] >= m) {
+            throw new ArrayIndexOutOfBoundsException("Submatrix indices");
+         }
+      }
+   }
+
+   /** Check that all column indices lie inside the matrix. **/
+
+   private void checkColumns (int[] c) {
+      for (int j = 0; j < c.length; j++) {
+         if (c[j] < 0 || c[j] >= n) {
+            throw new ArrayIndexOutOfBoundsException("Submatrix indices");
+         }
+      }
+   }
+
    /** Check if size(A) == size(B) **/
 
    private void checkMatrixDimensions (Matrix B) {
@@ -0,0 +1,300 @@
+package com.github.sikoried.fjama;
+import com.github.sikoried.fjama.util.*;
+
+/** QR Decomposition with column pivoting.
+<P>
+   For an m-by-n matrix A, the pivoted QR decomposition is an m-by-p
+   orthogonal matrix Q, a p-by-n upper trapezoidal matrix R, with
+   p = min(m,n), and a permutation vector piv of length n so that
+   A(:,piv) = Q*R.
+<P>
+   At each step the remaining column of largest norm is moved to the front,
+   as in LAPACK's GEQP3, so the magnitudes of the diagonal elements of R
+   do not increase and reveal the numerical rank of A.f  The column norms
+   are downdated after each reflection and only recomputed when cancellation
+   makes the downdated value unreliable.f  This is much cheaper than the
+   singular value decomposition used by Matrix.rank(), and usually finds
+   the same rank.f  The least squares solution of a rank deficient system is
+   the basic solution, which is zero in the columns of A left out of the
+   leading r-by-r block of R.
+*/
+
+public class PivotedQRDecomposition implements java.io.Serializable {
+
+/* ------------------------
+   Class variables
+ * ------------------------ */
+
+   /** Internal storage of decomposition, with the same kind of storage
+       as the factored matrix, or row-packed on the heap if that matrix is
+       buffer-backed.
+   @serial internal storage.
+   */
+   private Matrix QR;
+
+   /** Row and column dimensions, and number of reflections.
+   @serial column dimension.
+   @serial row dimension.
+   @serial number of reflections.
+   */
+   private int m, n, p;
+
+   /** Array for internal storage of diagonal of R.
+   @serial diagonal of R.
+   */
+   private float[] Rdiag;
+
+   /** Internal storage of column permutation vector.
+   @serial pivot vector.
+   */
+   private int[] piv;
+
+/* ------------------------
+   Constructor
+ * ------------------------ */
+
+   /** QR Decomposition with column pivoting, computed by Householder
+       reflections.
+   @param A    Rectangular matrix
+   */
+
+   public PivotedQRDecomposition (Matrix A) {
+      // Initialize.
+      m = A.getRowDimension();
+      n = A.getColumnDimension();
+      QR = (A.isBufferBacked() ? A.stage(0,m,0,n) : A.copy());
+      p = Math.min(m,n);
+      Rdiag = new float[p];
+      piv = new int[n];
+      for (int j = 0; j < n; j++) {
+         piv[j] = j;
+      }
+
+      // Partial column norms, and the norms they were last computed as.
+      float[] vn1 = new float[n], vn2 = new float[n];
+      for (int j = 0; j < n; j++) {
+         vn1[j] = vn2[j] = norm(j,0);
+      }
+      float tol3z = (float) Math.sqrt(Math.ulp(1.0f));
+
+      // Main loop.
+      float[] s = new float[n];
+      for (int k = 0; k < p; k++) {
+         // Exchange the column of largest norm with the k-th column.
+         int pvt = k;
+         for (int j = k+1; j < n; j++) {
+            if (vn1[j] > vn1[pvt]) {
+               pvt = j;
+            }
+         }
+         if (pvt != k) {
+            for (int i = 0; i < m; i++) {
+               float[] QRrowi = QR.row(i);
+               int q = QR.base(i);
+               float t = QRrowi[q+pvt]; QRrowi[q+pvt] = QRrowi[q+k]; QRrowi[q+k] = t;
+            }
+            int t = piv[pvt]; piv[pvt] = piv[k]; piv[k] = t;
+            vn1[pvt] = vn1[k];
+            vn2[pvt] = vn2[k];
+         }
+
+         // Compute 2-norm of k-th column without under/overflow.
+         float nrm = norm(k,k);
+
+         if (nrm != 0.0f) {
+            // Form k-th Householder vector.
+            if (QR.get(k,k) < 0) {
+               nrm = -nrm;
+            }
+            for (int i = k; i < m; i++) {
+               QR.row(i)[QR.base(i)+k] /= nrm;
+            }
+            QR.set(k,k,QR.get(k,k)+1.0f);
+
+            // Apply transformation to remaining columns.
+            reflect(QR,k,k+1,s);
+         }
+         Rdiag[k] = -nrm;
+
+         // Downdate the norms of the remaining columns.  If most of a norm
+         // cancels, its downdated value has lost too many digits and the
+         // norm is computed again.
+         for (int j = k+1; j < n; j++) {
+            if (vn1[j] != 0.0f) {
+               float t = Math.abs(QR.get(k,j))/vn1[j];
+               t = Math.max(0.0f,(1.0f+t)*(1.0f-t));
+               float r = vn1[j]/vn2[j];
+               if (t*r*r <= tol3z) {
+                  vn1[j] = vn2[j] = norm(j,k+1);
+               } else {
+                  vn1[j] *= (float) Math.sqrt(t);
+               }
+            }
+         }
+      }
+   }
+
+/* ------------------------
+   Public Methods
+ * ------------------------ */
+
+   /** Effective numerical rank
+   @return     number of leading diagonal elements of R above
+               max(m,n)*|R(0,0)|*eps, the tolerance of
+               SingularValueDecomposition.rank().
+   */
+
+   public int rank () {
+      float eps = (float) Math.pow(2, -24);
+      return rank(Math.max(m,n)*(p > 0 ? Math.abs(Rdiag[0]) : 0.0f)*eps);
+   }
+
+   /** Numerical rank for a given tolerance
+   @param tol  Largest magnitude of a diagonal element of R taken as zero.
+   @return     number of leading diagonal elements of R above tol.
+   */
+
+   public int rank (float tol) {
+      int r = 0;
+      while (r < p && Math.abs(Rdiag[r]) > tol) {
+         r++;
+      }
+      return r;
+   }
+
+   /** Return column pivot permutation vector
+   @return     piv, so that A(:,piv) = Q*R
+   */
+
+   public int[] getPivot () {
+      int[] q = new int[n];
+      for (int j = 0; j < n; j++) {
+         q[j] = piv[j];
+      }
+      return q;
+   }
+
+   /** Return the Householder vectors
+   @return     Lower trapezoidal m-by-p matrix whose columns define the
+               reflections
+   */
+
+   public Matrix getH () {
+      Matrix X = QR.like(m,p);
+      for (int i = 0; i < m; i++) {
+         QR.getRow(i,0,X.row(i),X.base(i),Math.min(i+1,p));
+      }
+      return X;
+   }
+
+   /** Return the upper trapezoidal factor
+   @return     R, p-by-n
+   */
+
+   public Matrix getR () {
+      Matrix X = QR.like(p,n);
+      for (int i = 0; i < p; i++) {
+         float[] Rrowi = X.row(i);
+         int r = X.base(i);
+         QR.getRow(i,i+1,Rrowi,r+i+1,n-i-1);
+         Rrowi[r+i] = Rdiag[i];
+      }
+      return X;
+   }
+
+   /** Generate and return the (economy-sized) orthogonal factor
+   @return     Q, m-by-p
+   */
+
+   public Matrix getQ () {
+      Matrix X = QR.like(m,p);
+      float[] s = new float[p];
+      for (int k = p-1; k >= 0; k--) {
+         X.set(k,k,1.0f);
+         reflect(X,k,k,s);
+      }
+      return X;
+   }
+
+   /** Basic least squares solution of A*X = B
+   <P>
+   With r = rank(), the solution is R(0:r-1,0:r-1)\(Q'*B)(0:r-1,:) in the
+   rows piv(0:r-1) and zero in the other rows.  For a matrix of full
+   column rank it is the least squares solution.
+   @param B    A Matrix with as many rows as A and any number of columns.
+   @return     X, n-by-nx, that minimizes the two norm of A*X-B among the
+               solutions with zeros outside the rows piv(0:r-1).
+   @exception  IllegalArgumentException  Matrix row dimensions must agree.
+   */
+
+   public Matrix solve (Matrix B) {
+      if (B.getRowDimension() != m) {
+         throw new IllegalArgumentException("Matrix row dimensions must agree.");
+      }
+      int r = rank(), nx = B.getColumnDimension();
+
+      // Compute Y = transpose(Q)*B, of which only rows 0:r-1 are used.
+      Matrix Y = (B.isBufferBacked() ? B.stage(0,m,0,nx) : B.copy());
+      float[] s = new float[nx];
+      for (int k = 0; k < r; k++) {
+         reflect(Y,k,0,s);
+      }
+
+      // Solve R(0:r-1,0:r-1)*Z = Y(0:r-1,:)
+      for (int k = r-1; k >= 0; k--) {
+         float[] Yrowk = Y.row(k);
+         int yk = Y.base(k);
+         for (int j = 0; j < nx; j++) {
+            Yrowk[yk+j] /= Rdiag[k];
+         }
+         for (int i = 0; i < k; i++) {
+            Kernels.K.axpy(-QR.row(i)[QR.base(i)+k],Yrowk,yk,Y.row(i),Y.base(i),nx);
+         }
+      }
+
+      // X(piv(0:r-1),:) = Z
+      Matrix X = Y.like(n,nx);
+      for (int k = 0; k < r; k++) {
+         Matrix.copyRow(Y,k,0,X,piv[k],0,nx);
+      }
+      return X;
+   }
+
+/* ------------------------
+   Private Methods
+ * ------------------------ */
+
+   /** Two-norm of QR(i0:m-1,j) without under/overflow. **/
+
+   private float norm (int j, int i0) {
+      float nrm = 0;
+      for (int i = i0; i < m; i++) {
+         nrm = Maths.hypot(nrm,QR.row(i)[QR.base(i)+j]);
+      }
+      return nrm;
+   }
+
+   /** Apply the k-th reflection to the columns j0: of X, row by row.
+   @param s    Work array with at least as many elements as columns.
+   **/
+
+   private void reflect (Matrix X, int k, int j0, float[] s) {
+      int w = X.getColumnDimension()-j0;
+      float qkk = QR.get(k,k);
+      if (qkk == 0.0f || w <= 0) {
+         return;
+      }
+      java.util.Arrays.fill(s,0,w,0.0f);
+      for (int i = k; i < m; i++) {
+         Kernels.K.axpy(QR.row(i)[QR.base(i)+k],X.row(i),X.base(i)+j0,s,0,w);
+      }
+      for (int j = 0; j < w; j++) {
+         s[j] = -s[j]/qkk;
+      }
+      for (int i = k; i < m; i++) {
+         Kernels.K.axpy(QR.row(i)[QR.base(i)+k],s,0,X.row(i),X.base(i)+j0,w);
+      }
+   }
+
+  private static final long serialVersionUID = 1;
+}
@@ -12,6 +12,25 @@ import com.github.sikoried.fjama.util.*;
    QR decomposition is in the least squares solution of nonsquare systems
    of simultaneous linear equations.f  This will fail if isFullRank()
    returns false.
+<P>
+   The columns are factored in panels of 32.f  The reflections of a panel
+   are applied to the rest of the matrix as two matrix products, using the
+   compact WY representation I - V*T*V' of their product (Schreiber and
+   Van Loan, 1989), so most of the work runs at the speed of Gemm.f  A
+   matrix of at most 32 columns is factored exactly as before.f  The same
+   representation applies Q and Q' to many right hand sides at once, in
+   solve and in applyQ and applyQTranspose, which never form Q.
+<P>
+   Columns can be inserted and deleted after the factorization, e.g.f  for
+   stepwise regression, with insertColumn and deleteColumn in O(mn)
+   operations instead of the O(mn^2) of a new decomposition (Golub and
+   Van Loan, "Matrix Computations", 12.5).f  The Householder vectors of the
+   original columns are kept, and Q becomes their product followed by the
+   Givens rotations of the updates, which are applied with them by solve,
+   applyQ and applyQTranspose.f  R is then stored separately from the
+   Householder vectors.f  Every update adds up to m rotations, so after
+   many updates a new decomposition of the current columns is faster to
+   apply.
 */
 
 public class QRDecomposition implements java.io.Serializable {
@@ -20,10 +39,18 @@ public class QRDecomposition implements java.io.Serializable {
    Class variables
  * ------------------------ */
 
-   /** Array for internal storage of decomposition.
-   @serial internal array storage.
+   /** Number of columns factored as one panel. */
+   private static final int NB = 32;
+
+   /** Number of elements of a block of columns of a buffer-backed right
+       hand side that is copied to the heap to be reflected. */
+   private static final int STAGE = 1 << 20;
+
+   /** Internal storage of decomposition, with the same kind of storage
+       as the factored matrix.
+   @serial internal storage.
    */
-   private float[][] QR;
+   private Matrix QR;
 
    /** Row and column dimensions.
    @serial column dimension.
@@ -36,6 +63,29 @@ public class QRDecomposition implements java.io.Serializable {
    */
    private float[] Rdiag;
 
+   /** Number of Householder vectors of the original factorization.
+   @serial number of reflections.
+   */
+   private int h;
+
+   /** Upper triangular factor after the first update, or null while it is
+       stored in QR and Rdiag.
+   @serial updated triangular factor.
+   */
+   private float[][] R;
+
+   /** Givens rotations of the updates, in the order they were applied to
+       R:  rotation k maps the rows (g[k], g[k]+1) to
+       (c[k]*x + s[k]*y, c[k]*y - s[k]*x).
+   @serial rows of the rotations.
+   @serial cosines.
+   @serial sines.
+   @serial number of rotations.
+   */
+   private int[] g;
+   private float[] gc, gs;
+   private int ng;
+
 /* ------------------------
    Constructor
  * ------------------------ */
@@ -46,43 +96,46 @@ public class QRDecomposition implements java.io.Serializable {
    */
 
    public QRDecomposition (Matrix A) {
+      this(A,false);
+   }
+
+   /** QR Decomposition in the storage of A.
+   <P>
+   The Householder vectors and R overwrite the elements of A, which saves
+   the copy made by the constructor.f  A is consumed:  afterwards it holds
+   the decomposition in packed form and must not be used as the original
+   matrix.f  A buffer-backed matrix is factored in its buffer, with one panel
+   at a time copied to the heap.
+   @param  A  Rectangular matrix, overwritten
+   @return    QR decomposition of A
+   */
+
+   public static QRDecomposition inPlace (Matrix A) {
+      return new QRDecomposition(A,true);
+   }
+
+   private QRDecomposition (Matrix A, boolean overwrite) {
       // Initialize.
-      QR = A.getArrayCopy();
+      QR = (overwrite ? A : A.copy());
+      if (QR == A) {
+         A.modified();
+      }
       m = A.getRowDimension();
       n = A.getColumnDimension();
+      h = n;
       Rdiag = new float[n];
 
-      // Main loop.
-      for (int k = 0; k < n; k++) {
-         // Compute 2-norm of k-th column without under/overflow.
-         float nrm = 0;
-         for (int i = k; i < m; i++) {
-            nrm = Maths.hypot(nrm,QR[i][k]);
-         }
-
-         if (nrm != 0.0f) {
-            // Form k-th Householder vector.
-            if (QR[k][k] < 0) {
-               nrm = -nrm;
-            }
-            for (int i = k; i < m; i++) {
-               QR[i][k] /= nrm;
-            }
-            QR[k][k] += 1.0f;
-
-            // Apply transformation to remaining columns.
-            for (int j = k+1; j < n; j++) {
-               float s = 0.0f; 
-               for (int i = k; i < m; i++) {
-                  s += QR[i][k]*QR[i][j];
-               }
-               s = -s/QR[k][k];
-               for (int i = k; i < m; i++) {
-                  QR[i][j] += s*QR[i][k];
-               }
-            }
+      // Factor panels of NB columns and apply each to the columns right
+      // of it at once.  Of a matrix with fewer rows than columns, only the
+      // first m columns have reflections, and Rdiag is zero after them.
+      int kmax = Math.min(m,n);
+      for (int k0 = 0; k0 < kmax; k0 += NB) {
+         int k1 = Math.min(k0+NB,kmax);
+         panel(k0,k1);
+         if (k1 < n) {
+            Matrix V = reflectors(k0,k1);
+            reflect(V,factor(V),true,QR,k0,k1);
          }
-         Rdiag[k] = -nrm;
       }
    }
 
@@ -104,19 +157,23 @@ public class QRDecomposition implements java.io.Serializable {
 
    /** Return the Householder vectors
    @return     Lower trapezoidal matrix whose columns define the reflections
+               of the original factorization, not the later updates
    */
 
    public Matrix getH () {
-      Matrix X = new Matrix(m,n);
-      float[][] H = X.getArray();
+      Matrix X = QR.like(m,h);
+      float[] t = QR.scratch(), u = X.scratch();
       for (int i = 0; i < m; i++) {
-         for (int j = 0; j < n; j++) {
+         float[] QRrowi = QR.load(i,t), Hrowi = X.load(i,u);
+         int q = QR.start(i,t), x = X.start(i,u);
+         for (int j = 0; j < h; j++) {
             if (i >= j) {
-               H[i][j] = QR[i][j];
+               Hrowi[x+j] = QRrowi[q+j];
             } else {
-               H[i][j] = 0.0f;
+               Hrowi[x+j] = 0.0f;
             }
          }
+         X.store(i,u);
       }
       return X;
    }
@@ -126,43 +183,61 @@ public class QRDecomposition implements java.io.Serializable {
    */
 
    public Matrix getR () {
-      Matrix X = new Matrix(n,n);
-      float[][] R = X.getArray();
+      Matrix X = QR.like(n,n);
+      if (R != null) {
+         for (int i = 0; i < n; i++) {
+            X.setRow(i,0,R[i],0,n);
+         }
+         return X;
+      }
+      float[] t = QR.scratch(), u = X.scratch();
       for (int i = 0; i < n; i++) {
+         float[] QRrowi = QR.load(i,t), Rrowi = X.load(i,u);
+         int q = QR.start(i,t), r = X.start(i,u);
          for (int j = 0; j < n; j++) {
             if (i < j) {
-               R[i][j] = QR[i][j];
+               Rrowi[r+j] = QRrowi[q+j];
             } else if (i == j) {
-               R[i][j] = Rdiag[i];
+               Rrowi[r+j] = Rdiag[i];
             } else {
-               R[i][j] = 0.0f;
+               Rrowi[r+j] = 0.0f;
             }
          }
+         X.store(i,u);
       }
       return X;
    }
 
    /** Generate and return the (economy-sized) orthogonal factor
+   <P>
+   After an update, or from a buffer-backed matrix, Q is computed as
+   applyQInPlace of the first n columns of the identity.
    @return     Q
    */
 
    public Matrix getQ () {
-      Matrix X = new Matrix(m,n);
-      float[][] Q = X.getArray();
+      Matrix X = QR.like(m,n);
+      if (R != null || QR.isBufferBacked()) {
+         for (int j = 0; j < n; j++) {
+            X.set(j,j,1.0f);
+         }
+         return applyQInPlace(X);
+      }
       for (int k = n-1; k >= 0; k--) {
          for (int i = 0; i < m; i++) {
-            Q[i][k] = 0.0f;
+            X.row(i)[X.base(i)+k] = 0.0f;
          }
-         Q[k][k] = 1.0f;
+         X.set(k,k,1.0f);
+         float qkk = QR.get(k,k);
          for (int j = k; j < n; j++) {
-            if (QR[k][k] != 0) {
+            if (qkk != 0) {
                float s = 0.0f;
                for (int i = k; i < m; i++) {
-                  s += QR[i][k]*Q[i][j];
+                  s += QR.row(i)[QR.base(i)+k]*X.row(i)[X.base(i)+j];
                }
-               s = -s/QR[k][k];
+               s = -s/qkk;
                for (int i = k; i < m; i++) {
-                  Q[i][j] += s*QR[i][k];
+                  X.row(i)[X.base(i)+j] += s*QR.row(i)[QR.base(i)+k];
                }
             }
          }
@@ -170,6 +245,51 @@ public class QRDecomposition implements java.io.Serializable {
       return X;
    }
 
+   /** Multiply by the orthogonal factor without forming it
+   @param B    A Matrix with as many rows as A and any number of columns.
+   @return     Q*B, with Q the m-by-m orthogonal matrix whose first n
+               columns are getQ()
+   @exception  IllegalArgumentException  Matrix row dimensions must agree.
+   */
+
+   public Matrix applyQ (Matrix B) {
+      return applyQInPlace(B.copy());
+   }
+
+   /** Multiply by the transpose of the orthogonal factor without forming it
+   @param B    A Matrix with as many rows as A and any number of columns.
+   @return     Q'*B, whose first n rows are getQ()'*B
+   @exception  IllegalArgumentException  Matrix row dimensions must agree.
+   */
+
+   public Matrix applyQTranspose (Matrix B) {
+      return applyQTransposeInPlace(B.copy());
+   }
+
+   /** Multiply by the orthogonal factor in the storage of B
+   @param B    A Matrix with as many rows as A, overwritten.
+   @return     B = Q*B
+   @exception  IllegalArgumentException  Matrix row dimensions must agree.
+   @see        #applyQ(Matrix)
+   */
+
+   public Matrix applyQInPlace (Matrix B) {
+      overwrite(B,false);
+      return B;
+   }
+
+   /** Multiply by the transpose of the orthogonal factor in the storage of B
+   @param B    A Matrix with as many rows as A, overwritten.
+   @return     B = Q'*B
+   @exception  IllegalArgumentException  Matrix row dimensions must agree.
+   @see        #applyQTranspose(Matrix)
+   */
+
+   public Matrix applyQTransposeInPlace (Matrix B) {
+      overwrite(B,true);
+      return B;
+   }
+
    /** Least squares solution of A*X = B
    @param B    A Matrix with as many rows as A and any number of columns.
    @return     X that minimizes the two norm of Q*R*X-B.
@@ -185,35 +305,420 @@ public class QRDecomposition implements java.io.Serializable {
          throw new RuntimeException("Matrix is rank deficient.");
       }
       
-      // Copy right hand side
+      // Solve for blocks of columns of a buffer-backed right hand side
+      // copied to the heap.
       int nx = B.getColumnDimension();
-      float[][] X = B.getArrayCopy();
+      if (B.isBufferBacked()) {
+         Matrix X = B.like(n,nx);
+         int w = Math.max(NB,STAGE/Math.max(m,1));
+         for (int j0 = 0; j0 < nx; j0 += w) {
+            int j1 = Math.min(j0+w,nx);
+            X.unstage(substitute(B.stage(0,m,j0,j1)),0,j0);
+         }
+         return X;
+      }
+      return substitute(B.copy());
+   }
 
-      // Compute Y = transpose(Q)*B
-      for (int k = 0; k < n; k++) {
-         for (int j = 0; j < nx; j++) {
-            float s = 0.0f; 
-            for (int i = k; i < m; i++) {
-               s += QR[i][k]*X[i][j];
-            }
-            s = -s/QR[k][k];
-            for (int i = k; i < m; i++) {
-               X[i][j] += s*QR[i][k];
-            }
+   /** Insert a column into the factored matrix
+   <P>
+   Updates the decomposition to that of A with a inserted as column j, so
+   that the former columns j: move one to the right.f  Q'*a is computed
+   with the current Q, and the rotations that zero it below row n, and
+   the subdiagonal it leaves in R, are added to Q.
+   @param j    Index of the new column, 0 <= j <= n.
+   @param a    Column with as many rows as A.
+   @exception  IllegalArgumentException  Matrix row dimensions must agree.
+   @exception  IllegalArgumentException  Matrix must have at least as many rows as columns.
+   @exception  ArrayIndexOutOfBoundsException  Column index out of range.
+   */
+
+   public void insertColumn (int j, float[] a) {
+      if (a.length != m) {
+         throw new IllegalArgumentException("Matrix row dimensions must agree.");
+      }
+      if (n >= m) {
+         throw new IllegalArgumentException("Matrix must have at least as many rows as columns.");
+      }
+      if (j < 0 || j > n) {
+         throw new ArrayIndexOutOfBoundsException("Column index out of range.");
+      }
+      Matrix W = new Matrix(a,m);
+      apply(W,true);
+      float[] w = W.getColumnPackedCopy();
+
+      // Shift columns j: of R to the right and put w(0:n) in column j.
+      float[][] T = unpacked(n+1);
+      for (int i = 0; i <= n; i++) {
+         System.arraycopy(T[i],j,T[i],j+1,n-j);
+         T[i][j] = w[i];
+      }
+      n++;
+
+      // Zero w(n:m-1), which touches only column j of R, and then the
+      // subdiagonal of column j from the bottom, which fills in the
+      // subdiagonal of the columns j+1: again one row higher.
+      for (int i = m-1; i > j; i--) {
+         if (w[i] == 0.0f) {
+            continue;
          }
+         float r = Maths.hypot(w[i-1],w[i]);
+         float c = w[i-1]/r, s = w[i]/r;
+         w[i-1] = r;
+         w[i] = 0.0f;
+         if (i < n) {
+            T[i-1][j] = r;
+            T[i][j] = 0.0f;
+            rotate(c,s,T[i-1],T[i],i,n);
+         } else if (i == n) {
+            T[i-1][j] = r;
+         }
+         record(i-1,c,s);
+      }
+      update(T);
+   }
+
+   /** Insert a column into the factored matrix
+   @param j    Index of the new column, 0 <= j <= n.
+   @param a    Matrix with as many rows as A and one column.
+   @exception  IllegalArgumentException  Matrix dimensions must agree.
+   @exception  IllegalArgumentException  Matrix must have at least as many rows as columns.
+   @exception  ArrayIndexOutOfBoundsException  Column index out of range.
+   @see        #insertColumn(int,float[])
+   */
+
+   public void insertColumn (int j, Matrix a) {
+      if (a.getColumnDimension() != 1) {
+         throw new IllegalArgumentException("Matrix dimensions must agree.");
       }
+      insertColumn(j,a.getColumnPackedCopy());
+   }
+
+   /** Delete a column from the factored matrix
+   <P>
+   Updates the decomposition to that of A without column j, so that the
+   columns j+1: move one to the left.f  Removing column j of R leaves a
+   subdiagonal in the columns j:, which is zeroed with n-j-1 rotations
+   that are added to Q.
+   @param j    Index of the column, 0 <= j < n.
+   @exception  ArrayIndexOutOfBoundsException  Column index out of range.
+   */
+
+   public void deleteColumn (int j) {
+      if (j < 0 || j >= n) {
+         throw new ArrayIndexOutOfBoundsException("Column index out of range.");
+      }
+      float[][] T = unpacked(n);
+      for (int i = 0; i < n; i++) {
+         System.arraycopy(T[i],j+1,T[i],j,n-j-1);
+      }
+      n--;
+      for (int k = j; k < n; k++) {
+         float x = T[k][k], y = T[k+1][k];
+         if (y == 0.0f) {
+            continue;
+         }
+         float r = Maths.hypot(x,y);
+         float c = x/r, s = y/r;
+         T[k][k] = r;
+         T[k+1][k] = 0.0f;
+         rotate(c,s,T[k],T[k+1],k+1,n);
+         record(k,c,s);
+      }
+      update(T);
+   }
+
+/* ------------------------
+   Private Methods
+ * ------------------------ */
+
+   /** Overwrite X, a copy of the right hand side that is not
+       buffer-backed, with Q'*X and solve R*Y = Q'*X in its first n rows. **/
+
+   private Matrix substitute (Matrix X) {
+      int nx = X.getColumnDimension();
+
+      // Compute Y = transpose(Q)*B
+      apply(X,true);
       // Solve R*X = Y;
       for (int k = n-1; k >= 0; k--) {
+         float[] Xrowk = X.row(k);
+         int xk = X.base(k);
          for (int j = 0; j < nx; j++) {
-            X[k][j] /= Rdiag[k];
+            Xrowk[xk+j] /= Rdiag[k];
          }
          for (int i = 0; i < k; i++) {
+            float[] Xrowi = X.row(i);
+            int xi = X.base(i);
+            float r = (R != null ? R[i][k] : QR.get(i,k));
             for (int j = 0; j < nx; j++) {
-               X[i][j] -= X[k][j]*QR[i][k];
+               Xrowi[xi+j] -= Xrowk[xk+j]*r;
+            }
+         }
+      }
+      return X.getMatrix(0,n-1,0,nx-1);
+   }
+
+   /** Factor columns k0:k1-1 of rows k0:m-1 with Householder reflections,
+       applying each reflection to the columns of the panel right of it
+       row by row.  The panel of a buffer-backed QR is factored in a copy
+       on the heap. **/
+
+   private void panel (int k0, int k1) {
+      if (QR.isBufferBacked()) {
+         Matrix P = QR.stage(k0,m,k0,k1);
+         panel(P,k0,k0,k1);
+         QR.unstage(P,k0,k0);
+      } else {
+         panel(QR,0,k0,k1);
+      }
+   }
+
+   /** Factor the panel k0:k1-1, held in X with element (i,k) of QR at
+       X(i-o,k-o). **/
+
+   private void panel (Matrix X, int o, int k0, int k1) {
+      float[] s = new float[k1-k0];
+      for (int k = k0; k < k1; k++) {
+         // Compute 2-norm of k-th column without under/overflow.
+         float nrm = 0;
+         for (int i = k; i < m; i++) {
+            nrm = Maths.hypot(nrm,X.row(i-o)[X.base(i-o)+k-o]);
+         }
+
+         if (nrm != 0.0f) {
+            // Form k-th Householder vector.
+            if (X.get(k-o,k-o) < 0) {
+               nrm = -nrm;
+            }
+            for (int i = k; i < m; i++) {
+               X.row(i-o)[X.base(i-o)+k-o] /= nrm;
+            }
+            X.set(k-o,k-o,X.get(k-o,k-o)+1.0f);
+
+            // Apply transformation to remaining columns of the panel.
+            int w = k1-k-1;
+            if (w > 0) {
+               java.util.Arrays.fill(s,0,w,0.0f);
+               for (int i = k; i < m; i++) {
+                  float[] QRrowi = X.row(i-o);
+                  int q = X.base(i-o)-o;
+                  Kernels.K.axpy(QRrowi[q+k],QRrowi,q+k+1,s,0,w);
+               }
+               float qkk = X.get(k-o,k-o);
+               for (int j = 0; j < w; j++) {
+                  s[j] = -s[j]/qkk;
+               }
+               for (int i = k; i < m; i++) {
+                  float[] QRrowi = X.row(i-o);
+                  int q = X.base(i-o)-o;
+                  Kernels.K.axpy(QRrowi[q+k],s,0,QRrowi,q+k+1,w);
+               }
+            }
+         }
+         Rdiag[k] = -nrm;
+      }
+   }
+
+   /** Copy of the Householder vectors k0:k1-1, rows k0:m-1, without the
+       elements of R above their diagonal, and without the columns past
+       the last row. **/
+
+   private Matrix reflectors (int k0, int k1) {
+      int nb = Math.min(k1-k0,m-k0);
+      Matrix V = new Matrix(m-k0,nb);
+      for (int i = 0; i < m-k0; i++) {
+         QR.getRow(k0+i,k0,V.row(i),0,Math.min(i+1,nb));
+      }
+      return V;
+   }
+
+   /** Triangular factor T of the compact WY representation
+       H(0)*...*H(b-1) = I - V*T*V' of the reflections H(k) = I - v*v'/v(k)
+       with the Householder vectors V, following LAPACK's LARFT. **/
+
+   private static Matrix factor (Matrix V) {
+      int mk = V.getRowDimension(), nb = V.getColumnDimension();
+
+      // T(k,k) = 1/v(k), T(0:k-1,k) = -T(k,k)*T(0:k-1,0:k-1)*V(:,0:k-1)'*V(:,k)
+      Matrix S = new Matrix(nb,nb), T = new Matrix(nb,nb);
+      Gemm.gemm(true,false,nb,nb,mk,1.0f,V,0,0,V,0,0,S,0,0);
+      for (int k = 0; k < nb; k++) {
+         float vkk = V.get(k,k);
+         float tau = (vkk != 0.0f ? 1.0f/vkk : 0.0f);
+         T.set(k,k,tau);
+         for (int i = 0; i < k; i++) {
+            float t = 0.0f;
+            for (int l = i; l < k; l++) {
+               t += T.get(i,l)*S.get(l,k);
+            }
+            T.set(i,k,-tau*t);
+         }
+      }
+      return T;
+   }
+
+   /** Apply I - V*T*V', or its transpose, to the rows ci:ci+mk-1 of the
+       columns cj: of C as the matrix products C = C - V*(T*(V'*C)). **/
+
+   private static void reflect (Matrix V, Matrix T, boolean transpose, Matrix C, int ci, int cj) {
+      int mk = V.getRowDimension(), nb = V.getColumnDimension();
+      int nc = C.getColumnDimension()-cj;
+      Matrix W = new Matrix(nb,nc);
+      Gemm.gemm(true,false,nb,nc,mk,1.0f,V,0,0,C,ci,cj,W,0,0);
+
+      // W = T'*W from the last row, or T*W from the first, in place.
+      for (int r = 0; r < nb; r++) {
+         int i = (transpose ? nb-1-r : r);
+         float[] Wrowi = W.row(i);
+         Kernels.K.scale(T.get(i,i),Wrowi,0,Wrowi,0,nc);
+         for (int k = (transpose ? 0 : i+1); k < (transpose ? i : nb); k++) {
+            Kernels.K.axpy(transpose ? T.get(k,i) : T.get(i,k),W.row(k),0,Wrowi,0,nc);
+         }
+      }
+      Gemm.gemm(false,false,mk,nc,nb,-1.0f,V,0,0,W,0,0,C,ci,cj);
+   }
+
+   /** B = Q*B, or B = Q'*B, for any kind of storage.  The columns of a
+       buffer-backed B are copied to the heap in blocks. **/
+
+   private void overwrite (Matrix B, boolean transpose) {
+      if (B.getRowDimension() != m) {
+         throw new IllegalArgumentException("Matrix row dimensions must agree.");
+      }
+      if (B.isBufferBacked()) {
+         int nx = B.getColumnDimension();
+         int w = Math.max(NB,STAGE/Math.max(m,1));
+         for (int j0 = 0; j0 < nx; j0 += w) {
+            int j1 = Math.min(j0+w,nx);
+            Matrix X = B.stage(0,m,j0,j1);
+            apply(X,transpose);
+            B.unstage(X,0,j0);
+         }
+      } else {
+         apply(B,transpose);
+         B.modified();
+      }
+   }
+
+   /** X = Q*X, or X = Q'*X, for an X with m rows that is not buffer-backed.
+       Few columns are reflected one Householder vector at a time, row by
+       row, which rounds exactly like the column loops of JAMA, and many
+       columns one panel at a time in the compact WY form.  The vectors of
+       a buffer-backed QR are read from a copy of each panel. **/
+
+   private void apply (Matrix X, boolean transpose) {
+      if (!transpose) {
+         givens(X,false);
+      }
+      int nx = X.getColumnDimension();
+      int kmax = Math.min(m,h);
+      int np = (kmax+NB-1)/NB;
+      if (nx < NB) {
+         float[] s = new float[nx];
+         for (int p = 0; p < np; p++) {
+            int k0 = (transpose ? p : np-1-p)*NB, k1 = Math.min(k0+NB,kmax);
+            Matrix V = (QR.isBufferBacked() ? reflectors(k0,k1) : QR);
+            int o = (V == QR ? 0 : k0);
+            for (int r = 0; r < k1-k0; r++) {
+               int k = (transpose ? k0+r : k1-1-r);
+               float qkk = V.row(k-o)[V.base(k-o)+k-o];
+               if (qkk == 0.0f) {
+                  continue;
+               }
+               java.util.Arrays.fill(s,0.0f);
+               for (int i = k; i < m; i++) {
+                  Kernels.K.axpy(V.row(i-o)[V.base(i-o)+k-o],X.row(i),X.base(i),s,0,nx);
+               }
+               for (int j = 0; j < nx; j++) {
+                  s[j] = -s[j]/qkk;
+               }
+               for (int i = k; i < m; i++) {
+                  Kernels.K.axpy(V.row(i-o)[V.base(i-o)+k-o],s,0,X.row(i),X.base(i),nx);
+               }
             }
          }
+      } else {
+         for (int r = 0; r < np; r++) {
+            int k0 = (transpose ? r : np-1-r)*NB;
+            Matrix V = reflectors(k0,Math.min(k0+NB,kmax));
+            reflect(V,factor(V),transpose,X,k0,0);
+         }
+      }
+      if (transpose) {
+         givens(X,true);
+      }
+   }
+
+   /** Apply the rotations of the updates to the rows of X, in the order
+       they were recorded, or their transposes in reverse order. **/
+
+   private void givens (Matrix X, boolean transpose) {
+      int nx = X.getColumnDimension();
+      for (int r = 0; r < ng; r++) {
+         int k = (transpose ? r : ng-1-r);
+         int i = g[k];
+         float[] Xrowi = X.row(i), Xrowl = X.row(i+1);
+         int xi = X.base(i), xl = X.base(i+1);
+         float c = gc[k], s = (transpose ? gs[k] : -gs[k]);
+         for (int j = 0; j < nx; j++) {
+            float t = c*Xrowi[xi+j]+s*Xrowl[xl+j];
+            Xrowl[xl+j] = c*Xrowl[xl+j]-s*Xrowi[xi+j];
+            Xrowi[xi+j] = t;
+         }
+      }
+   }
+
+   /** (x, y) = (c*x + s*y, c*y - s*x) for the elements j0:j1-1. **/
+
+   private static void rotate (float c, float s, float[] x, float[] y, int j0, int j1) {
+      for (int j = j0; j < j1; j++) {
+         float t = c*x[j]+s*y[j];
+         y[j] = c*y[j]-s*x[j];
+         x[j] = t;
+      }
+   }
+
+   /** Add a rotation of the rows (i, i+1) to Q. **/
+
+   private void record (int i, float c, float s) {
+      if (g == null || ng == g.length) {
+         int len = Math.max(16,2*ng);
+         g = java.util.Arrays.copyOf(g == null ? new int[0] : g,len);
+         gc = java.util.Arrays.copyOf(gc == null ? new float[0] : gc,len);
+         gs = java.util.Arrays.copyOf(gs == null ? new float[0] : gs,len);
       }
-      return (new Matrix(X,n,nx).getMatrix(0,n-1,0,nx-1));
+      g[ng] = i;
+      gc[ng] = c;
+      gs[ng] = s;
+      ng++;
    }
-  private static final long serialVersionUID = 1;
+
+   /** Copy of R with k rows and columns, zero outside the current n. **/
+
+   private float[][] unpacked (int k) {
+      float[][] T = new float[k][k];
+      for (int i = 0; i < Math.min(k,n); i++) {
+         if (R != null) {
+            System.arraycopy(R[i],i,T[i],i,n-i);
+         } else {
+            QR.getRow(i,i+1,T[i],i+1,n-i-1);
+            T[i][i] = Rdiag[i];
+         }
+      }
+      return T;
+   }
+
+   /** Make T, with n rows and at least n columns, the triangular factor. **/
+
+   private void update (float[][] T) {
+      R = new float[n][];
+      Rdiag = new float[n];
+      for (int i = 0; i < n; i++) {
+         R[i] = java.util.Arrays.copyOf(T[i],n);
+         Rdiag[i] = R[i][i];
+      }
+   }
+
+  private static final long serialVersionUID = 2;
 }
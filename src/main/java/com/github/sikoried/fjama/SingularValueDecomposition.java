@@ -13,6 +13,11 @@ import com.github.sikoried.fjama.util.*;
    The singular value decompostion always exists, so the constructor will
    never fail.f  The matrix condition number and the effective numerical
    rank can be computed from this decomposition.
+   <P>
+   The algorithm indexes two-dimensional arrays:  a row-packed or
+   buffer-backed matrix is copied into a private float[][] work array on
+   the heap, and U, S and V are returned as matrices on the heap, also for
+   a matrix in direct memory.
    */
 
 public class SingularValueDecomposition implements java.io.Serializable {
@@ -48,10 +53,30 @@ public class SingularValueDecomposition implements java.io.Serializable {
    */
 
    public SingularValueDecomposition (Matrix Arg) {
+      this(Arg,false);
+   }
+
+   /** Singular value decomposition in the storage of Arg.
+   <P>
+   The bidiagonalization works on the elements of Arg instead of a copy,
+   which saves the copy made by the constructor.f  Arg is consumed:  its
+   elements are undefined afterwards.f  The algorithm works on a
+   two-dimensional array, so a row-packed or buffer-backed matrix is
+   copied, as by the constructor, and left unchanged.
+   @param  Arg   Rectangular matrix, overwritten
+   @return       Singular value decomposition of Arg
+   */
+
+   public static SingularValueDecomposition inPlace (Matrix Arg) {
+      return new SingularValueDecomposition(Arg,true);
+   }
+
+   private SingularValueDecomposition (Matrix Arg, boolean overwrite) {
 
       // Derived from LINPACK code.
       // Initialize.
-      float[][] A = Arg.getArrayCopy();
+      overwrite = overwrite && !Arg.isRowPacked() && !Arg.isBufferBacked();
+      float[][] A = (overwrite ? Arg.getArray() : Arg.getArrayCopy());
       m = Arg.getRowDimension();
       n = Arg.getColumnDimension();
 
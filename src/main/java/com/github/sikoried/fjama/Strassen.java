@@ -0,0 +1,154 @@
+package com.github.sikoried.fjama;
+
+import java.util.concurrent.ForkJoinPool;
+
+   /** Strassen-Winograd matrix multiplication.
+   <P>
+   Computes C = A*B with Winograd's variant of Strassen's algorithm, which
+   forms the product of two 2-by-2 block matrices with seven block products
+   and fifteen block additions.  The recursion stops as soon as a dimension
+   of the blocks would drop below the cutoff, and the remaining block
+   products are computed by the classical kernel in Gemm.
+   <P>
+   The operands are copied once into row-packed arrays whose dimensions
+   are padded with zeros to multiples of 2^d, where d is the number of
+   levels, so that every block splits evenly.  The additions are scheduled
+   as in Boyer, Dumas, Pernet and Zhou, "Memory efficient scheduling of
+   Strassen-Winograd's matrix multiplication algorithm" (ISSAC 2009):  each
+   level needs two temporary blocks, which are allocated once for the whole
+   recursion.  Besides the padded copies, the extra memory is less than a
+   third of the size of the operands.
+   <P>
+   The result is not as accurate as the classical product.  For Winograd's
+   variant, Higham, "Accuracy and Stability of Numerical Algorithms" (2nd
+   ed., section 23.2.2, Theorem 23.3) gives the normwise bound
+   <BLOCKQUOTE>
+   max|C - fl(C)| &lt;= ((n/n0)^log2(18) (n0^2 + 6 n0) - 6 n) u max|A| max|B|
+   </BLOCKQUOTE>
+   to first order, for n-by-n operands and cutoff n0, with u = 2^-24 the
+   unit roundoff.  (Strassen's original variant has log2(12), 5 n0 and
+   5 n instead.)  For n = n0 this is the classical n^2 u; one level is
+   about 4.5 times and two levels about 20 times that.  The bound is
+   normwise rather than componentwise, so small elements of C may lose
+   relative accuracy.
+   */
+
+class Strassen {
+
+/* ------------------------
+   Class variables
+ * ------------------------ */
+
+   /** Default cutoff:  blocks smaller than this are multiplied classically. */
+   static final int CUTOFF = 512;
+
+/* ------------------------
+   Public Methods
+ * ------------------------ */
+
+   /** C = A*B.
+   @param A       Left operand, m-by-k.
+   @param B       Right operand, k-by-n.
+   @param C       Destination, m-by-n, overwritten.
+   @param cutoff  Smallest block dimension split by the recursion.
+   */
+
+   static void multiply (Matrix A, Matrix B, Matrix C, int cutoff) {
+      int m = A.getRowDimension(), k = A.getColumnDimension(), n = B.getColumnDimension();
+      int d = 0;
+      while (Math.min(m,Math.min(k,n)) >> d >= 2*cutoff) {
+         d++;
+      }
+      ForkJoinPool pool = ForkJoinPool.commonPool();
+      if (d == 0) {
+         C.clear();
+         Gemm.gemm(m,n,k,A,0,0,B,0,0,C,0,0,pool,pool.getParallelism());
+         return;
+      }
+      int mp = pad(m,d), kp = pad(k,d), np = pad(n,d);
+      Matrix Ap = padded(A,mp,kp), Bp = padded(B,kp,np);
+      Matrix Cp = (mp == m && np == n && C.isRowPacked() ? C : rowPacked(mp,np));
+
+      // Temporaries of each level, reused by all blocks on that level.
+      Matrix[] X = new Matrix[d], Y = new Matrix[d];
+      for (int l = 0; l < d; l++) {
+         int mh = mp >> (l+1), kh = kp >> (l+1), nh = np >> (l+1);
+         X[l] = rowPacked(mh,Math.max(kh,nh));
+         Y[l] = rowPacked(kh,nh);
+      }
+      recurse(Ap,Bp,Cp,X,Y,0,pool);
+      if (Cp != C) {
+         for (int i = 0; i < m; i++) {
+            Matrix.copyRow(Cp,i,0,C,i,0,n);
+         }
+      }
+   }
+
+/* ------------------------
+   Private Methods
+ * ------------------------ */
+
+   /** C = A*B on level l, using X[l] and Y[l] as temporaries. **/
+
+   private static void recurse (Matrix A, Matrix B, Matrix C, Matrix[] X, Matrix[] Y,
+                                int l, ForkJoinPool pool) {
+      int m = A.getRowDimension(), k = A.getColumnDimension(), n = B.getColumnDimension();
+      if (l == X.length) {
+         C.clear();
+         Gemm.gemm(m,n,k,A,0,0,B,0,0,C,0,0,pool,pool.getParallelism());
+         return;
+      }
+      int mh = m/2, kh = k/2, nh = n/2;
+      Matrix A11 = A.view(0,mh-1,0,kh-1), A12 = A.view(0,mh-1,kh,k-1);
+      Matrix A21 = A.view(mh,m-1,0,kh-1), A22 = A.view(mh,m-1,kh,k-1);
+      Matrix B11 = B.view(0,kh-1,0,nh-1), B12 = B.view(0,kh-1,nh,n-1);
+      Matrix B21 = B.view(kh,k-1,0,nh-1), B22 = B.view(kh,k-1,nh,n-1);
+      Matrix C11 = C.view(0,mh-1,0,nh-1), C12 = C.view(0,mh-1,nh,n-1);
+      Matrix C21 = C.view(mh,m-1,0,nh-1), C22 = C.view(mh,m-1,nh,n-1);
+      Matrix S = X[l].view(0,mh-1,0,kh-1), P = X[l].view(0,mh-1,0,nh-1);
+      Matrix T = Y[l];
+
+      A11.minusInto(A21,S);                   // S3 = A11 - A21
+      B22.minusInto(B12,T);                   // T3 = B22 - B12
+      recurse(S,T,C21,X,Y,l+1,pool);          // P7 = S3*T3
+      A21.plusInto(A22,S);                    // S1 = A21 + A22
+      B12.minusInto(B11,T);                   // T1 = B12 - B11
+      recurse(S,T,C22,X,Y,l+1,pool);          // P5 = S1*T1
+      S.minusInto(A11,S);                     // S2 = S1 - A11
+      B22.minusInto(T,T);                     // T2 = B22 - T1
+      recurse(S,T,C12,X,Y,l+1,pool);          // P6 = S2*T2
+      A12.minusInto(S,S);                     // S4 = A12 - S2
+      recurse(S,B22,C11,X,Y,l+1,pool);        // P3 = S4*B22
+      recurse(A11,B11,P,X,Y,l+1,pool);        // P1 = A11*B11
+      P.plusInto(C12,C12);                    // U2 = P1 + P6
+      C12.plusInto(C21,C21);                  // U3 = U2 + P7
+      C12.plusInto(C22,C12);                  // U4 = U2 + P5
+      C21.plusInto(C22,C22);                  // U7 = U3 + P5
+      C12.plusInto(C11,C12);                  // U5 = U4 + P3
+      T.minusInto(B21,T);                     // T4 = T2 - B21
+      recurse(A22,T,C11,X,Y,l+1,pool);        // P4 = A22*T4
+      C21.minusInto(C11,C21);                 // U6 = U3 - P4
+      recurse(A12,B21,C11,X,Y,l+1,pool);      // P2 = A12*B21
+      P.plusInto(C11,C11);                    // U1 = P1 + P2
+   }
+
+   /** Smallest multiple of 2^d not less than x. **/
+
+   private static int pad (int x, int d) {
+      return ((x-1 >> d)+1) << d;
+   }
+
+   /** Row-packed copy of X, padded with zeros to m-by-n. **/
+
+   private static Matrix padded (Matrix X, int m, int n) {
+      Matrix P = rowPacked(m,n);
+      for (int i = 0; i < X.getRowDimension(); i++) {
+         Matrix.copyRow(X,i,0,P,i,0,X.getColumnDimension());
+      }
+      return P;
+   }
+
+   private static Matrix rowPacked (int m, int n) {
+      return Matrix.wrapRowPacked(new float[m*n],m,n);
+   }
+}
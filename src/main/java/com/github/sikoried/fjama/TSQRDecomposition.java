@@ -0,0 +1,306 @@
+package com.github.sikoried.fjama;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+   /** Tall and skinny QR Decomposition.
+   <P>
+   For an m-by-n matrix A with m >= n, computes the same kind of
+   factorization A = Q*R as QRDecomposition, with the communication
+   avoiding scheme of Demmel, Grigori, Hoemmen and Langou, "Communication-
+   optimal parallel and sequential QR and LU factorizations" (SIAM J. Sci.
+   Comput. 34, 2012):  A is split into blocks of rows that are factored
+   independently, and the R factors of neighbouring blocks are stacked and
+   factored again, pairwise up a binary tree, until one R remains.
+   <P>
+   The blocks are sized to stay in the cache, so a tall matrix is read only
+   once instead of once per column, and the blocks can be factored in
+   parallel on a ForkJoinPool.f  The tree depends only on the dimensions of
+   A, so the result is the same with any number of threads.f  Q is kept
+   implicitly as the QRDecomposition of every block and node of the tree,
+   and is applied to other matrices by applyQ and applyQTranspose.f  R may
+   differ from the R of QRDecomposition in the signs of its rows.
+   */
+
+public class TSQRDecomposition implements java.io.Serializable {
+
+/* ------------------------
+   Class variables
+ * ------------------------ */
+
+   /** Number of elements of a block of rows, so that a block stays in a
+       1 MB cache.  Blocks have at least 2n rows. */
+   private static final int BLOCK = 1 << 18;
+
+   /** Root of the reduction tree.
+   @serial reduction tree.
+   */
+   private Node root;
+
+   /** Row and column dimensions.
+   @serial column dimension.
+   @serial row dimension.
+   */
+   private int m, n;
+
+/* ------------------------
+   Constructor
+ * ------------------------ */
+
+   /** Tall and skinny QR Decomposition
+   @param A    Rectangular matrix with at least as many rows as columns;
+               not modified.
+   @exception  IllegalArgumentException  Matrix must have at least as many rows as columns.
+   */
+
+   public TSQRDecomposition (Matrix A) {
+      this(A,null,1);
+   }
+
+   /** Tall and skinny QR Decomposition with the blocks factored in
+       parallel on a ForkJoinPool
+   @param A     Rectangular matrix with at least as many rows as columns;
+                not modified.
+   @param pool  Pool that factors the blocks.
+   @exception  IllegalArgumentException  Matrix must have at least as many rows as columns.
+   */
+
+   public TSQRDecomposition (Matrix A, ForkJoinPool pool) {
+      this(A,pool,pool.getParallelism());
+   }
+
+   private TSQRDecomposition (Matrix A, ForkJoinPool pool, int tasks) {
+      m = A.getRowDimension();
+      n = A.getColumnDimension();
+      if (m < n) {
+         throw new IllegalArgumentException("Matrix must have at least as many rows as columns.");
+      }
+      int h = Math.max(2*n,BLOCK/Math.max(n,1));
+      int blocks = Math.max(1,m/h);
+      root = tree(0,blocks,blocks);
+      if (tasks > 1 && blocks > 1) {
+         pool.invoke(new Factor(A,root,tasks));
+      } else {
+         factor(A,root);
+      }
+   }
+
+/* ------------------------
+   Public Methods
+ * ------------------------ */
+
+   /** Is the matrix full rank?
+   @return     true if R, and hence A, has full rank.
+   */
+
+   public boolean isFullRank () {
+      return root.qr.isFullRank();
+   }
+
+   /** Return the upper triangular factor
+   @return     R
+   */
+
+   public Matrix getR () {
+      return root.qr.getR();
+   }
+
+   /** Generate and return the (economy-sized) orthogonal factor
+   @return     Q
+   */
+
+   public Matrix getQ () {
+      Matrix X = Matrix.wrapRowPacked(new float[m*n],m,n);
+      for (int j = 0; j < n; j++) {
+         X.set(j,j,1.0f);
+      }
+      apply(root,X,false);
+      return X;
+   }
+
+   /** Multiply by the orthogonal factor without forming it
+   @param B    A Matrix with as many rows as A and any number of columns.
+   @return     Q*B, with Q the m-by-m orthogonal matrix whose first n
+               columns are getQ()
+   @exception  IllegalArgumentException  Matrix row dimensions must agree.
+   */
+
+   public Matrix applyQ (Matrix B) {
+      Matrix X = operand(B);
+      apply(root,X,false);
+      return X;
+   }
+
+   /** Multiply by the transpose of the orthogonal factor without forming it
+   @param B    A Matrix with as many rows as A and any number of columns.
+   @return     Q'*B, whose first n rows are getQ()'*B
+   @exception  IllegalArgumentException  Matrix row dimensions must agree.
+   */
+
+   public Matrix applyQTranspose (Matrix B) {
+      Matrix X = operand(B);
+      apply(root,X,true);
+      return X;
+   }
+
+   /** Least squares solution of A*X = B
+   @param B    A Matrix with as many rows as A and any number of columns.
+   @return     X that minimizes the two norm of Q*R*X-B.
+   @exception  IllegalArgumentException  Matrix row dimensions must agree.
+   @exception  RuntimeException  Matrix is rank deficient.
+   */
+
+   public Matrix solve (Matrix B) {
+      Matrix X = operand(B);
+      if (!this.isFullRank()) {
+         throw new RuntimeException("Matrix is rank deficient.");
+      }
+      apply(root,X,true);
+
+      // Solve R*X = Y;
+      int nx = B.getColumnDimension();
+      Matrix R = getR();
+      for (int k = n-1; k >= 0; k--) {
+         float[] Xrowk = X.row(k);
+         int xk = X.base(k);
+         Kernels.K.scale(1.0f/R.get(k,k),Xrowk,xk,Xrowk,xk,nx);
+         for (int i = 0; i < k; i++) {
+            Kernels.K.axpy(-R.get(i,k),Xrowk,xk,X.row(i),X.base(i),nx);
+         }
+      }
+      return X.getMatrix(0,n-1,0,nx-1);
+   }
+
+/* ------------------------
+   Private Methods
+ * ------------------------ */
+
+   /** Tree over the blocks b0:b1-1 of the given number of equal blocks. **/
+
+   private Node tree (int b0, int b1, int blocks) {
+      if (b1-b0 == 1) {
+         return new Node((int) ((long) m*b0/blocks),(int) ((long) m*b1/blocks),null,null);
+      }
+      int b = (b0+b1)/2;
+      Node left = tree(b0,b,blocks), right = tree(b,b1,blocks);
+      return new Node(left.r0,right.r1,left,right);
+   }
+
+   /** Factor the block of a leaf, or the stacked R factors of its children. **/
+
+   private void factor (Matrix A, Node node) {
+      if (node.left == null) {
+         node.qr = QRDecomposition.inPlace(A.getMatrix(node.r0,node.r1-1,0,n-1));
+         return;
+      }
+      factor(A,node.left);
+      factor(A,node.right);
+      combine(node);
+   }
+
+   /** Factor [R_left; R_right] of the children of node. **/
+
+   private void combine (Node node) {
+      Matrix S = new Matrix(2*n,n);
+      S.setMatrix(0,n-1,0,n-1,node.left.qr.getR());
+      S.setMatrix(n,2*n-1,0,n-1,node.right.qr.getR());
+      node.qr = QRDecomposition.inPlace(S);
+   }
+
+   /** Row-packed copy of B to be overwritten by a product with Q. **/
+
+   private Matrix operand (Matrix B) {
+      if (B.getRowDimension() != m) {
+         throw new IllegalArgumentException("Matrix row dimensions must agree.");
+      }
+      int nx = B.getColumnDimension();
+      Matrix X = Matrix.wrapRowPacked(new float[m*nx],m,nx);
+      for (int i = 0; i < m; i++) {
+         Matrix.copyRow(B,i,0,X,i,0,nx);
+      }
+      return X;
+   }
+
+   /** X = Q*X, or X = Q'*X, for the part of Q below node.  The first n
+       rows of the rows of a node hold its part of Q'*X. **/
+
+   private void apply (Node node, Matrix X, boolean transpose) {
+      int nx = X.getColumnDimension();
+      if (node.left == null) {
+         Matrix Y = X.view(node.r0,node.r1-1,0,nx-1);
+         if (transpose) {
+            node.qr.applyQTransposeInPlace(Y);
+         } else {
+            node.qr.applyQInPlace(Y);
+         }
+         return;
+      }
+      if (transpose) {
+         apply(node.left,X,true);
+         apply(node.right,X,true);
+      }
+      Matrix Y = new Matrix(2*n,nx);
+      int r = node.right.r0;
+      for (int i = 0; i < n; i++) {
+         Matrix.copyRow(X,node.r0+i,0,Y,i,0,nx);
+         Matrix.copyRow(X,r+i,0,Y,n+i,0,nx);
+      }
+      if (transpose) {
+         node.qr.applyQTransposeInPlace(Y);
+      } else {
+         node.qr.applyQInPlace(Y);
+      }
+      for (int i = 0; i < n; i++) {
+         Matrix.copyRow(Y,i,0,X,node.r0+i,0,nx);
+         Matrix.copyRow(Y,n+i,0,X,r+i,0,nx);
+      }
+      if (!transpose) {
+         apply(node.left,X,false);
+         apply(node.right,X,false);
+      }
+   }
+
+   /** Node of the reduction tree over rows r0:r1-1 of A. **/
+
+   private static class Node implements java.io.Serializable {
+      private final int r0, r1;
+      private final Node left, right;
+
+      /** QR of the rows of a leaf, or of the stacked R of the children. **/
+      private QRDecomposition qr;
+
+      Node (int r0, int r1, Node left, Node right) {
+         this.r0 = r0; this.r1 = r1;
+         this.left = left; this.right = right;
+      }
+
+      private static final long serialVersionUID = 1;
+   }
+
+   /** Factor the tree below a node, splitting the subtrees into tasks. **/
+
+   private class Factor extends RecursiveAction {
+      private final Matrix A;
+      private final Node node;
+      private final int tasks;
+
+      Factor (Matrix A, Node node, int tasks) {
+         this.A = A; this.node = node; this.tasks = tasks;
+      }
+
+      protected void compute () {
+         if (tasks <= 1 || node.left == null) {
+            factor(A,node);
+            return;
+         }
+         int t0 = tasks/2;
+         invokeAll(new Factor(A,node.left,t0),
+                   new Factor(A,node.right,tasks-t0));
+         combine(node);
+      }
+
+      private static final long serialVersionUID = 1;
+   }
+
+  private static final long serialVersionUID = 1;
+}
@@ -754,6 +754,25 @@ public class TestMatrix {
       } catch ( java.lang.RuntimeException e ) {
          errorCount = try_failure(errorCount,"times(Matrix)...","incorrect Matrix-Matrix product calculation");
       }
+      R = Matrix.random(131,517);
+      S = Matrix.random(517,70);
+      try {
+         check(R.times(S),product(R,S));
+         try_success("times(Matrix) blocked...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"times(Matrix) blocked...","blocked product differs from reference product");
+      }
+      R = Matrix.random(301,257);
+      S = Matrix.random(257,203);
+      java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(3);
+      try {
+         check(R.times(S,pool),product(R,S));
+         check(R.times(S,5),R.times(S,1));
+         try_success("times(Matrix) parallel...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"times(Matrix) parallel...","tiled product differs from reference product");
+      }
+      pool.shutdown();
       try {
          check(A.times(0.f),Z);
          try_success("times(float)...","");
@@ -869,6 +888,1096 @@ public class TestMatrix {
       }
 
 
+/**
+      Row-packed storage:
+         wrapRowPacked
+         view
+         getArray
+         arithmetic and decompositions on row-packed matrices
+**/
+
+      print("\nTesting row-packed storage...f\n");
+      float[] packed = new float[5*7];
+      for (int i = 0; i < packed.length; i++) {
+         packed[i] = (float) Math.random();
+      }
+      M = Matrix.wrapRowPacked(packed,5,7);
+      try {
+         check(M,new Matrix(packed,7).transpose());
+         M.set(1,2,-1.f);
+         check(packed[1*7+2],-1.f);
+         try_success("wrapRowPacked...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"wrapRowPacked...","row-packed matrix does not share the array");
+      }
+      try {
+         M.get(0,7);
+         errorCount = try_failure(errorCount,"get(int,int) row-packed...","ArrayIndexOutOfBoundsException expected but not thrown");
+      } catch ( java.lang.ArrayIndexOutOfBoundsException e ) {
+         try_success("get(int,int) row-packed ArrayIndexOutOfBoundsException...","");
+      }
+      SUB = M.view(1,4,2,5);
+      try {
+         check(SUB,M.getMatrix(1,4,2,5));
+         SUB.timesEquals(2.f);
+         check(M.get(3,4),SUB.get(2,2));
+         try_success("view...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"view...","view does not share storage with the matrix");
+      }
+      try {
+         new Matrix(avals).view(0,1,0,1);
+         errorCount = try_failure(errorCount,"view two-dimensional...","UnsupportedOperationException expected but not thrown");
+      } catch ( java.lang.UnsupportedOperationException e ) {
+         try_success("view two-dimensional...","");
+      }
+      B = new Matrix(M.getArrayCopy());
+      try {
+         check(SUB.times(SUB.transpose()),B.getMatrix(1,4,2,5).times(B.getMatrix(1,4,2,5).transpose()));
+         check(M.plus(M).minus(M),B);
+         check(M.arrayTimes(M),B.arrayTimes(B));
+         if (!M.times(M.transpose()).isRowPacked()) {
+            throw new RuntimeException("product of row-packed matrices is not row-packed");
+         }
+         try_success("arithmetic row-packed...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"arithmetic row-packed...",e.getMessage());
+      }
+      A = SUB.copy().plusEquals(Matrix.identity(4,4).times(4.f));
+      try {
+         LU = A.lu();
+         check(A.getMatrix(LU.getPivot(),0,3),LU.getL().times(LU.getU()));
+         check(A.times(A.solve(I = Matrix.identity(4,4))),I);
+         QR = M.transpose().qr();
+         check(M.transpose(),QR.getQ().times(QR.getR()));
+         Chol = A.times(A.transpose()).chol();
+         check(Chol.getL().times(Chol.getL().transpose()),A.times(A.transpose()));
+         check(M.svd().getSingularValues(),B.svd().getSingularValues());
+         try_success("decompositions row-packed...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"decompositions row-packed...",e.getMessage());
+      }
+      float[][] marray = M.getArray();
+      marray[0][0] = 42.f;
+      try {
+         if (M.get(0,0) == 42.f || !M.isRowPacked()) {
+            throw new RuntimeException("getArray changed the storage of a row-packed matrix");
+         }
+         SUB.set(0,0,-2.f);
+         check(M.get(1,2),-2.f);
+         check(packed[1*7+2],-2.f);
+         try_success("getArray row-packed...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"getArray row-packed...",e.getMessage());
+      }
+
+      print("\nTesting off-heap storage...f\n");
+      java.nio.FloatBuffer fbuf = java.nio.FloatBuffer.allocate(1+5*7);
+      fbuf.put(0.f);
+      for (int i = 0; i < 5*7; i++) {
+         fbuf.put((float) Math.random());
+      }
+      fbuf.position(1);
+      M = Matrix.wrapRowPacked(fbuf,5,7);
+      B = Matrix.wrapColumnPacked(fbuf,7,5);
+      try {
+         check(M,B.transpose());
+         M.set(1,2,-1.f);
+         check(fbuf.get(1+1*7+2),-1.f);
+         check(B.get(2,1),-1.f);
+         if (!M.isBufferBacked() || fbuf.position() != 1) {
+            throw new RuntimeException("buffer not shared");
+         }
+         try_success("wrapRowPacked(FloatBuffer), wrapColumnPacked...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"wrapRowPacked(FloatBuffer), wrapColumnPacked...",e.getMessage());
+      }
+      A = new Matrix(M.getArrayCopy());
+      X = Matrix.allocateDirect(5,7);
+      try {
+         X.setMatrix(0,4,0,6,A);
+         check(X,A);
+         check(X.plus(M).minus(A),M);
+         check(X.arrayTimes(B.transpose()),A.arrayTimes(A));
+         check(X.times(B),product(A,A.transpose()));
+         check(B.times(M),product(A.transpose(),A));
+         X.plusEquals(A).timesEquals(.5f);
+         check(X,A);
+         SUB = X.view(1,4,2,5);
+         SUB.uminus().arrayTimesEquals(SUB);
+         check(SUB,A.getMatrix(1,4,2,5));
+         SUB.timesEquals(2.f);
+         check(X.get(3,4),2.f*A.get(3,4));
+         try_success("arithmetic off-heap...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"arithmetic off-heap...",e.getMessage());
+      }
+      try {
+         S = Matrix.allocateDirect(131,517);
+         T = Matrix.allocateDirect(517,70);
+         S.setMatrix(0,130,0,516,Matrix.random(131,517));
+         T.setMatrix(0,516,0,69,Matrix.random(517,70));
+         check(S.times(T),product(S,T));
+         S.free();
+         T.free();
+         if (S.getRowDimension() != 0 || S.getColumnDimension() != 0 || S.isBufferBacked()) {
+            throw new RuntimeException("matrix not empty after free");
+         }
+         try_success("times(Matrix), free off-heap...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"times(Matrix), free off-heap...",e.getMessage());
+      }
+      try {
+         S = Matrix.allocateDirect(40,40);
+         S.setMatrix(0,39,0,39,Matrix.random(40,40));
+         SUB = S.view(5,24,5,24);
+         Matrix SUB2 = SUB.view(0,9,0,9);
+         SUB.view(10,19,10,19).free();
+         check(SUB.get(10,10),S.get(15,15));
+         T = Matrix.wrapRowPacked(java.nio.FloatBuffer.allocate(16),4,4);
+         Matrix TV = T.view(1,2,1,2);
+         S.free();
+         T.free();
+         Matrix[] dead = {SUB,SUB2,TV};
+         for (int k = 0; k < 4*dead.length; k++) {
+            try {
+               switch (k%4) {
+                  case 0: dead[k/4].get(0,0); break;
+                  case 1: dead[k/4].set(1,1,1.f); break;
+                  case 2: dead[k/4].view(0,1,0,1); break;
+                  default: dead[k/4].copy();
+               }
+               throw new RuntimeException("view used after free");
+            } catch ( java.lang.IllegalStateException x ) {
+               // Expected.
+            }
+         }
+         try_success("views after free off-heap...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"views after free off-heap...",e.getMessage());
+      }
+      try {
+         SUB = M.view(1,4,2,5);
+         SUB.plusEquals(Matrix.identity(4,4).times(4.f));
+         A = SUB.copy();
+         LU = SUB.lu();
+         check(A.getMatrix(LU.getPivot(),0,3),LU.getL().times(LU.getU()));
+         check(SUB.times(SUB.solve(I = Matrix.identity(4,4))),I);
+         QR = B.qr();
+         check(B,QR.getQ().times(QR.getR()));
+         X = Matrix.allocateDirect(4,4);
+         X.setMatrix(0,3,0,3,A.times(A.transpose()));
+         Chol = X.chol();
+         check(Chol.getL().times(Chol.getL().transpose()),X);
+         Eig = X.eig();
+         check(X.times(Eig.getV()),Eig.getV().times(Eig.getD()));
+         check(M.svd().getSingularValues(),new Matrix(M.getArrayCopy()).svd().getSingularValues());
+         try_success("decompositions off-heap...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"decompositions off-heap...",e.getMessage());
+      }
+      try {
+         S = Matrix.random(300,170);
+         T = Matrix.allocateDirect(300,170);
+         T.setMatrix(0,299,0,169,S);
+         int[] ri = {7,0,299}, ci = {169,3};
+         if (!T.copy().isBufferBacked() || !T.plus(T).isBufferBacked()
+               || !T.transpose().times(T).isBufferBacked()
+               || !T.getMatrix(ri,ci).isBufferBacked()) {
+            throw new RuntimeException("result of off-heap arithmetic on the heap");
+         }
+         check(T.getMatrix(ri,ci),S.getMatrix(ri,ci));
+         check(T.getMatrix(1,3,ci),S.getMatrix(1,3,ci));
+         LU = new LUDecomposition(T);
+         if (!LU.getL().isBufferBacked() || !LU.getU().isBufferBacked()) {
+            throw new RuntimeException("LU factors on the heap");
+         }
+         check(S.getMatrix(LU.getPivot(),0,169),product(LU.getL(),LU.getU()));
+         QR = new QRDecomposition(T);
+         if (!QR.getQ().isBufferBacked() || !QR.getR().isBufferBacked()) {
+            throw new RuntimeException("QR factors on the heap");
+         }
+         check(product(QR.getQ(),QR.getR()),S);
+         X = Matrix.allocateDirect(300,40);
+         X.setMatrix(0,299,0,39,R = Matrix.random(300,40));
+         check(QR.solve(X),S.qr().solve(R));
+         check(QR.applyQTranspose(X),S.qr().applyQTranspose(R));
+         A = T.getMatrix(0,169,0,169).plusEquals(Matrix.identity(170,170).times(17.f));
+         B = new Matrix(A.getArrayCopy());
+         LU = LUDecomposition.inPlace(A);
+         if (LU.getU().minus(B.lu().getU()).normInf() > 1e-3f || !A.isBufferBacked()) {
+            throw new RuntimeException("in-place LU off-heap differs");
+         }
+         check(B.times(LU.inverse()),Matrix.identity(170,170));
+         check(B.times(LU.solve(X.getMatrix(0,169,0,39))),R.getMatrix(0,169,0,39));
+         A = T.transpose().times(T).plusEquals(Matrix.identity(170,170).times(1000.f));
+         B = new Matrix(A.getArrayCopy());
+         Chol = CholeskyDecomposition.inPlace(A);
+         if (!Chol.isSPD() || Chol.getL() != A || !A.isBufferBacked()
+               || A.minus(B.chol().getL()).normInf() != 0.f) {
+            throw new RuntimeException("in-place Cholesky off-heap differs");
+         }
+         check(B.times(Chol.solve(X.getMatrix(0,169,0,39))),R.getMatrix(0,169,0,39));
+         check(B.times(Chol.inverse()),Matrix.identity(170,170));
+         T.free();
+         X.free();
+         A.free();
+         try_success("factors off-heap...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"factors off-heap...",e.getMessage());
+      }
+      try {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         ObjectOutputStream out = new ObjectOutputStream(bytes);
+         out.writeObject(M);
+         out.close();
+         ObjectInputStream sin = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+         R = (Matrix) sin.readObject();
+         check(R,M);
+         try_success("serialization off-heap...","");
+      } catch ( java.lang.Exception e ) {
+         errorCount = try_failure(errorCount,"serialization off-heap...",e.getMessage());
+      }
+
+      print("\nTesting kernels...f\n");
+      try {
+         // Kernels is package-private:  compare the loaded implementation
+         // K with a plain instance of the scalar loops through reflection.
+         Class<?> kernels = Class.forName("com.github.sikoried.fjama.Kernels");
+         java.lang.reflect.Field kfield = kernels.getDeclaredField("K");
+         kfield.setAccessible(true);
+         Object KV = kfield.get(null);
+         java.lang.reflect.Constructor<?> kinit = kernels.getDeclaredConstructor();
+         kinit.setAccessible(true);
+         Object KS = kinit.newInstance();
+         boolean vector;
+         try {
+            Class.forName("com.github.sikoried.fjama.VectorKernels");
+            vector = Boolean.parseBoolean(System.getProperty("fjama.vector","true"));
+         } catch ( java.lang.ClassNotFoundException e ) {
+            vector = false;
+         } catch ( java.lang.LinkageError e ) {
+            vector = false;
+         }
+         String kname = (String) kernel(kernels,"name",new Class<?>[0]).invoke(KV);
+         if (kname.startsWith("vector") != vector) {
+            throw new RuntimeException("loaded " + kname + " kernels");
+         }
+         Class<?> fa = float[].class, in = int.class, fl = float.class;
+         Class<?>[] binary = {fa,in,fa,in,fa,in,in}, unary = {fa,in,fa,in,in};
+         String[] binaries = {"add","sub","mul","div","subMul"};
+         int[] lengths = {0,1,3,7,8,15,16,17,31,33,67};
+         for (int q = 0; q < lengths.length; q++) {
+            int len = lengths[q], ka = 1+q%3, kb = 2*(q%2), kc = 5;
+            float[] xa = new float[ka+len], xb = new float[kb+len], xc = new float[kc+len];
+            for (int i = 0; i < xa.length; i++) xa[i] = 0.5f+(float) Math.random();
+            for (int i = 0; i < xb.length; i++) xb[i] = 0.5f+(float) Math.random();
+            for (int i = 0; i < xc.length; i++) xc[i] = (float) Math.random();
+            for (int k = 0; k < binaries.length; k++) {
+               float[] cv = xc.clone(), cs = xc.clone();
+               kernel(kernels,binaries[k],binary).invoke(KV,xa,ka,xb,kb,cv,kc,len);
+               kernel(kernels,binaries[k],binary).invoke(KS,xa,ka,xb,kb,cs,kc,len);
+               if (!java.util.Arrays.equals(cv,cs)) {
+                  throw new RuntimeException(binaries[k] + " differs for " + len + " elements");
+               }
+            }
+            float[] cv = xc.clone(), cs = xc.clone();
+            kernel(kernels,"scale",new Class<?>[] {fl,fa,in,fa,in,in}).invoke(KV,0.3f,xa,ka,cv,kc,len);
+            kernel(kernels,"scale",new Class<?>[] {fl,fa,in,fa,in,in}).invoke(KS,0.3f,xa,ka,cs,kc,len);
+            kernel(kernels,"negate",unary).invoke(KV,xb,kb,cv,kc,len);
+            kernel(kernels,"negate",unary).invoke(KS,xb,kb,cs,kc,len);
+            kernel(kernels,"axpy",new Class<?>[] {fl,fa,in,fa,in,in}).invoke(KV,-1.7f,xa,ka,cv,kc,len);
+            kernel(kernels,"axpy",new Class<?>[] {fl,fa,in,fa,in,in}).invoke(KS,-1.7f,xa,ka,cs,kc,len);
+            if (!java.util.Arrays.equals(cv,cs)) {
+               throw new RuntimeException("scale, negate or axpy differs for " + len + " elements");
+            }
+            float dv = (Float) kernel(kernels,"dot",new Class<?>[] {fa,in,fa,in,in}).invoke(KV,xa,ka,xb,kb,len);
+            float ds = (Float) kernel(kernels,"dot",new Class<?>[] {fa,in,fa,in,in}).invoke(KS,xa,ka,xb,kb,len);
+            if (Math.abs(dv-ds) > len*Math.ulp(ds)) {
+               throw new RuntimeException("dot differs for " + len + " elements");
+            }
+            int kt = 1+len;
+            float[] ap = new float[3+4*kt], bp = new float[1+4*kt], tv = new float[16], ts = new float[16];
+            for (int i = 0; i < ap.length; i++) ap[i] = (float) Math.random();
+            for (int i = 0; i < bp.length; i++) bp[i] = (float) Math.random();
+            kernel(kernels,"tile",new Class<?>[] {in,fa,in,fa,in,fa}).invoke(KV,kt,ap,3,bp,1,tv);
+            kernel(kernels,"tile",new Class<?>[] {in,fa,in,fa,in,fa}).invoke(KS,kt,ap,3,bp,1,ts);
+            for (int i = 0; i < 16; i++) {
+               if (Math.abs(tv[i]-ts[i]) > kt*Math.ulp(ts[i])) {
+                  throw new RuntimeException("tile differs for kc = " + kt);
+               }
+            }
+         }
+         try_success("Kernels (" + kname + ")...","");
+      } catch ( java.lang.Exception e ) {
+         Throwable cause = (e.getCause() != null ? e.getCause() : e);
+         errorCount = try_failure(errorCount,"Kernels...",cause.toString());
+      }
+
+      print("\nTesting arithmetic into a given matrix...f\n");
+      A = Matrix.random(6,5);
+      B = Matrix.random(6,5);
+      X = new Matrix(6,5);
+      try {
+         check(A.plusInto(B,X),A.plus(B));
+         check(A.minusInto(B,X),A.minus(B));
+         check(A.arrayTimesInto(B,X),A.arrayTimes(B));
+         check(A.arrayRightDivideInto(B,X),A.arrayRightDivide(B));
+         check(A.arrayLeftDivideInto(B,X),A.arrayLeftDivide(B));
+         check(A.timesInto(3.f,X),A.times(3.f));
+         check(A.uminusInto(X),A.uminus());
+         T = new Matrix(5,6);
+         check(A.transposeInto(T),A.transpose());
+         R = Matrix.allocateDirect(6,6);
+         check(A.timesInto(T,R),A.times(T));
+         check(A.timesInto(T,R),A.times(T));
+         R.free();
+         C = A.copy();
+         check(C.plusInto(B,C),A.plus(B));
+         try_success("into a given matrix...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"into a given matrix...",e.getMessage());
+      }
+      M = Matrix.wrapRowPacked(new float[7*5],7,5);
+      try {
+         SUB = M.view(0,5,0,4);
+         SUB.plusInto(M.view(0,5,0,4),M.view(0,5,0,4));
+         M.view(1,6,0,4).plusInto(SUB,SUB);
+         errorCount = try_failure(errorCount,"plusInto overlapping...","IllegalArgumentException expected but not thrown");
+      } catch ( java.lang.IllegalArgumentException e ) {
+         try_success("plusInto overlapping IllegalArgumentException...","");
+      }
+      try {
+         X.timesInto(X.transpose(),new Matrix(6,5));
+         errorCount = try_failure(errorCount,"timesInto dimensions...","IllegalArgumentException expected but not thrown");
+      } catch ( java.lang.IllegalArgumentException e ) {
+         try_success("timesInto dimensions IllegalArgumentException...","");
+      }
+      try {
+         SQ = Matrix.random(4,4);
+         SQ.timesInto(SQ,SQ);
+         errorCount = try_failure(errorCount,"timesInto aliased...","IllegalArgumentException expected but not thrown");
+      } catch ( java.lang.IllegalArgumentException e ) {
+         try_success("timesInto aliased IllegalArgumentException...","");
+      }
+
+      print("\nTesting gemm...f\n");
+      try {
+         S = Matrix.random(131,70);
+         T = Matrix.random(131,90);
+         C = Matrix.random(70,90);
+         X = C.times(.5f).plus(product(S.transpose(),T).times(2.f));
+         check(Matrix.gemm(true,false,2.f,S,T,.5f,C),X);
+         T = Matrix.random(90,70);
+         C = new Matrix(131,90,Float.NaN);
+         check(Matrix.gemm(false,true,-1.f,S,T,0.f,C),product(S,T.transpose()).uminus());
+         S = Matrix.random(9,7);
+         T = Matrix.random(5,9);
+         C = Matrix.random(7,5);
+         X = C.plus(product(S.transpose(),T.transpose()));
+         check(Matrix.gemm(true,true,1.f,S,T,1.f,C),X);
+         C = Matrix.allocateDirect(7,5);
+         check(Matrix.gemm(true,true,1.f,S,T,0.f,C),product(S.transpose(),T.transpose()));
+         C.free();
+         S = Matrix.random(300,250);
+         C = new Matrix(250,250);
+         check(Matrix.gemm(true,false,1.f,S,S,0.f,C),product(S.transpose(),S));
+         java.util.concurrent.ForkJoinPool gemmpool = new java.util.concurrent.ForkJoinPool(3);
+         X = Matrix.gemm(true,false,1.f,S,S,0.f,new Matrix(250,250),1);
+         C = new Matrix(250,250,Float.NaN);
+         if (Matrix.gemm(true,false,1.f,S,S,0.f,C,gemmpool).minus(X).normInf() != 0.f
+               || Matrix.gemm(true,false,1.f,S,S,0.f,new Matrix(250,250),4).minus(X).normInf() != 0.f) {
+            throw new RuntimeException("parallel gemm differs");
+         }
+         C = Matrix.random(250,250);
+         X = Matrix.gemm(true,false,1.f,S,S,-2.f,C.copy(),1);
+         if (X.minus(Matrix.gemm(true,false,1.f,S,S,1.f,C.times(-2.f),1)).normInf() != 0.f
+               || Matrix.gemm(true,false,1.f,S,S,-2.f,C,gemmpool).minus(X).normInf() != 0.f) {
+            throw new RuntimeException("parallel gemm differs");
+         }
+         S = Matrix.random(9,7);
+         C = new Matrix(9,9,Float.NaN);
+         check(Matrix.gemm(false,true,1.f,S,S,0.f,C),product(S,S.transpose()));
+         C = new Matrix(7,7,Float.NaN);
+         check(Matrix.gemm(true,false,1.f,S,S,0.f,C),product(S.transpose(),S));
+         C = Matrix.allocateDirect(7,7);
+         C.setMatrix(0,6,0,6,new Matrix(7,7,Float.NaN));
+         check(Matrix.gemm(true,false,1.f,S,S,0.f,C),product(S.transpose(),S));
+         C.setMatrix(0,6,0,6,new Matrix(7,7,Float.NaN));
+         check(Matrix.gemm(true,false,0.f,S,S,0.f,C),new Matrix(7,7));
+         C.free();
+         T = Matrix.random(7,300);
+         if (S.timesInto(T,new Matrix(9,300,Float.NaN),gemmpool).minus(S.times(T)).normInf() != 0.f
+               || S.timesInto(T,new Matrix(9,300),2).minus(S.times(T)).normInf() != 0.f) {
+            throw new RuntimeException("timesInto on a pool differs");
+         }
+         gemmpool.shutdown();
+         try_success("gemm...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"gemm...",e.getMessage());
+      }
+      try {
+         Matrix.gemm(true,false,1.f,S,S.transpose(),0.f,C);
+         errorCount = try_failure(errorCount,"gemm inner dimensions...","IllegalArgumentException expected but not thrown");
+      } catch ( java.lang.IllegalArgumentException e ) {
+         try_success("gemm inner dimensions IllegalArgumentException...","");
+      }
+
+      print("\nTesting timesStrassen...f\n");
+      try {
+         S = Matrix.random(131,75);
+         T = Matrix.random(75,97);
+         check(S.timesStrassen(T,16),product(S,T));
+         check(S.timesStrassen(T,40),product(S,T));
+         check(S.timesStrassen(T),product(S,T));
+         M = Matrix.wrapRowPacked(new float[256*256],256,256);
+         M.setMatrix(0,255,0,255,Matrix.random(256,256));
+         check(M.timesStrassen(M,32),product(M,M));
+         try_success("timesStrassen...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"timesStrassen...",e.getMessage());
+      }
+
+      print("\nTesting matrix-vector products...f\n");
+      try {
+         S = Matrix.random(37,29);
+         float[] xvec = Matrix.random(29,1).getColumnPackedCopy();
+         float[] yvec = new float[37];
+         check(S.times(xvec,yvec),product(S,new Matrix(xvec,29)).getColumnPackedCopy());
+         check(S.transposeTimes(yvec,xvec),product(S.transpose(),new Matrix(yvec,37)).getColumnPackedCopy());
+         T = Matrix.allocateDirect(37,29);
+         T.setMatrix(0,36,0,28,S);
+         check(T.times(xvec,new float[37]),S.times(xvec,yvec));
+         check(T.transposeTimes(yvec,new float[29]),S.transposeTimes(yvec,xvec));
+         T.free();
+         try_success("times(float[],float[]), transposeTimes...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"times(float[],float[]), transposeTimes...",e.getMessage());
+      }
+      try {
+         SQ = Matrix.random(4,4);
+         float[] xvec = new float[4];
+         SQ.times(xvec,xvec);
+         errorCount = try_failure(errorCount,"times(float[],float[]) aliased...","IllegalArgumentException expected but not thrown");
+      } catch ( java.lang.IllegalArgumentException e ) {
+         try_success("times(float[],float[]) aliased IllegalArgumentException...","");
+      }
+
+      print("\nTesting blocked LU...f\n");
+      try {
+         int[][] shapes = {{300,300},{300,170}};
+         for (int q = 0; q < shapes.length; q++) {
+            S = Matrix.random(shapes[q][0],shapes[q][1]);
+            LU = S.lu();
+            int r = Math.min(shapes[q][0],shapes[q][1]);
+            check(S.getMatrix(LU.getPivot(),0,r-1),product(LU.getL(),LU.getU()).getMatrix(0,shapes[q][0]-1,0,r-1));
+         }
+         S = Matrix.random(260,260);
+         S.setMatrix(0,259,140,140,new Matrix(260,1));
+         LU = S.lu();
+         check(S.getMatrix(LU.getPivot(),0,259),product(LU.getL(),LU.getU()));
+         if (LU.isNonsingular()) {
+            throw new RuntimeException("matrix with a zero column is nonsingular");
+         }
+         T = Matrix.random(260,3);
+         S = Matrix.random(260,260).plusEquals(Matrix.identity(260,260).times(26.f));
+         check(S.times(S.lu().solve(T)),T);
+         try_success("blocked LU...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"blocked LU...",e.getMessage());
+      }
+
+      print("\nTesting parallel LU...f\n");
+      try {
+         java.util.concurrent.ForkJoinPool lupool = new java.util.concurrent.ForkJoinPool(4);
+         int[][] shapes = {{700,600},{450,700},{390,390}};
+         for (int q = 0; q < shapes.length; q++) {
+            S = Matrix.random(shapes[q][0],shapes[q][1]);
+            LU = S.lu();
+            LUDecomposition PLU = new LUDecomposition(S,lupool);
+            if (!java.util.Arrays.equals(LU.getPivot(),PLU.getPivot())) {
+               throw new RuntimeException("pivots differ from the serial factorization");
+            }
+            if (LU.getL().minus(PLU.getL()).normInf() != 0.f || (q == 2 && LU.det() != PLU.det())) {
+               throw new RuntimeException("factors differ from the serial factorization");
+            }
+         }
+         S.plusEquals(Matrix.identity(390,390).times(39.f));
+         check(S.times(new LUDecomposition(S,lupool,3).solve(I = Matrix.identity(390,390))),I);
+         T = Matrix.allocateDirect(390,390);
+         T.setMatrix(0,389,0,389,S);
+         LU = new LUDecomposition(T);
+         LUDecomposition PLU = new LUDecomposition(T,lupool);
+         if (!java.util.Arrays.equals(LU.getPivot(),PLU.getPivot())
+               || LU.getU().minus(PLU.getU()).normInf() != 0.f) {
+            throw new RuntimeException("off-heap factors differ from the serial factorization");
+         }
+         T.free();
+         lupool.shutdown();
+         try_success("LUDecomposition(Matrix,ForkJoinPool)...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"LUDecomposition(Matrix,ForkJoinPool)...",e.getMessage());
+      }
+
+      print("\nTesting in-place decompositions...f\n");
+      try {
+         S = Matrix.random(60,40);
+         T = S.copy();
+         LUDecomposition ipLU = LUDecomposition.inPlace(T);
+         if (T.minus(S).normInf() == 0.f
+               || !java.util.Arrays.equals(ipLU.getPivot(),S.lu().getPivot())
+               || ipLU.getL().minus(S.lu().getL()).normInf() != 0.f) {
+            throw new RuntimeException("in-place LU differs");
+         }
+         T = S.copy();
+         QRDecomposition ipQR = QRDecomposition.inPlace(T);
+         if (ipQR.getR().minus(S.qr().getR()).normInf() != 0.f) {
+            throw new RuntimeException("in-place QR differs");
+         }
+         T = S.copy();
+         if (!java.util.Arrays.equals(SingularValueDecomposition.inPlace(T).getSingularValues(),
+                                      S.svd().getSingularValues())) {
+            throw new RuntimeException("in-place SVD differs");
+         }
+         S = S.transpose().times(S).plus(Matrix.identity(40,40));
+         T = S.copy();
+         CholeskyDecomposition ipChol = CholeskyDecomposition.inPlace(T);
+         if (!ipChol.isSPD() || ipChol.getL() != T
+               || T.minus(S.chol().getL()).normInf() != 0.f) {
+            throw new RuntimeException("in-place Cholesky differs");
+         }
+         T = S.copy();
+         EigenvalueDecomposition ipEig = EigenvalueDecomposition.inPlace(T);
+         if (!java.util.Arrays.equals(ipEig.getRealEigenvalues(),S.eig().getRealEigenvalues())
+               || ipEig.getV().minus(S.eig().getV()).normInf() != 0.f) {
+            throw new RuntimeException("in-place eigenvalue decomposition differs");
+         }
+         T = S.minus(S.transpose().times(0.5f));
+         EigenvalueDecomposition nsEig = EigenvalueDecomposition.inPlace(T.copy());
+         if (!java.util.Arrays.equals(nsEig.getImagEigenvalues(),T.eig().getImagEigenvalues())) {
+            throw new RuntimeException("in-place eigenvalue decomposition differs");
+         }
+         T = Matrix.allocateDirect(40,40);
+         T.setMatrix(0,39,0,39,S);
+         M = Matrix.wrapRowPacked(S.getRowPackedCopy(),40,40);
+         SingularValueDecomposition.inPlace(T);
+         EigenvalueDecomposition.inPlace(T);
+         SingularValueDecomposition.inPlace(M);
+         EigenvalueDecomposition.inPlace(M);
+         if (!T.isBufferBacked() || !M.isRowPacked()
+               || T.minus(S).normInf() != 0.f || M.minus(S).normInf() != 0.f) {
+            throw new RuntimeException("in-place SVD or eigenvalue decomposition changed the storage");
+         }
+         T.free();
+         try_success("inPlace...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"inPlace...",e.getMessage());
+      }
+
+      print("\nTesting cached decompositions...f\n");
+      try {
+         S = Matrix.wrapRowPacked(new float[20*20],20,20).copy();
+         S.setMatrix(0,19,0,19,Matrix.random(20,20).plus(Matrix.identity(20,20).times(11.f)));
+         float d0 = S.det();
+         check(S.det(),d0);
+         check(S.times(S.solve(I = Matrix.identity(20,20))),I);
+         S.set(0,0,S.get(0,0)+1.f);
+         check(S.det(),new LUDecomposition(S).det());
+         S.view(5,9,5,9).timesEquals(2.f);
+         check(S.det(),new LUDecomposition(S).det());
+         check(S.inverse(),new LUDecomposition(S).solve(I));
+         S.plusEquals(I);
+         check(S.cond(),new SingularValueDecomposition(S).cond());
+         Matrix.gemm(false,false,1.f,I,I,1.f,S);
+         check(S.norm2(),new SingularValueDecomposition(S).norm2());
+         if (S.rank() != 20) {
+            throw new RuntimeException("rank of a full rank matrix");
+         }
+         T = S.copy();
+         LUDecomposition.inPlace(S);
+         if (S.det() == T.det()) {
+            throw new RuntimeException("decomposition of a consumed matrix reused");
+         }
+         float[][] wvals = {{2.f,0.f},{0.f,2.f}};
+         Matrix WA = new Matrix(wvals);
+         check(WA.det(),4.f);
+         wvals[0][0] = 5.f;
+         check(WA.det(),10.f);
+         WA = Matrix.identity(2,2).times(2.f);
+         check(WA.det(),4.f);
+         float[][] wg = WA.getArray();
+         check(WA.det(),4.f);
+         wg[1][1] = 7.f;
+         check(WA.det(),14.f);
+         float[] wpacked = {2.f,0.f,0.f,2.f};
+         WA = Matrix.wrapRowPacked(wpacked,2,2);
+         check(WA.det(),4.f);
+         wpacked[3] = 3.f;
+         check(WA.det(),6.f);
+         check(WA.view(0,1,0,1).det(),6.f);
+         wpacked[3] = 4.f;
+         check(WA.view(0,1,0,1).solve(Matrix.identity(2,2)).get(1,1),0.25f);
+         final Matrix CS = T.copy(), CI = Matrix.identity(20,20);
+         Matrix CX = new LUDecomposition(CS).solve(CI).times(new LUDecomposition(CS).det());
+         java.util.List<java.util.concurrent.Callable<Matrix>> readers = new java.util.ArrayList<java.util.concurrent.Callable<Matrix>>();
+         for (int t = 0; t < 16; t++) {
+            readers.add(new java.util.concurrent.Callable<Matrix>() {
+               public Matrix call () {
+                  return CS.solve(CI).times(CS.det());
+               }
+            });
+         }
+         java.util.concurrent.ForkJoinPool cachepool = new java.util.concurrent.ForkJoinPool(4);
+         try {
+            for (java.util.concurrent.Future<Matrix> f : cachepool.invokeAll(readers)) {
+               if (f.get().minus(CX).normInf() != 0.f) {
+                  throw new RuntimeException("concurrently cached decompositions differ");
+               }
+            }
+         } catch ( java.lang.InterruptedException | java.util.concurrent.ExecutionException x ) {
+            throw new RuntimeException(x.toString());
+         } finally {
+            cachepool.shutdown();
+         }
+         try_success("cached decompositions...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"cached decompositions...",e.getMessage());
+      }
+
+      print("\nTesting blocked triangular solves...f\n");
+      try {
+         java.util.concurrent.ForkJoinPool rhspool = new java.util.concurrent.ForkJoinPool(4);
+         S = Matrix.random(300,300).plus(Matrix.identity(300,300).times(151.f));
+         T = Matrix.random(300,700);
+         LU = S.lu();
+         CholeskyDecomposition SPD = S.transpose().times(S).chol();
+         Matrix XL = LU.solve(T);
+         check(S.times(XL),T);
+         Matrix XC = SPD.solve(T);
+         check(S.transpose().times(S.times(XC)),T);
+         if (LU.solve(T,rhspool).minus(XL).normInf() != 0.f
+               || SPD.solve(T,rhspool).minus(XC).normInf() != 0.f) {
+            throw new RuntimeException("parallel solve differs");
+         }
+         for (int j = 0; j < 700; j += 233) {
+            Matrix t = T.getMatrix(0,299,j,j);
+            if (LU.solve(t).minus(XL.getMatrix(0,299,j,j)).normInf() != 0.f
+                  || SPD.solve(t).minus(XC.getMatrix(0,299,j,j)).normInf() != 0.f) {
+               throw new RuntimeException("column solved differently in a block");
+            }
+         }
+         rhspool.shutdown();
+         try_success("solve with many right hand sides...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"solve with many right hand sides...",e.getMessage());
+      }
+
+      print("\nTesting iterative refinement...f\n");
+      try {
+         for (int h = 5; h <= 9; h += 4) {
+            // Hilbert matrices, cond(H5) = 5e5 is within reach of the float
+            // factors, cond(H9) = 5e11 is not.
+            S = new Matrix(h,h);
+            for (int i = 0; i < h; i++) {
+               for (int j = 0; j < h; j++) {
+                  S.set(i,j,1.f/(i+j+1));
+               }
+            }
+            double[][] b = new double[h][1];
+            for (int i = 0; i < h; i++) {
+               for (int j = 0; j < h; j++) {
+                  b[i][0] += S.get(i,j);
+               }
+            }
+            IterativeRefinement IR = S.solveRefined(b);
+            if (IR.isRefined() != (h == 5)) {
+               throw new RuntimeException("refinement of H" + h + " should " + (h == 5 ? "converge" : "stall"));
+            }
+            for (int i = 0; i < h; i++) {
+               if (Math.abs(IR.getSolution()[i][0]-1.0) > (h == 5 ? 1e-9 : 1e-5)) {
+                  throw new RuntimeException("refined solution not accurate");
+               }
+            }
+            if (IR.getBackwardError() > 1e-15) {
+               throw new RuntimeException("backward error too large");
+            }
+         }
+         S = Matrix.random(40,40).plus(Matrix.identity(40,40).times(21.f));
+         T = Matrix.random(40,3);
+         check(S.solveRefined(T).getX(),S.solve(T));
+         try_success("solveRefined...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"solveRefined...",e.getMessage());
+      }
+
+      print("\nTesting LU updates...f\n");
+      try {
+         S = Matrix.random(60,60).plus(Matrix.identity(60,60).times(31.f));
+         T = Matrix.random(60,4);
+         LU = S.lu();
+
+         // Change row 7, then column 20, then three random columns.
+         Matrix r = Matrix.random(1,60), e = new Matrix(60,1);
+         e.set(7,0,1.f);
+         LU.update(e,r.transpose());
+         S.setMatrix(7,7,0,59,S.getMatrix(7,7,0,59).plus(r));
+         Matrix c = Matrix.random(60,1);
+         e = new Matrix(60,1);
+         e.set(20,0,1.f);
+         LU.update(c,e);
+         S.setMatrix(0,59,20,20,S.getMatrix(0,59,20,20).plus(c));
+         Matrix U3 = Matrix.random(60,3), V3 = Matrix.random(60,3).times(0.1f);
+         LU.update(U3,V3);
+         S.plusEquals(U3.times(V3.transpose()));
+         check(LU.solve(T),S.lu().solve(T));
+         check(LU.det(),S.det());
+         if (LU.getUpdateRank() != 5 || LU.needsRefactorization()) {
+            throw new RuntimeException("five small updates need no refactorization");
+         }
+         for (int k = 0; k < 4; k++) {
+            LU.update(Matrix.random(60,1),Matrix.random(60,1).times(0.1f));
+         }
+         if (!LU.needsRefactorization()) {
+            throw new RuntimeException("rank 9 updates of a 60-by-60 matrix need a refactorization");
+         }
+
+         // Make column 0 almost dependent:  A + u*e0' with u = -(1-1e-4)*A(:,0).
+         LU = S.lu();
+         e = new Matrix(60,1);
+         e.set(0,0,1.f);
+         LU.update(S.getMatrix(0,59,0,0).times(-0.9999f),e);
+         if (!LU.needsRefactorization()) {
+            throw new RuntimeException("nearly singular update not detected");
+         }
+         try_success("update...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"update...",e.getMessage());
+      }
+
+      print("\nTesting batched LU...f\n");
+      try {
+         java.util.concurrent.ForkJoinPool batchpool = new java.util.concurrent.ForkJoinPool(4);
+         int[] dims = {3,8};
+         for (int q = 0; q < dims.length; q++) {
+            int nb = dims[q], count = 2500;
+            float[] batch = new float[nb*nb*count], rhs = new float[nb*2*count];
+            for (int i = 0; i < batch.length; i++) {
+               batch[i] = (float) Math.random();
+            }
+            for (int i = 0; i < rhs.length; i++) {
+               rhs[i] = (float) Math.random();
+            }
+            BatchedLU BLU = new BatchedLU(batch,nb,count);
+            float[] dets = BLU.det(), sol = BLU.solve(rhs,2);
+            for (int k = 0; k < count; k += 97) {
+               Matrix Ak = new Matrix(nb,nb), Bk = new Matrix(nb,2);
+               for (int i = 0; i < nb; i++) {
+                  for (int j = 0; j < nb; j++) {
+                     Ak.set(i,j,batch[(i*nb+j)*count+k]);
+                  }
+                  for (int j = 0; j < 2; j++) {
+                     Bk.set(i,j,rhs[(i*2+j)*count+k]);
+                  }
+               }
+               LU = Ak.lu();
+               if (!java.util.Arrays.equals(LU.getPivot(),BLU.getPivot(k)) || LU.det() != dets[k]
+                     || LU.getL().minus(BLU.getL(k)).normInf() != 0.f
+                     || LU.getU().minus(BLU.getU(k)).normInf() != 0.f) {
+                  throw new RuntimeException("factors differ from LUDecomposition");
+               }
+               Matrix Xk = LU.solve(Bk);
+               for (int i = 0; i < nb; i++) {
+                  for (int j = 0; j < 2; j++) {
+                     if (Xk.get(i,j) != sol[(i*2+j)*count+k]) {
+                        throw new RuntimeException("solution differs from LUDecomposition");
+                     }
+                  }
+               }
+            }
+            BatchedLU PLU = BatchedLU.inPlace(batch.clone(),nb,count,batchpool);
+            if (!java.util.Arrays.equals(PLU.det(),dets)
+                  || !java.util.Arrays.equals(PLU.solve(rhs,2,batchpool),sol)) {
+               throw new RuntimeException("parallel batch differs");
+            }
+         }
+         batchpool.shutdown();
+         try_success("BatchedLU...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"BatchedLU...",e.getMessage());
+      }
+
+      print("\nTesting direct inverse...f\n");
+      try {
+         int ni = 150;
+         I = Matrix.identity(ni,ni);
+         S = Matrix.random(ni,ni).plus(I.times(ni/10.f));
+         LU = S.lu();
+         check(LU.inverse(),LU.solve(I));
+         check(S.times(S.inverse()),I);
+         T = Matrix.wrapRowPacked(new float[(ni+3)*ni],3,ni,ni,ni+3);
+         T.setMatrix(0,ni-1,0,ni-1,S);
+         java.util.concurrent.ForkJoinPool invpool = new java.util.concurrent.ForkJoinPool(2);
+         check(T.lu().inverse(invpool),LU.solve(I));
+         invpool.shutdown();
+         M = S.transpose().times(S);
+         CholeskyDecomposition CI = M.chol();
+         Matrix MI = CI.inverse();
+         check(MI,CI.solve(I));
+         if (MI.minus(MI.transpose()).normInf() != 0.f) {
+            throw new RuntimeException("inverse of a symmetric matrix is not symmetric");
+         }
+         Matrix UI = Matrix.random(ni,2), VI = Matrix.random(ni,2);
+         LU.update(UI,VI);
+         check(LU.inverse(),S.plus(UI.times(VI.transpose())).lu().solve(I));
+         try {
+            new Matrix(3,3).lu().inverse();
+            throw new IllegalStateException("inverse of a singular matrix");
+         } catch ( java.lang.RuntimeException e ) {
+            if (e instanceof IllegalStateException) {
+               throw e;
+            }
+         }
+         try_success("LUDecomposition.inverse(), CholeskyDecomposition.inverse()...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"LUDecomposition.inverse(), CholeskyDecomposition.inverse()...",e.getMessage());
+      }
+
+      print("\nTesting blocked QR...f\n");
+      try {
+         int mq = 150, nq = 90;
+         S = Matrix.random(mq,nq);
+         T = Matrix.wrapRowPacked(new float[mq*nq],mq,nq);
+         T.setMatrix(0,mq-1,0,nq-1,S);
+         QRDecomposition BQR = S.qr();
+         Matrix Q = BQR.getQ();
+         check(Q.times(BQR.getR()),S);
+         check(Q.transpose().times(Q),Matrix.identity(nq,nq));
+         if (T.qr().getR().minus(BQR.getR()).normInf() != 0.f
+               || QRDecomposition.inPlace(T).getH().minus(BQR.getH()).normInf() != 0.f) {
+            throw new RuntimeException("factors depend on the storage");
+         }
+         Matrix BQ = Matrix.random(mq,3);
+         check(BQR.solve(BQ),S.transpose().times(S).chol().solve(S.transpose().times(BQ)));
+         int[][] wide = {{5,40},{40,50}};
+         for (int q = 0; q < wide.length; q++) {
+            mq = wide[q][0];
+            nq = wide[q][1];
+            S = Matrix.random(mq,nq);
+            BQR = S.qr();
+            Matrix QtS = BQR.applyQTranspose(S);
+            for (int i = 0; i < mq; i++) {
+               for (int j = 0; j < i; j++) {
+                  if (Math.abs(QtS.get(i,j)) > 1e-4f) {
+                     throw new RuntimeException("Q'*A is not upper trapezoidal");
+                  }
+               }
+            }
+            check(BQR.applyQ(QtS),S);
+            check(BQR.applyQ(QtS.getMatrix(0,mq-1,0,2)),S.getMatrix(0,mq-1,0,2));
+            if (BQR.isFullRank() || BQR.getH().getColumnDimension() != nq) {
+               throw new RuntimeException("wide QR reported full rank");
+            }
+            try {
+               BQR.solve(Matrix.random(mq,2));
+               throw new RuntimeException("wide QR solved");
+            } catch ( java.lang.RuntimeException e ) {
+               if (!"Matrix is rank deficient.".equals(e.getMessage())) {
+                  throw e;
+               }
+            }
+         }
+         try_success("blocked QRDecomposition...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"blocked QRDecomposition...",e.getMessage());
+      }
+
+      print("\nTesting pivoted QR...f\n");
+      try {
+         S = Matrix.random(60,25).times(Matrix.random(25,40));
+         PivotedQRDecomposition PQR = S.qrp();
+         int[] pcols = PQR.getPivot();
+         Matrix Q = PQR.getQ(), RP = PQR.getR();
+         check(Q.times(RP),S.getMatrix(0,59,pcols));
+         check(Q.transpose().times(Q),Matrix.identity(40,40));
+         for (int k = 1; k < 40; k++) {
+            if (Math.abs(RP.get(k,k)) > Math.abs(RP.get(k-1,k-1))*1.001f) {
+               throw new RuntimeException("diagonal of R increases");
+            }
+         }
+         if (PQR.rank() != 25 || S.rank() != 25 || S.transpose().qrp().rank() != 25) {
+            throw new RuntimeException("incorrect rank " + PQR.rank());
+         }
+         Matrix BP = S.times(Matrix.random(40,2));
+         X = PQR.solve(BP);
+         check(S.times(X),BP);
+         for (int k = 25; k < 40; k++) {
+            if (X.get(pcols[k],0) != 0.f || X.get(pcols[k],1) != 0.f) {
+               throw new RuntimeException("basic solution has too many nonzeros");
+            }
+         }
+         S = Matrix.random(50,30);
+         BP = Matrix.random(50,2);
+         check(S.qrp().solve(BP),S.qr().solve(BP));
+         try_success("PivotedQRDecomposition...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"PivotedQRDecomposition...",e.getMessage());
+      }
+
+      print("\nTesting implicit Q...f\n");
+      try {
+         S = Matrix.random(120,70);
+         QRDecomposition IQR = S.qr();
+         Matrix Q = IQR.getQ();
+         int[] widths = {3,50};
+         for (int q = 0; q < widths.length; q++) {
+            Matrix BQ = Matrix.random(120,widths[q]);
+            Matrix QtB = IQR.applyQTranspose(BQ);
+            check(QtB.getMatrix(0,69,0,widths[q]-1),Q.transpose().times(BQ));
+            check(IQR.applyQ(QtB),BQ);
+            Matrix YQ = new Matrix(120,widths[q]);
+            YQ.setMatrix(0,69,0,widths[q]-1,Matrix.random(70,widths[q]));
+            check(IQR.applyQ(YQ),Q.times(YQ.getMatrix(0,69,0,widths[q]-1)));
+            T = Matrix.allocateDirect(120,widths[q]);
+            T.setMatrix(0,119,0,widths[q]-1,BQ);
+            if (IQR.applyQTransposeInPlace(T) != T || T.minus(QtB).normInf() != 0.f) {
+               throw new RuntimeException("in-place product differs");
+            }
+         }
+         try_success("applyQ, applyQTranspose...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"applyQ, applyQTranspose...",e.getMessage());
+      }
+
+      print("\nTesting tall and skinny QR...f\n");
+      try {
+         S = Matrix.random(9000,100);
+         TSQRDecomposition TQR = new TSQRDecomposition(S);
+         QRDecomposition HQR = S.qr();
+         Matrix RT = TQR.getR(), Q = TQR.getQ(), QH = HQR.getQ();
+         I = Matrix.identity(100,100);
+         if (Q.times(RT).minus(S).norm1() > 2*QH.times(HQR.getR()).minus(S).norm1()
+               || Q.transpose().times(Q).minus(I).norm1() > 2*QH.transpose().times(QH).minus(I).norm1()) {
+            throw new RuntimeException("less accurate than QRDecomposition");
+         }
+         Matrix BT = Matrix.random(9000,2);
+         check(TQR.applyQ(TQR.applyQTranspose(BT)),BT);
+         float rt = S.times(TQR.solve(BT)).minus(BT).normF(), rh = S.times(HQR.solve(BT)).minus(BT).normF();
+         if (Math.abs(rt-rh) > 1e-4f*rh) {
+            throw new RuntimeException("least squares residual " + rt + " instead of " + rh);
+         }
+         java.util.concurrent.ForkJoinPool tsqrpool = new java.util.concurrent.ForkJoinPool(3);
+         TSQRDecomposition PQR = new TSQRDecomposition(Matrix.wrapRowPacked(S.getRowPackedCopy(),9000,100),tsqrpool);
+         tsqrpool.shutdown();
+         if (PQR.getR().minus(RT).normInf() != 0.f || PQR.solve(BT).minus(TQR.solve(BT)).normInf() != 0.f) {
+            throw new RuntimeException("parallel factorization differs");
+         }
+         try_success("TSQRDecomposition...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"TSQRDecomposition...",e.getMessage());
+      }
+
+      print("\nTesting incremental least squares...f\n");
+      try {
+         S = Matrix.random(60,8);
+         Matrix BL = Matrix.random(60,2);
+         IncrementalLeastSquares ILS = new IncrementalLeastSquares(8,2);
+         float[] arow = new float[8], brow = new float[2];
+         for (int i = 0; i < 40; i++) {
+            ILS.add(S.getMatrix(i,i,0,7).getRowPackedCopy(),BL.getMatrix(i,i,0,1).getRowPackedCopy());
+         }
+         check(ILS.solve(),S.getMatrix(0,39,0,7).qr().solve(BL.getMatrix(0,39,0,1)));
+         ILS.add(S.getMatrix(40,59,0,7),BL.getMatrix(40,59,0,1));
+         check(ILS.solve(),S.qr().solve(BL));
+         check(ILS.getR().transpose().times(ILS.getR()),S.transpose().times(S));
+         float[] res = ILS.getResidualNorm();
+         Matrix RL = S.times(ILS.solve()).minus(BL);
+         // Both norms sum 60 squares, in different orders.
+         check(new Matrix(1,1,res[0]),new Matrix(1,1,RL.getMatrix(0,59,0,0).normF()));
+         for (int i = 0; i < 20; i++) {
+            ILS.remove(S.getMatrix(i,i,0,7).getRowPackedCopy(),BL.getMatrix(i,i,0,1).getRowPackedCopy());
+         }
+         if (ILS.getRowCount() != 40) {
+            throw new RuntimeException("row count " + ILS.getRowCount());
+         }
+         check(ILS.solve(),S.getMatrix(20,59,0,7).qr().solve(BL.getMatrix(20,59,0,1)));
+         IncrementalLeastSquares ILS1 = new IncrementalLeastSquares(2);
+         ILS1.add(new float[] {1.f,1.f},2.f);
+         try {
+            ILS1.solve();
+            throw new IllegalStateException("solve with fewer rows than columns");
+         } catch ( java.lang.RuntimeException e ) {
+            if (e instanceof IllegalStateException) {
+               throw e;
+            }
+         }
+         ILS1.add(new float[] {1.f,-1.f},0.f);
+         try {
+            ILS1.remove(new float[] {1.f,1.f},2.f);
+            throw new IllegalStateException("removal of a row leaving too few");
+         } catch ( java.lang.RuntimeException e ) {
+            if (e instanceof IllegalStateException) {
+               throw e;
+            }
+         }
+         check(ILS1.solve().getRowPackedCopy(),new float[] {1.f,1.f});
+         try_success("IncrementalLeastSquares...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"IncrementalLeastSquares...",e.getMessage());
+      }
+
+      print("\nTesting QR column updates...f\n");
+      try {
+         S = Matrix.random(50,6);
+         Matrix BU = Matrix.random(50,2);
+         QRDecomposition UQR = S.qr();
+         UQR.deleteColumn(2);
+         Matrix SU = new Matrix(50,5);
+         SU.setMatrix(0,49,0,1,S.getMatrix(0,49,0,1));
+         SU.setMatrix(0,49,2,4,S.getMatrix(0,49,3,5));
+         Matrix Q = UQR.getQ();
+         check(Q.times(UQR.getR()),SU);
+         check(Q.transpose().times(Q),Matrix.identity(5,5));
+         check(UQR.solve(BU),SU.qr().solve(BU));
+         Matrix AU = Matrix.random(50,2);
+         UQR.insertColumn(1,AU.getMatrix(0,49,0,0));
+         UQR.insertColumn(6,AU.getMatrix(0,49,1,1).getColumnPackedCopy());
+         Matrix SI = new Matrix(50,7);
+         SI.setMatrix(0,49,0,0,SU.getMatrix(0,49,0,0));
+         SI.setMatrix(0,49,1,1,AU.getMatrix(0,49,0,0));
+         SI.setMatrix(0,49,2,5,SU.getMatrix(0,49,1,4));
+         SI.setMatrix(0,49,6,6,AU.getMatrix(0,49,1,1));
+         Matrix RU = UQR.getR();
+         Q = UQR.getQ();
+         for (int i = 0; i < 7; i++) {
+            for (int j = 0; j < i; j++) {
+               if (RU.get(i,j) != 0.f) {
+                  throw new RuntimeException("R is not upper triangular");
+               }
+            }
+         }
+         check(Q.times(RU),SI);
+         check(Q.transpose().times(Q),Matrix.identity(7,7));
+         check(UQR.solve(BU),SI.qr().solve(BU));
+         check(UQR.applyQ(UQR.applyQTranspose(BU)),BU);
+         try {
+            UQR.insertColumn(8,AU.getMatrix(0,49,0,0));
+            throw new IllegalStateException("insertion out of range");
+         } catch ( java.lang.ArrayIndexOutOfBoundsException e ) {
+         }
+         S = Matrix.random(80,40);
+         UQR = S.qr();
+         UQR.deleteColumn(0);
+         UQR.insertColumn(39,S.getMatrix(0,79,0,0));
+         SU = new Matrix(80,40);
+         SU.setMatrix(0,79,0,38,S.getMatrix(0,79,1,39));
+         SU.setMatrix(0,79,39,39,S.getMatrix(0,79,0,0));
+         check(UQR.getQ().times(UQR.getR()),SU);
+         check(UQR.solve(Matrix.identity(80,80)),SU.qr().solve(Matrix.identity(80,80)));
+         try_success("insertColumn, deleteColumn...","");
+      } catch ( java.lang.RuntimeException e ) {
+         errorCount = try_failure(errorCount,"insertColumn, deleteColumn...",e.getMessage());
+      }
+
       print("\nTestMatrix completed.f\n");
       print("Total errors reported: " + Integer.toString(errorCount) + "\n");
       print("Total warnings reported: " + Integer.toString(warningCount) + "\n");
@@ -876,6 +1985,14 @@ public class TestMatrix {
 
    /** private utility routines **/
 
+   /** Accessible package-private method of Kernels.f **/
+
+   private static java.lang.reflect.Method kernel(Class<?> kernels, String name, Class<?>[] types) throws java.lang.NoSuchMethodException {
+      java.lang.reflect.Method method = kernels.getDeclaredMethod(name,types);
+      method.setAccessible(true);
+      return method;
+   }
+
    /** Check magnitude of difference of scalars.f **/
 
    private static void check(float x, float y) {
@@ -918,6 +2035,23 @@ public class TestMatrix {
       }
    }
 
+   /** Reference product computed with plain dot products.f **/
+
+   private static Matrix product(Matrix X, Matrix Y) {
+      int m = X.getRowDimension(), n = Y.getColumnDimension(), p = X.getColumnDimension();
+      Matrix Z = new Matrix(m,n);
+      for (int i = 0; i < m; i++) {
+         for (int j = 0; j < n; j++) {
+            float s = 0.f;
+            for (int k = 0; k < p; k++) {
+               s += X.get(i,k)*Y.get(k,j);
+            }
+            Z.set(i,j,s);
+         }
+      }
+      return Z;
+   }
+
    /** Shorten spelling of print.f **/
 
    private static void print (String s) {
@@ -0,0 +1,145 @@
+package com.github.sikoried.fjama;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+   /** SIMD versions of the Kernels loops using the incubating Vector API.
+   <P>
+   Each loop processes full vectors of the preferred species (16 floats
+   with AVX-512, 8 with AVX2) and finishes the remaining elements with
+   the scalar loop.  The micro-kernel keeps one 4-float vector per row of
+   the register block.  This class is compiled for Java 17 with
+   jdk.incubator.vector and is only loaded by Kernels at run time.
+   */
+
+final class VectorKernels extends Kernels {
+
+/* ------------------------
+   Class variables
+ * ------------------------ */
+
+   private static final VectorSpecies<Float> S = FloatVector.SPECIES_PREFERRED;
+
+   private static final VectorSpecies<Float> S4 = FloatVector.SPECIES_128;
+
+/* ------------------------
+   Public Methods
+ * ------------------------ */
+
+   @Override
+   void add (float[] a, int ai, float[] b, int bi, float[] c, int ci, int n) {
+      int j = 0;
+      for (int u = S.loopBound(n); j < u; j += S.length()) {
+         FloatVector.fromArray(S,a,ai+j).add(FloatVector.fromArray(S,b,bi+j)).intoArray(c,ci+j);
+      }
+      super.add(a,ai+j,b,bi+j,c,ci+j,n-j);
+   }
+
+   @Override
+   void sub (float[] a, int ai, float[] b, int bi, float[] c, int ci, int n) {
+      int j = 0;
+      for (int u = S.loopBound(n); j < u; j += S.length()) {
+         FloatVector.fromArray(S,a,ai+j).sub(FloatVector.fromArray(S,b,bi+j)).intoArray(c,ci+j);
+      }
+      super.sub(a,ai+j,b,bi+j,c,ci+j,n-j);
+   }
+
+   @Override
+   void mul (float[] a, int ai, float[] b, int bi, float[] c, int ci, int n) {
+      int j = 0;
+      for (int u = S.loopBound(n); j < u; j += S.length()) {
+         FloatVector.fromArray(S,a,ai+j).mul(FloatVector.fromArray(S,b,bi+j)).intoArray(c,ci+j);
+      }
+      super.mul(a,ai+j,b,bi+j,c,ci+j,n-j);
+   }
+
+   @Override
+   void div (float[] a, int ai, float[] b, int bi, float[] c, int ci, int n) {
+      int j = 0;
+      for (int u = S.loopBound(n); j < u; j += S.length()) {
+         FloatVector.fromArray(S,a,ai+j).div(FloatVector.fromArray(S,b,bi+j)).intoArray(c,ci+j);
+      }
+      super.div(a,ai+j,b,bi+j,c,ci+j,n-j);
+   }
+
+   @Override
+   void scale (float s, float[] a, int ai, float[] c, int ci, int n) {
+      int j = 0;
+      for (int u = S.loopBound(n); j < u; j += S.length()) {
+         FloatVector.fromArray(S,a,ai+j).mul(s).intoArray(c,ci+j);
+      }
+      super.scale(s,a,ai+j,c,ci+j,n-j);
+   }
+
+   @Override
+   void negate (float[] a, int ai, float[] c, int ci, int n) {
+      int j = 0;
+      for (int u = S.loopBound(n); j < u; j += S.length()) {
+         FloatVector.fromArray(S,a,ai+j).neg().intoArray(c,ci+j);
+      }
+      super.negate(a,ai+j,c,ci+j,n-j);
+   }
+
+   @Override
+   void axpy (float s, float[] x, int xi, float[] y, int yi, int n) {
+
+      // Multiply and add separately, rounding like the scalar loop for
+      // the remainder, so that each element of y gets the same result no
+      // matter where a run of columns starts.  LUDecomposition relies on
+      // this to choose the same pivots however the columns are split.
+
+      int j = 0;
+      for (int u = S.loopBound(n); j < u; j += S.length()) {
+         FloatVector.fromArray(S,x,xi+j).mul(s).add(FloatVector.fromArray(S,y,yi+j)).intoArray(y,yi+j);
+      }
+      super.axpy(s,x,xi+j,y,yi+j,n-j);
+   }
+
+   @Override
+   void subMul (float[] a, int ai, float[] b, int bi, float[] c, int ci, int n) {
+      int j = 0;
+      for (int u = S.loopBound(n); j < u; j += S.length()) {
+         FloatVector p = FloatVector.fromArray(S,a,ai+j).mul(FloatVector.fromArray(S,b,bi+j));
+         FloatVector.fromArray(S,c,ci+j).sub(p).intoArray(c,ci+j);
+      }
+      super.subMul(a,ai+j,b,bi+j,c,ci+j,n-j);
+   }
+
+   @Override
+   float dot (float[] x, int xi, float[] y, int yi, int n) {
+      int j = 0;
+      FloatVector acc = FloatVector.zero(S);
+      for (int u = S.loopBound(n); j < u; j += S.length()) {
+         acc = FloatVector.fromArray(S,x,xi+j).fma(FloatVector.fromArray(S,y,yi+j),acc);
+      }
+      return acc.reduceLanes(VectorOperators.ADD) + super.dot(x,xi+j,y,yi+j,n-j);
+   }
+
+   @Override
+   void tile (int kc, float[] Ap, int a, float[] Bp, int b, float[] t) {
+      FloatVector c0 = FloatVector.zero(S4), c1 = FloatVector.zero(S4);
+      FloatVector c2 = FloatVector.zero(S4), c3 = FloatVector.zero(S4);
+      for (int p = 0; p < kc; p++, a += 4, b += 4) {
+         FloatVector bv = FloatVector.fromArray(S4,Bp,b);
+         c0 = bv.fma(FloatVector.broadcast(S4,Ap[a]),c0);
+         c1 = bv.fma(FloatVector.broadcast(S4,Ap[a+1]),c1);
+         c2 = bv.fma(FloatVector.broadcast(S4,Ap[a+2]),c2);
+         c3 = bv.fma(FloatVector.broadcast(S4,Ap[a+3]),c3);
+      }
+      // Extract the lanes rather than storing the 128-bit vectors:  a store
+      // shares its call path with the stores of the preferred species,
+      // and C2 stops intrinsifying it once it has seen both.
+      for (int j = 0; j < 4; j++) {
+         t[j] = c0.lane(j);
+         t[4+j] = c1.lane(j);
+         t[8+j] = c2.lane(j);
+         t[12+j] = c3.lane(j);
+      }
+   }
+
+   @Override
+   String name () {
+      return "vector " + S;
+   }
+}